@@ -1,51 +1,141 @@
 package com.iot.analytics;
 
+import com.iot.shared.Backend;
+import com.iot.shared.ChangeLog;
 import com.iot.shared.ConfigLoader;
+import com.iot.shared.Histogram;
 import com.iot.shared.IntermediateSummary;
 import com.iot.shared.JsonUtils;
+import com.iot.shared.MessageQueue;
+import com.iot.shared.Metrics;
+import com.iot.shared.MetricsExporter;
+import com.iot.shared.ObjectStore;
+import com.iot.shared.PairDelta;
+import com.iot.shared.PairKey;
+import com.iot.shared.QueueMessage;
+import com.iot.shared.RollupDelta;
+import com.iot.shared.RollupStore;
+import com.iot.shared.StateStore;
+import com.iot.shared.SummaryBatch;
 import com.iot.shared.TrafficState;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.Message;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ConsolidatorWorker {
 
     private static final String QUEUE_URL = ConfigLoader.getQueueConsolidate();
     private static final String BUCKET_INTERIM = ConfigLoader.getBucketInterim();
-    private static final String BUCKET_STATE = ConfigLoader.getBucketState();
+    private static final int BATCH_SIZE = ConfigLoader.getConsolidateBatchSize();
+    private static final int WORKERS = ConfigLoader.getConsolidateWorkers();
 
-    private final SqsClient sqs;
-    private final S3Client s3;
+    private static final int CACHE_MAX_ENTRIES = ConfigLoader.getConsolidateCacheMaxEntries();
+    private static final long FLUSH_INTERVAL_MS = ConfigLoader.getConsolidateFlushIntervalMs();
+    // Change log objects older than changelog.retention.days are deleted at this interval
+    private static final long PRUNE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    // Consolidation lag: from the notification of a summary to its acknowledgement (ms)
+    private static final Histogram LAG = Metrics.histogram("consolidate.lag_ms");
+    private static final Histogram BATCH = Metrics.histogram("consolidate.batch");
+    private static final LongAdder SUMMARIES = Metrics.counter("consolidate.summaries");
+    private static final LongAdder ACKNOWLEDGED = Metrics.counter("consolidate.acknowledged");
+    private static final LongAdder FETCH_FAILURES = Metrics.counter("consolidate.fetch.failures");
+
+    private final MessageQueue queues;
+    private final ObjectStore objects;
+    private final StateStore store;
+    private final StateCache cache;
+    private final ChangeLog changeLog; // null when changelog.enabled = false
+    private final boolean rollupsEnabled;
 
     public ConsolidatorWorker() {
-        Region region = Region.of(ConfigLoader.getAwsRegion());
-        this.sqs = SqsClient.builder().region(region).build();
-        this.s3 = S3Client.builder().region(region).build();
+        this(Backend.fromConfig());
+    }
+
+    public ConsolidatorWorker(Backend backend) {
+        this.queues = backend.queues();
+        this.objects = backend.objects();
+        this.store = StateStore.fromConfig(objects);
+        // Saved states are also recorded in the change log, for delta exports
+        this.changeLog = ConfigLoader.isChangeLogEnabled() ? ChangeLog.fromConfig(objects) : null;
+        // Day / week / month buckets per pair, for range queries (RollupQuery),
+        // buffered and saved by the cache with the states
+        this.rollupsEnabled = ConfigLoader.isRollupEnabled();
+        RollupUpdater rollups = rollupsEnabled
+                ? new RollupUpdater(RollupStore.fromConfig(objects), CACHE_MAX_ENTRIES)
+                : null;
+        this.cache = changeLog != null
+                ? new StateCache(CACHE_MAX_ENTRIES, store, rollups, this::onDurable, changeLog::append)
+                : new StateCache(CACHE_MAX_ENTRIES, store, rollups, this::onDurable, saved -> { });
     }
 
+    /**
+     * Starts WORKERS polling loops on a fixed pool.
+     * The FIFO queue (SQS or local) never hands out a message group that is already
+     * in flight, so each group stays ordered while different groups are consolidated
+     * in parallel. Ordering is not needed for correctness: states and rollups are
+     * merged with conditional writes, so other consolidator instances may update the
+     * same pairs concurrently.
+     */
     public void start() {
-        System.out.println("Consolidator Worker Started (FIFO Mode).");
+        System.out.println("Consolidator Worker Started (FIFO Mode, " + WORKERS + " workers).");
+        MetricsExporter.startFromConfig();
+
+        // Write-back: dirty states are saved periodically, and on shutdown
+        if (FLUSH_INTERVAL_MS > 0) {
+            ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "state-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(cache::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::flush, "state-flush-on-exit"));
+
+        // The change log is pruned here, whether delta exports run or not
+        if (changeLog != null) {
+            ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "changelog-pruner");
+                t.setDaemon(true);
+                return t;
+            });
+            pruner.scheduleWithFixedDelay(this::pruneChangeLog, 0, PRUNE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+            pool.submit(this::pollLoop);
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    private void pollLoop() {
         while (true) {
             try {
-                // Ensure we respect the FIFO order
-                List<Message> messages = sqs.receiveMessage(ReceiveMessageRequest.builder()
-                        .queueUrl(QUEUE_URL)
-                        .maxNumberOfMessages(1)
-                        .waitTimeSeconds(20)
-                        .build()).messages();
-
-                for (Message msg : messages) {
-                    processMessage(msg);
+                // FIFO: messages of a group are returned in order within the batch
+                List<QueueMessage> messages = queues.receive(QUEUE_URL, BATCH_SIZE, 20);
+
+                if (!messages.isEmpty()) {
+                    long start = System.nanoTime();
+                    processBatch(messages);
+                    BATCH.recordSince(start);
                 }
             } catch (Exception e) {
                 System.err.println("Main loop error: " + e.getMessage());
@@ -54,65 +144,154 @@ public class ConsolidatorWorker {
         }
     }
 
-    private void processMessage(Message msg) {
-        String interimKey = msg.body();
-        System.out.println("Consolidating summary: " + interimKey);
-
-        try {
-            // 1. Fetch Interim Summary
-            InputStream s3Stream = s3.getObject(b -> b.bucket(BUCKET_INTERIM).key(interimKey), ResponseTransformer.toInputStream());
-            IntermediateSummary summary = JsonUtils.fromJson(s3Stream, IntermediateSummary.class);
+    /**
+     * Consolidates a batch of messages: the summaries of every touched pair are
+     * added up in memory into one delta per message, which the cache merges into
+     * the stored state with a conditional write, skipping messages the ledger of the
+     * state already lists. No state is read here, so consolidators on any number of
+     * nodes can share the State bucket, and a redelivered message counts once.
+     * The day / week / month rollups of the summaries go to the same cache. A message
+     * is acknowledged only once every pair and rollup object it touches has been
+     * saved, so a failing object does not block the others.
+     */
+    private void processBatch(List<QueueMessage> messages) {
+        // 1. Fetch Interim Summaries of every message
+        List<Pending> batch = new ArrayList<>();
+        for (QueueMessage msg : messages) {
+            String interimKey = msg.body();
+            System.out.println("Consolidating summary: " + interimKey);
+            try {
+                List<IntermediateSummary> summaries = fetchSummaries(interimKey);
+                Set<PairKey> pairs = new LinkedHashSet<>();
+                for (IntermediateSummary summary : summaries) {
+                    pairs.add(PairKey.of(summary));
+                }
+                batch.add(new Pending(msg, summaries, pairs));
+                SUMMARIES.add(summaries.size());
+            } catch (Exception e) {
+                FETCH_FAILURES.increment();
+                System.err.println("Failed to consolidate " + interimKey + ": " + e.getMessage());
+            }
+        }
 
-            // 2. Load History
-            String stateKey = "state/" + summary.srcIp() + "_" + summary.dstIp() + ".json";
-            TrafficState currentState = loadState(stateKey, summary.srcIp(), summary.dstIp());
+        // 2. Update Math in receive order, one delta per pair and message
+        Map<PairKey, Map<String, TrafficState>> deltas = new LinkedHashMap<>();
+        List<RollupDelta> rollupDeltas = new ArrayList<>();
+        Map<QueueMessage, Set<PairKey>> touched = new LinkedHashMap<>();
+        List<QueueMessage> empty = new ArrayList<>();
+        for (Pending pending : batch) {
+            if (pending.pairs().isEmpty()) {
+                empty.add(pending.message());
+                continue;
+            }
+            // The interim key identifies the summaries in the ledgers of the store
+            String summaryKey = pending.message().body();
+            for (IntermediateSummary summary : pending.summaries()) {
+                PairKey pair = PairKey.of(summary);
+                Map<String, TrafficState> bySummary = deltas.computeIfAbsent(pair, k -> new LinkedHashMap<>());
+                TrafficState delta = bySummary.get(summaryKey);
+                if (delta == null) {
+                    delta = TrafficState.empty(pair.srcIp(), pair.dstIp());
+                }
+                bySummary.put(summaryKey, updateState(delta, summary));
+            }
+            if (rollupsEnabled) {
+                rollupDeltas.addAll(RollupUpdater.deltasOf(summaryKey, pending.summaries()));
+            }
+            touched.put(pending.message(), pending.pairs());
+        }
+        if (!empty.isEmpty()) {
+            onDurable(empty);
+        }
+        if (deltas.isEmpty()) return;
 
-            // 3. Update Math (Welford's Logic / Sum of Squares)
-            TrafficState newState = updateState(currentState, summary);
+        // 3. Hand the deltas to the write-back cache
+        // Messages are acknowledged by onDurable once their states are saved;
+        // unacknowledged messages are retried later (Resilience)
+        List<PairDelta> pairDeltas = new ArrayList<>(deltas.size());
+        deltas.forEach((pair, bySummary) -> pairDeltas.add(new PairDelta(pair, bySummary)));
+        cache.commit(pairDeltas, rollupDeltas, touched);
+        if (FLUSH_INTERVAL_MS <= 0) {
+            cache.flush(deltas.keySet());
+        }
+    }
 
-            // 4. Save & Clean
-            saveState(stateKey, newState);
+    /**
+     * Called by the cache when all the states touched by these messages are saved:
+     * cleans their interim files and acknowledges them.
+     */
+    private void onDurable(List<QueueMessage> done) {
+        deleteInterimFiles(done);
+        acknowledge(done);
+        long now = System.currentTimeMillis();
+        for (QueueMessage msg : done) {
+            if (msg.sentAt() > 0) {
+                LAG.record(now - msg.sentAt());
+            }
+        }
+        ACKNOWLEDGED.add(done.size());
+    }
 
-            // Delete interim file to satisfy "Least Storage" requirement
-            s3.deleteObject(b -> b.bucket(BUCKET_INTERIM).key(interimKey));
+    /**
+     * Deletes the change log objects older than changelog.retention.days. Every
+     * consolidator instance does it: deleting an object twice is harmless.
+     */
+    private void pruneChangeLog() {
+        try {
+            long retentionMs = TimeUnit.DAYS.toMillis(ConfigLoader.getChangeLogRetentionDays());
+            int pruned = changeLog.prune(System.currentTimeMillis() - retentionMs);
+            if (pruned > 0) {
+                System.out.println("Pruned " + pruned + " expired change log objects");
+            }
+        } catch (Exception e) {
+            // Retried at the next interval; a scheduled task must not throw
+            System.err.println("Failed to prune change log: " + e.getMessage());
+        }
+    }
 
-            // Acknowledge message
-            sqs.deleteMessage(b -> b.queueUrl(QUEUE_URL).receiptHandle(msg.receiptHandle()));
+    private record Pending(QueueMessage message, List<IntermediateSummary> summaries, Set<PairKey> pairs) {}
 
+    // Delete interim files to satisfy "Least Storage" requirement
+    private void deleteInterimFiles(List<QueueMessage> done) {
+        List<String> keys = new ArrayList<>();
+        for (QueueMessage msg : done) {
+            keys.add(msg.body());
+        }
+        try {
+            objects.delete(BUCKET_INTERIM, keys);
         } catch (Exception e) {
-            System.err.println("Failed to consolidate " + interimKey + ": " + e.getMessage());
-            // We do NOT delete the message here, so it retries later (Resilience)
+            // Leftover interim files only cost storage, the states are already saved
+            System.err.println("Failed to delete interim files: " + e.getMessage());
         }
     }
 
-    private TrafficState loadState(String key, String src, String dst) {
+    private void acknowledge(List<QueueMessage> done) {
         try {
-            InputStream stream = s3.getObject(b -> b.bucket(BUCKET_STATE).key(key), ResponseTransformer.toInputStream());
-            return JsonUtils.fromJson(stream, TrafficState.class);
-        } catch (NoSuchKeyException e) {
-            return TrafficState.empty(src, dst);
+            queues.delete(QUEUE_URL, done);
+        } catch (Exception e) {
+            System.err.println("Failed to acknowledge messages: " + e.getMessage());
         }
     }
 
-    private void saveState(String key, TrafficState state) {
-        s3.putObject(b -> b.bucket(BUCKET_STATE).key(key),
-                RequestBody.fromString(JsonUtils.toJson(state), StandardCharsets.UTF_8));
+    private List<IntermediateSummary> fetchSummaries(String interimKey) throws IOException {
+        try (InputStream s3Stream = objects.open(BUCKET_INTERIM, interimKey)) {
+            if (s3Stream == null) {
+                throw new FileNotFoundException("interim file not found");
+            }
+            if (interimKey.startsWith(SummaryBatch.KEY_PREFIX)) {
+                return JsonUtils.fromJson(s3Stream, SummaryBatch.class).summaries();
+            }
+            return List.of(JsonUtils.fromJson(s3Stream, IntermediateSummary.class));
+        }
     }
 
-    private TrafficState updateState(TrafficState current, IntermediateSummary input) {
+    private static TrafficState updateState(TrafficState current, IntermediateSummary input) {
         // Protect against bad data
         long duration = Math.max(0, input.totalFlowDuration());
         long packets = Math.max(0, input.totalFwdPackets());
 
-        return new TrafficState(
-                current.srcIp(),
-                current.dstIp(),
-                current.count() + 1,
-                current.sumDuration() + duration,
-                current.sumSqDuration() + Math.pow(duration, 2),
-                current.sumPackets() + packets,
-                current.sumSqPackets() + Math.pow(packets, 2)
-        );
+        // Welford's update of count / mean / M2 (and min / max)
+        return current.add(duration, packets);
     }
 
     public static void main(String[] args) {
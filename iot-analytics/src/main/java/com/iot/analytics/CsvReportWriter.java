@@ -0,0 +1,96 @@
+package com.iot.analytics;
+
+import com.iot.shared.TrafficState;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Streams report rows to a buffered CSV file.
+ * Thread-safe: rows may come from concurrent downloads. The first write error is
+ * kept and rethrown by close(), like PrintWriter.checkError().
+ */
+public class CsvReportWriter implements AutoCloseable {
+
+    public static final String HEADER = "SrcIP,DstIP,Count,AvgDuration,StdDevDuration,AvgPackets,StdDevPackets";
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Writer out;
+    private IOException error;
+    private long rows;
+
+    public CsvReportWriter(Path path) throws IOException {
+        this(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+    }
+
+    public CsvReportWriter(Writer writer) throws IOException {
+        this.out = new BufferedWriter(writer, BUFFER_SIZE);
+        out.write(HEADER);
+        out.write('\n');
+    }
+
+    public static CsvReportWriter toStdout() throws IOException {
+        return new CsvReportWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+
+    public synchronized void write(TrafficState s) {
+        if (s.count() <= 0 || error != null) return; // Eviter la division par zéro
+
+        // 1. Calcul des Moyennes
+        double avgDur = s.duration().mean();
+        double avgPkt = s.packets().mean();
+
+        // 2. Calcul des Ecart-Types (Standard Deviation)
+        // Variance = M2 / N (Welford), sans la perte de précision de E[X^2] - (E[X])^2
+        double stdDevDur = s.duration().stdDev();
+        double stdDevPkt = s.packets().stdDev();
+
+        // 3. Sortie formatée (Locale US pour avoir des points et non des virgules)
+        try {
+            out.write(String.format(Locale.US, "%s,%s,%d,%.2f,%.2f,%.2f,%.2f\n",
+                    s.srcIp(),
+                    s.dstIp(),
+                    s.count(),
+                    avgDur,
+                    stdDevDur,
+                    avgPkt,
+                    stdDevPkt));
+            rows++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /** Copies a row of a previous report as is (delta export). */
+    public synchronized void writeLine(String line) {
+        if (error != null) return;
+        try {
+            out.write(line);
+            out.write('\n');
+            rows++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    public synchronized long rows() {
+        return rows;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+        if (error != null) throw error;
+    }
+}
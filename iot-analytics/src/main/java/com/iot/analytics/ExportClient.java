@@ -1,73 +1,201 @@
 package com.iot.analytics;
 
+import com.iot.shared.Backend;
+import com.iot.shared.ChangeLog;
 import com.iot.shared.ConfigLoader;
-import com.iot.shared.JsonUtils;
+import com.iot.shared.PairKey;
+import com.iot.shared.StateStore;
 import com.iot.shared.TrafficState;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 public class ExportClient {
 
+    // Le curseur recule d'une minute : une modification relue deux fois est sans effet
+    // (l'état le plus récent d'une paire est celui qui a le plus grand Count)
+    private static final long CURSOR_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String CURSOR_SUFFIX = ".cursor";
+
     public static void main(String[] args) {
         String stateBucket = ConfigLoader.getBucketState();
-        Region region = Region.of(ConfigLoader.getAwsRegion());
+
+        // Fichier de sortie ("-" pour la sortie standard), mode delta optionnel
+        String output = "report.csv";
+        String base = null;
+        boolean delta = false;
+        boolean changesOnly = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--delta".equals(args[i])) {
+                delta = true;
+            } else if ("--changes-only".equals(args[i])) {
+                delta = true;
+                changesOnly = true;
+            } else if ("--base".equals(args[i]) && i + 1 < args.length) {
+                base = args[++i];
+            } else {
+                output = args[i];
+            }
+        }
 
         // Le client hérite des droits du LabRole ou de votre profil local
-        S3Client s3 = S3Client.builder().region(region).build();
+        try {
+            Backend backend = Backend.fromConfig();
+            StateStore store = StateStore.fromConfig(backend.objects());
+            if (!delta) {
+                export(store, output);
+            } else {
+                ChangeLog changeLog = ChangeLog.fromConfig(backend.objects());
+                exportDelta(store, changeLog, base != null ? base : output, output, changesOnly);
+
+                // Les journaux plus anciens que la rétention ne servent plus à aucun rapport
+                long retentionMs = TimeUnit.DAYS.toMillis(ConfigLoader.getChangeLogRetentionDays());
+                int pruned = changeLog.prune(System.currentTimeMillis() - retentionMs);
+                if (pruned > 0) {
+                    System.err.println(pruned + " journaux de modifications expirés supprimés");
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Impossible d'exporter le bucket " + stateBucket + " : " + e.getMessage());
+        }
+    }
 
-        // En-tête du CSV final
-        System.out.println("SrcIP,DstIP,Count,AvgDuration,StdDevDuration,AvgPackets,StdDevPackets");
+    /**
+     * Exporte tous les états du store vers un CSV et renvoie le nombre de lignes.
+     * Le curseur écrit à côté du rapport permet ensuite un export delta.
+     */
+    public static long export(StateStore store, String output) throws IOException {
+        int parallelism = ConfigLoader.getExportParallelism();
+        long start = System.currentTimeMillis();
 
-        try {
-            ListObjectsV2Response listing = s3.listObjectsV2(req -> req.bucket(stateBucket).prefix("state/"));
+        try (CsvReportWriter report = "-".equals(output) ? CsvReportWriter.toStdout() : new CsvReportWriter(Paths.get(output))) {
+            // Parcourt tous les états, quel que soit le format de stockage (state.layout),
+            // avec au plus `parallelism` téléchargements simultanés
+            store.forEach(parallelism, report::write);
 
-            for (S3Object obj : listing.contents()) {
-                // Ignorez les dossiers ou fichiers vides
-                if (obj.size() == 0) continue;
+            System.err.printf("%d lignes exportées vers %s en %d ms%n",
+                    report.rows(), output, System.currentTimeMillis() - start);
+            writeCursor(output, start - CURSOR_MARGIN_MS, true);
+            return report.rows();
+        }
+    }
+
+    /**
+     * Export delta : ne lit que le journal des modifications écrit depuis le rapport `base`.
+     * - fusion (changesOnly = false) : les lignes modifiées de `base` sont remplacées,
+     *   les nouvelles paires ajoutées à la fin ; `output` peut être `base` lui-même
+     * - changesOnly : seules les paires modifiées sont écrites
+     * Sans curseur exploitable (absent, ou plus ancien que la rétention du journal),
+     * l'export complet est fait à la place. Renvoie le nombre de lignes écrites.
+     */
+    public static long exportDelta(StateStore store, ChangeLog changeLog, String base, String output,
+                                   boolean changesOnly) throws IOException {
+        long start = System.currentTimeMillis();
 
-                try (InputStream is = s3.getObject(req -> req.bucket(stateBucket).key(obj.key()))) {
-                    TrafficState state = JsonUtils.fromJson(is, TrafficState.class);
-                    printStats(state);
-                } catch (Exception e) {
-                    System.err.println("Erreur de lecture pour " + obj.key() + " : " + e.getMessage());
+        // 1. Curseur du rapport de base
+        Properties cursor = readCursor(base);
+        long retentionMs = TimeUnit.DAYS.toMillis(ConfigLoader.getChangeLogRetentionDays());
+        if (cursor == null) {
+            System.err.println("Pas de curseur pour " + base + " : export complet");
+            return export(store, output);
+        }
+        long since = Long.parseLong(cursor.getProperty("since"));
+        if (since < start - retentionMs) {
+            System.err.println("Curseur de " + base + " plus ancien que la rétention du journal : export complet");
+            return export(store, output);
+        }
+        if (!changesOnly && !Boolean.parseBoolean(cursor.getProperty("complete"))) {
+            throw new IllegalArgumentException(base + " ne contient que des modifications, il ne peut pas servir de base à une fusion");
+        }
+
+        // 2. Dernier état de chaque paire modifiée (coût proportionnel au nombre de modifications)
+        Map<PairKey, TrafficState> changes = changeLog.changesSince(since, ConfigLoader.getExportParallelism());
+        int changed = changes.size();
+
+        // 3. Écriture dans un fichier temporaire, renommé à la fin (output peut être base)
+        boolean stdout = "-".equals(output);
+        Path target = stdout ? null : Paths.get(output).toAbsolutePath();
+        Path temp = stdout ? null : Files.createTempFile(target.getParent(), ".export-", ".csv");
+        long rows;
+        try (CsvReportWriter report = stdout ? CsvReportWriter.toStdout() : new CsvReportWriter(temp)) {
+            if (!changesOnly) {
+                copyBase(Paths.get(base), changes, report);
+            }
+            // Modifications restantes : nouvelles paires, ou toutes en mode changesOnly
+            changes.values().forEach(report::write);
+            rows = report.rows();
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (!stdout) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        System.err.printf("%d paires modifiées, %d lignes exportées vers %s en %d ms%n",
+                changed, rows, output, System.currentTimeMillis() - start);
+        writeCursor(output, start - CURSOR_MARGIN_MS, !changesOnly);
+        return rows;
+    }
+
+    /**
+     * Recopie le rapport de base en remplaçant les paires modifiées, qui sont retirées
+     * de `changes` au passage.
+     */
+    private static void copyBase(Path base, Map<PairKey, TrafficState> changes, CsvReportWriter report) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(base, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (!CsvReportWriter.HEADER.equals(header)) {
+                throw new IOException("En-tête inattendu dans " + base + " : " + header);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] fields = line.split(",", 4);
+                TrafficState changed = changes.remove(new PairKey(fields[0], fields[1]));
+                // Un journal relu peut être plus ancien que la ligne du rapport
+                if (changed != null && changed.count() >= Long.parseLong(fields[2])) {
+                    report.write(changed);
+                } else {
+                    report.writeLine(line);
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Impossible de lister le bucket " + stateBucket + " : " + e.getMessage());
         }
     }
 
-    private static void printStats(TrafficState s) {
-        if (s.count() <= 0) return; // Eviter la division par zéro
-
-        // 1. Calcul des Moyennes
-        double avgDur = s.sumDuration() / s.count();
-        double avgPkt = s.sumPackets() / s.count();
-
-        // 2. Calcul des Ecart-Types (Standard Deviation)
-        // Formule : Variance = E[X^2] - (E[X])^2
-        double meanSqDur = s.sumSqDuration() / s.count();
-        double varianceDur = meanSqDur - (avgDur * avgDur);
-
-        // Math.max(0, ...) est CRITIQUE ici pour éviter le NaN sur des variances type -0.00000001
-        double stdDevDur = Math.sqrt(Math.max(0, varianceDur));
-
-        double meanSqPkt = s.sumSqPackets() / s.count();
-        double variancePkt = meanSqPkt - (avgPkt * avgPkt);
-        double stdDevPkt = Math.sqrt(Math.max(0, variancePkt));
-
-        // 3. Sortie formatée (Locale US pour avoir des points et non des virgules)
-        System.out.printf(java.util.Locale.US, "%s,%s,%d,%.2f,%.2f,%.2f,%.2f%n",
-                s.srcIp(),
-                s.dstIp(),
-                s.count(),
-                avgDur,
-                stdDevDur,
-                avgPkt,
-                stdDevPkt);
+    private static Path cursorPath(String report) {
+        return Paths.get(report + CURSOR_SUFFIX);
+    }
+
+    private static Properties readCursor(String report) throws IOException {
+        Path path = cursorPath(report);
+        if ("-".equals(report) || !Files.exists(path) || !Files.exists(Paths.get(report))) return null;
+        Properties cursor = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            cursor.load(in);
+        }
+        return cursor.getProperty("since") != null ? cursor : null;
+    }
+
+    // since : modifications déjà incluses dans le rapport ; complete : rapport de toutes les paires
+    private static void writeCursor(String report, long since, boolean complete) throws IOException {
+        if ("-".equals(report)) return;
+        Properties cursor = new Properties();
+        cursor.setProperty("since", Long.toString(since));
+        cursor.setProperty("complete", Boolean.toString(complete));
+        try (OutputStream out = Files.newOutputStream(cursorPath(report))) {
+            cursor.store(out, "Curseur du journal de modifications pour " + report);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+package com.iot.analytics;
+
+import com.iot.shared.Backend;
+import com.iot.shared.ConfigLoader;
+import com.iot.shared.PairKey;
+import com.iot.shared.PairRollup;
+import com.iot.shared.RollupBucket;
+import com.iot.shared.RollupStore;
+import com.iot.shared.TrafficState;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Statistics of a pair over a date range, from the rollups kept by the consolidator
+ * (rollup.enabled).
+ *
+ * The range is covered by the fewest buckets: whole months, then whole ISO weeks
+ * (Monday to Sunday) and single days for the partial months at both ends. Buckets
+ * are RunningStats, merged exactly, so a query over years of history reads one
+ * object per year plus at most two month objects, and merges a few dozen buckets.
+ * Instances are thread-safe and can serve many queries (dashboards).
+ */
+public class RollupQuery implements AutoCloseable {
+
+    public static final String LEVEL_DAY = "day";
+    public static final String LEVEL_WEEK = "week";
+    public static final String LEVEL_MONTH = "month";
+
+    /** One bucket of a query plan: a day, an ISO week or a month starting at `start`. */
+    public record Period(String level, LocalDate start) {
+        public LocalDate end() {
+            switch (level) {
+                case LEVEL_MONTH: return YearMonth.from(start).atEndOfMonth();
+                case LEVEL_WEEK: return start.plusDays(6);
+                default: return start;
+            }
+        }
+    }
+
+    private final RollupStore store;
+    private final ExecutorService pool;
+
+    public RollupQuery(RollupStore store, int parallelism) {
+        this.store = store;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "rollup-query");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: java -cp ... RollupQuery <srcIp> <dstIp> <from yyyy-MM-dd> <to yyyy-MM-dd>");
+            System.exit(1);
+        }
+        PairKey pair = new PairKey(args[0], args[1]);
+        LocalDate from = LocalDate.parse(args[2]);
+        LocalDate to = LocalDate.parse(args[3]);
+
+        try (RollupQuery query = new RollupQuery(RollupStore.fromConfig(Backend.fromConfig().objects()),
+                ConfigLoader.getExportParallelism())) {
+            long start = System.nanoTime();
+            List<Period> plan = plan(from, to);
+            TrafficState stats = query.query(pair, plan);
+
+            // Same row as the reports (empty when the pair has no data in the range)
+            try (CsvReportWriter report = CsvReportWriter.toStdout()) {
+                report.write(stats);
+            }
+            System.err.printf("%s to %s: %d buckets (%d months, %d weeks, %d days) in %d ms%n",
+                    from, to, plan.size(), count(plan, LEVEL_MONTH), count(plan, LEVEL_WEEK),
+                    count(plan, LEVEL_DAY), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            System.err.println("Query failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Statistics of the pair from `from` to `to`, both included. */
+    public TrafficState query(PairKey pair, LocalDate from, LocalDate to) {
+        return query(pair, plan(from, to));
+    }
+
+    /**
+     * Fewest buckets covering [from, to]: the whole months, and for the remaining
+     * days at both ends the whole ISO weeks, then single days.
+     */
+    public static List<Period> plan(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Empty range: " + from + " to " + to);
+        }
+        List<Period> plan = new ArrayList<>();
+        YearMonth firstMonth = from.getDayOfMonth() == 1 ? YearMonth.from(from) : YearMonth.from(from).plusMonths(1);
+        YearMonth lastMonth = to.equals(YearMonth.from(to).atEndOfMonth()) ? YearMonth.from(to) : YearMonth.from(to).minusMonths(1);
+        if (firstMonth.isAfter(lastMonth)) {
+            planWeeksAndDays(from, to, plan);
+            return plan;
+        }
+        planWeeksAndDays(from, firstMonth.atDay(1).minusDays(1), plan);
+        for (YearMonth month = firstMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            plan.add(new Period(LEVEL_MONTH, month.atDay(1)));
+        }
+        planWeeksAndDays(lastMonth.atEndOfMonth().plusDays(1), to, plan);
+        return plan;
+    }
+
+    private static void planWeeksAndDays(LocalDate from, LocalDate to, List<Period> plan) {
+        LocalDate day = from;
+        while (!day.isAfter(to)) {
+            if (day.getDayOfWeek() == DayOfWeek.MONDAY && !day.plusDays(6).isAfter(to)) {
+                plan.add(new Period(LEVEL_WEEK, day));
+                day = day.plusDays(7);
+            } else {
+                plan.add(new Period(LEVEL_DAY, day));
+                day = day.plusDays(1);
+            }
+        }
+    }
+
+    private TrafficState query(PairKey pair, List<Period> plan) {
+        // 1. Objects holding the buckets of the plan, read concurrently
+        Set<String> keys = new LinkedHashSet<>();
+        for (Period period : plan) {
+            keys.addAll(objectKeys(pair, period));
+        }
+        Map<String, Future<PairRollup>> loads = new LinkedHashMap<>();
+        for (String key : keys) {
+            loads.put(key, pool.submit(() -> store.load(pair, key)));
+        }
+        Map<String, PairRollup> rollups = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<PairRollup>> load : loads.entrySet()) {
+            rollups.put(load.getKey(), await(load.getValue()));
+        }
+
+        // 2. Merge the buckets (a week spanning two months has a part in each month object)
+        RollupBucket total = RollupBucket.EMPTY;
+        for (Period period : plan) {
+            for (String key : objectKeys(pair, period)) {
+                RollupBucket bucket = bucketOf(rollups.get(key), period);
+                if (bucket != null) total = total.merge(bucket);
+            }
+        }
+        return new TrafficState(pair.srcIp(), pair.dstIp(), total.duration(), total.packets());
+    }
+
+    private static List<String> objectKeys(PairKey pair, Period period) {
+        switch (period.level()) {
+            case LEVEL_MONTH:
+                return List.of(RollupStore.yearKey(pair, period.start().getYear()));
+            case LEVEL_WEEK:
+                YearMonth first = YearMonth.from(period.start());
+                YearMonth last = YearMonth.from(period.end());
+                return first.equals(last)
+                        ? List.of(RollupStore.monthKey(pair, first))
+                        : List.of(RollupStore.monthKey(pair, first), RollupStore.monthKey(pair, last));
+            default:
+                return List.of(RollupStore.monthKey(pair, YearMonth.from(period.start())));
+        }
+    }
+
+    private static RollupBucket bucketOf(PairRollup rollup, Period period) {
+        switch (period.level()) {
+            case LEVEL_MONTH: return rollup.months().get(PairRollup.monthKey(YearMonth.from(period.start())));
+            case LEVEL_WEEK: return rollup.weeks().get(PairRollup.weekKey(period.start()));
+            default: return rollup.days().get(PairRollup.dayKey(period.start()));
+        }
+    }
+
+    private static long count(List<Period> plan, String level) {
+        return plan.stream().filter(p -> p.level().equals(level)).count();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading rollups", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+package com.iot.analytics;
+
+import com.iot.shared.IntermediateSummary;
+import com.iot.shared.Metrics;
+import com.iot.shared.PairKey;
+import com.iot.shared.PairRollup;
+import com.iot.shared.RollupDelta;
+import com.iot.shared.RollupStore;
+import com.iot.shared.SummaryLedger;
+import com.iot.shared.Versioned;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Maintains the day / week / month rollups of the consolidated summaries (RollupStore).
+ *
+ * Each summary is added to the month object of its date (day and week buckets) and
+ * to the year object (month bucket). deltasOf() only computes these additions: they
+ * are buffered by the StateCache with the state deltas and merged by its flush, one
+ * conditional write per object touched since the previous flush (merge()).
+ * The ETags of the last written versions are kept in an LRU, so that a hot object
+ * is written without being read back as long as no other consolidator changed it;
+ * on conflict the object is re-read and the delta applied again, so any number of
+ * consolidators can share the objects (maxEntries = 0 reads every object first).
+ * Each object keeps the ledger of the messages (interim keys) it includes, so a
+ * message replayed after a partial failure or a crash is not counted twice.
+ */
+public class RollupUpdater {
+
+    // Same counter as the state stores: contributions the ledger had already applied
+    private static final LongAdder REPLAYS_SKIPPED = Metrics.counter("consolidate.replays.skipped");
+
+    private final RollupStore store;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Versioned<PairRollup>> recent;
+
+    public RollupUpdater(RollupStore store, int maxEntries) {
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Versioned<PairRollup>> eldest) {
+                return size() > RollupUpdater.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Rollup additions of the summaries of one message, one delta per object.
+     * Summaries without a yyyy-MM-dd date belong to no period and are left out.
+     *
+     * @param summaryKey interim key of the message, recorded in the ledgers
+     */
+    public static List<RollupDelta> deltasOf(String summaryKey, List<IntermediateSummary> summaries) {
+        Map<String, RollupDelta> deltas = new LinkedHashMap<>();
+        for (IntermediateSummary summary : summaries) {
+            LocalDate date = RollupStore.dateOf(summary);
+            if (date == null) continue;
+            PairKey pair = PairKey.of(summary);
+            long duration = Math.max(0, summary.totalFlowDuration());
+            long packets = Math.max(0, summary.totalFwdPackets());
+
+            add(deltas, pair, RollupStore.monthKey(pair, YearMonth.from(date)), summaryKey,
+                    rollup -> rollup.addToDay(date, duration, packets));
+            add(deltas, pair, RollupStore.yearKey(pair, date.getYear()), summaryKey,
+                    rollup -> rollup.addToMonth(date, duration, packets));
+        }
+        return new ArrayList<>(deltas.values());
+    }
+
+    private static void add(Map<String, RollupDelta> deltas, PairKey pair, String key, String summaryKey,
+                            UnaryOperator<PairRollup> change) {
+        RollupDelta delta = deltas.computeIfAbsent(key, k -> new RollupDelta(pair, k, new LinkedHashMap<>()));
+        delta.bySummary().compute(summaryKey, (k, rollup) -> change.apply(rollup == null ? PairRollup.empty(pair) : rollup));
+    }
+
+    /**
+     * Adds a delta to its object with a conditional write, skipping the summaries the
+     * ledger of the object already lists. Throws if the object could not be written:
+     * the caller keeps the delta and retries it.
+     */
+    public void merge(RollupDelta delta) {
+        String key = delta.key();
+        int[] applied = new int[1]; // Of the attempt that was written
+        Versioned<PairRollup> written;
+        try {
+            written = store.update(delta.pair(), key, cached(key), rollup -> {
+                SummaryLedger ledger = SummaryLedger.orEmpty(rollup.ledger());
+                List<String> fresh = delta.unapplied(ledger);
+                applied[0] = fresh.size();
+                return delta.applyTo(rollup, fresh).withLedger(ledger.withApplied(fresh));
+            });
+        } catch (RuntimeException e) {
+            forget(key);
+            throw e;
+        }
+        remember(key, written);
+        REPLAYS_SKIPPED.add(delta.bySummary().size() - applied[0]);
+    }
+
+    private synchronized Versioned<PairRollup> cached(String key) {
+        return maxEntries > 0 ? recent.get(key) : null;
+    }
+
+    private synchronized void remember(String key, Versioned<PairRollup> rollup) {
+        if (maxEntries > 0) recent.put(key, rollup);
+    }
+
+    private synchronized void forget(String key) {
+        recent.remove(key);
+    }
+}
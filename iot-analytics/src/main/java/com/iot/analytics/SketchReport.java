@@ -0,0 +1,133 @@
+package com.iot.analytics;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.iot.shared.Backend;
+import com.iot.shared.ConfigLoader;
+import com.iot.shared.HyperLogLog;
+import com.iot.shared.JsonUtils;
+import com.iot.shared.ObjectStore;
+import com.iot.shared.StoredObject;
+import com.iot.shared.TopPairs;
+import com.iot.shared.TrafficSketch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Heavy hitters and fan-out report, answered from the sketches of the
+ * SummarizeWorker instead of a scan of the State bucket.
+ *
+ * Each run first folds the pending per-file sketches (sketches/ in bucket-interim)
+ * into the merged sketch (sketches/merged.json in bucket-state), then deletes them.
+ * The merged sketch lists the pending keys it has just absorbed: if the run stops
+ * before the deletion, the next run deletes them without merging them twice.
+ * Only one SketchReport should run at a time.
+ */
+public class SketchReport {
+
+    public static final String MERGED_KEY = TrafficSketch.PREFIX + "merged.json";
+
+    private static final int DEFAULT_ROWS = 20;
+
+    /** Content of the merged sketch object. */
+    public record Merged(
+            @JsonProperty("sketch") TrafficSketch sketch,
+            @JsonProperty("merged_keys") List<String> mergedKeys
+    ) {}
+
+    public static void main(String[] args) {
+        int topRows = DEFAULT_ROWS;
+        int fanoutRows = DEFAULT_ROWS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--top".equals(args[i])) {
+                topRows = Integer.parseInt(args[i + 1]);
+            } else if ("--fanout".equals(args[i])) {
+                fanoutRows = Integer.parseInt(args[i + 1]);
+            } else {
+                System.out.println("Usage: java -cp ... SketchReport [--top N] [--fanout N]");
+                System.exit(1);
+            }
+        }
+
+        try {
+            ObjectStore objects = Backend.fromConfig().objects();
+            long start = System.currentTimeMillis();
+            TrafficSketch sketch = fold(objects, ConfigLoader.getBucketInterim(), ConfigLoader.getBucketState());
+            System.err.printf("Sketches merged in %d ms%n", System.currentTimeMillis() - start);
+            print(sketch, topRows, fanoutRows, System.out);
+        } catch (Exception e) {
+            System.err.println("Sketch report failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Folds the pending sketches into the merged one and returns the result. */
+    public static TrafficSketch fold(ObjectStore objects, String interimBucket, String stateBucket) throws IOException {
+        // 1. Merged sketch so far
+        Merged merged = read(objects, stateBucket, MERGED_KEY, Merged.class);
+        TrafficSketch sketch = merged != null ? merged.sketch() : TrafficSketch.empty(ConfigLoader.getSketchTopCapacity(), ConfigLoader.getSketchMaxSources());
+        Set<String> absorbed = merged != null ? new HashSet<>(merged.mergedKeys()) : Set.of();
+
+        // 2. Pending sketches (leftovers of an interrupted run are only deleted)
+        List<String> folded = new ArrayList<>();
+        List<String> leftovers = new ArrayList<>();
+        for (StoredObject obj : objects.list(interimBucket, TrafficSketch.PREFIX)) {
+            if (absorbed.contains(obj.key())) {
+                leftovers.add(obj.key());
+                continue;
+            }
+            TrafficSketch pending = read(objects, interimBucket, obj.key(), TrafficSketch.class);
+            if (pending == null) continue;
+            sketch = sketch.merge(pending);
+            folded.add(obj.key());
+        }
+        objects.delete(interimBucket, leftovers);
+        if (folded.isEmpty()) return sketch;
+
+        // 3. Save the merged sketch, then drop what it absorbed
+        objects.write(stateBucket, MERGED_KEY, JsonUtils.toBytes(new Merged(sketch, folded)));
+        objects.delete(interimBucket, folded);
+        System.err.println(folded.size() + " pending sketches merged");
+        return sketch;
+    }
+
+    private static <T> T read(ObjectStore objects, String bucket, String key, Class<T> type) throws IOException {
+        try (InputStream in = objects.open(bucket, key)) {
+            return in == null ? null : JsonUtils.fromJson(in, type);
+        }
+    }
+
+    static void print(TrafficSketch sketch, int topRows, int fanoutRows, PrintStream out) {
+        // 1. Heaviest pairs: the true total lies between Packets and Packets + MaxError
+        TopPairs top = sketch.top();
+        out.println("SrcIP,DstIP,Packets,MaxError");
+        for (TopPairs.Entry entry : top.top(topRows)) {
+            out.printf(Locale.US, "%s,%s,%d,%d%n", entry.srcIp(), entry.dstIp(), entry.packets(), entry.error());
+        }
+        out.printf(Locale.US, "# unlisted pairs have at most %d packets%n", top.threshold());
+
+        // 2. Sources with the most distinct destinations (scanning / fan-out)
+        out.println();
+        out.println("SrcIP,DistinctDst");
+        List<Map.Entry<String, Long>> fanout = new ArrayList<>();
+        for (Map.Entry<String, HyperLogLog> source : sketch.destinations().entrySet()) {
+            fanout.add(Map.entry(source.getKey(), source.getValue().estimate()));
+        }
+        fanout.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        for (Map.Entry<String, Long> source : fanout.subList(0, Math.min(fanoutRows, fanout.size()))) {
+            out.printf(Locale.US, "%s,%d%n", source.getKey(), source.getValue());
+        }
+        if (sketch.fanoutThreshold() > 0) {
+            out.printf(Locale.US, "# unlisted sources have about %d distinct destinations or fewer%n", sketch.fanoutThreshold());
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,324 @@
+package com.iot.analytics;
+
+import com.iot.shared.Histogram;
+import com.iot.shared.Metrics;
+import com.iot.shared.PairDelta;
+import com.iot.shared.PairKey;
+import com.iot.shared.PairRollup;
+import com.iot.shared.QueueMessage;
+import com.iot.shared.RollupDelta;
+import com.iot.shared.StateStore;
+import com.iot.shared.TrafficState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Write-back cache of TrafficState deltas for ConsolidatorWorker.
+ *
+ * Map keyed by pair of the statistics added since the last flush. Deltas stay in
+ * memory and are merged into the stored states by flush (timer, size limit,
+ * shutdown), one StateStore.mergeAll per store partition. Since the store merges
+ * with conditional writes, the cache never holds a copy of a stored state that
+ * another consolidator could have changed. Each queue message is attached to the
+ * deltas it contributed to and is only released for acknowledgement once all of
+ * them have been saved, so a crash replays exactly the messages whose effect was lost.
+ * Deltas are kept per message (interim key): a replayed message whose effect was in
+ * fact saved is then recognized by the ledger of the store and skipped.
+ * A message is released only once its states are also in the change log (onSaved):
+ * if that write fails, the message is never acknowledged, and its redelivery is
+ * skipped by the ledger but returns the same states, which are logged again.
+ *
+ * Rollup deltas (RollupUpdater, rollup.enabled) are buffered the same way, per
+ * rollup object and per message, and merged by the same flush after the states:
+ * one conditional write per object touched since the previous flush, off the poll
+ * threads. A message is released once its pairs and its rollup objects are all saved.
+ *
+ * Metrics: consolidate.cache.hit_ratio is the share of deltas folded into a pair
+ * already buffered (one merge saved), consolidate.cache.pairs the buffered pairs,
+ * consolidate.cache.rollups the buffered rollup objects.
+ */
+public class StateCache {
+
+    private static final LongAdder HITS = Metrics.counter("consolidate.cache.hits");
+    private static final LongAdder MISSES = Metrics.counter("consolidate.cache.misses");
+    private static final LongAdder FLUSH_FAILURES = Metrics.counter("consolidate.flush.failures");
+    private static final LongAdder ROLLUP_FAILURES = Metrics.counter("consolidate.rollup.failures");
+    private static final LongAdder CHANGELOG_FAILURES = Metrics.counter("consolidate.changelog.failures");
+    private static final Histogram FLUSH = Metrics.histogram("consolidate.flush");
+
+    static {
+        Metrics.ratio("consolidate.cache.hit_ratio", HITS, MISSES);
+    }
+
+    /** A queue message waiting for its states to be saved. */
+    private static final class Ticket {
+        final QueueMessage message;
+        final AtomicInteger remaining;
+        // Set when one of its states was saved but not recorded in the change log
+        volatile boolean unlogged;
+
+        Ticket(QueueMessage message, int states) {
+            this.message = message;
+            this.remaining = new AtomicInteger(states);
+        }
+    }
+
+    private static final class Entry {
+        final Map<String, TrafficState> bySummary = new LinkedHashMap<>();
+        List<Ticket> waiters = new ArrayList<>();
+    }
+
+    private static final class RollupEntry {
+        final PairKey pair;
+        final Map<String, PairRollup> bySummary = new LinkedHashMap<>();
+        List<Ticket> waiters = new ArrayList<>();
+
+        RollupEntry(PairKey pair) {
+            this.pair = pair;
+        }
+    }
+
+    private record Snapshot(PairDelta delta, List<Ticket> waiters) {}
+
+    private record RollupSnapshot(RollupDelta delta, List<Ticket> waiters) {}
+
+    private final int maxEntries;
+    private final StateStore store;
+    private final RollupUpdater rollups; // null when rollup.enabled = false
+    private final Consumer<List<QueueMessage>> onDurable;
+    private final Consumer<List<TrafficState>> onSaved;
+
+    // Pairs with unsaved deltas, in first update order
+    private final LinkedHashMap<PairKey, Entry> entries = new LinkedHashMap<>();
+    // Rollup objects with unsaved deltas, by object key
+    private final LinkedHashMap<String, RollupEntry> rollupEntries = new LinkedHashMap<>();
+
+    // Serializes saves, so an older snapshot can never overwrite a newer one
+    private final Object flushLock = new Object();
+
+    /**
+     * @param maxEntries number of pairs with unsaved deltas before a flush
+     * @param store      where deltas are merged
+     * @param onDurable  receives the messages whose effects are all saved
+     */
+    public StateCache(int maxEntries, StateStore store, Consumer<List<QueueMessage>> onDurable) {
+        this(maxEntries, store, onDurable, saved -> { });
+    }
+
+    /**
+     * @param onSaved receives the states saved by each flush (change log), before
+     *                their messages are released; if it throws, these messages are
+     *                left unacknowledged
+     */
+    public StateCache(int maxEntries, StateStore store, Consumer<List<QueueMessage>> onDurable,
+                      Consumer<List<TrafficState>> onSaved) {
+        this(maxEntries, store, null, onDurable, onSaved);
+    }
+
+    /**
+     * @param rollups merges the rollup deltas given to commit, or null without rollups
+     */
+    public StateCache(int maxEntries, StateStore store, RollupUpdater rollups,
+                      Consumer<List<QueueMessage>> onDurable, Consumer<List<TrafficState>> onSaved) {
+        this.maxEntries = maxEntries;
+        this.store = store;
+        this.rollups = rollups;
+        this.onDurable = onDurable;
+        this.onSaved = onSaved;
+        Metrics.gauge("consolidate.cache.pairs", this::pairs);
+        Metrics.gauge("consolidate.cache.rollups", this::rollupObjects);
+    }
+
+    /**
+     * Adds deltas to the unsaved ones and attaches each message to the pairs it touched.
+     *
+     * @param deltas  statistics added by these messages, per pair and message
+     * @param touched message -> pairs modified by that message
+     */
+    public void commit(Collection<PairDelta> deltas, Map<QueueMessage, Set<PairKey>> touched) {
+        commit(deltas, List.of(), touched);
+    }
+
+    /**
+     * Same, with the rollup deltas of these messages: each message also waits for
+     * the rollup objects whose delta lists its interim key (message body).
+     */
+    public void commit(Collection<PairDelta> deltas, Collection<RollupDelta> rollupDeltas,
+                       Map<QueueMessage, Set<PairKey>> touched) {
+        synchronized (this) {
+            long hits = 0;
+            for (PairDelta delta : deltas) {
+                if (entries.containsKey(delta.pair())) hits++;
+                addDelta(delta);
+            }
+            HITS.add(hits);
+            MISSES.add(deltas.size() - hits);
+
+            Map<String, Set<String>> objectsBySummary = new HashMap<>();
+            for (RollupDelta delta : rollups != null ? rollupDeltas : List.<RollupDelta>of()) {
+                addRollupDelta(delta);
+                for (String summaryKey : delta.bySummary().keySet()) {
+                    objectsBySummary.computeIfAbsent(summaryKey, k -> new HashSet<>()).add(delta.key());
+                }
+            }
+
+            for (Map.Entry<QueueMessage, Set<PairKey>> message : touched.entrySet()) {
+                Set<String> objects = objectsBySummary.getOrDefault(message.getKey().body(), Set.of());
+                Ticket ticket = new Ticket(message.getKey(), message.getValue().size() + objects.size());
+                for (PairKey pair : message.getValue()) {
+                    entries.get(pair).waiters.add(ticket);
+                }
+                for (String key : objects) {
+                    rollupEntries.get(key).waiters.add(ticket);
+                }
+            }
+        }
+        if (size() > maxEntries) {
+            flush();
+        }
+    }
+
+    private void addDelta(PairDelta delta) {
+        Entry entry = entries.computeIfAbsent(delta.pair(), k -> new Entry());
+        delta.bySummary().forEach((key, stats) -> entry.bySummary.merge(key, stats, TrafficState::merge));
+    }
+
+    private void addRollupDelta(RollupDelta delta) {
+        RollupEntry entry = rollupEntries.computeIfAbsent(delta.key(), k -> new RollupEntry(delta.pair()));
+        delta.bySummary().forEach((key, rollup) -> entry.bySummary.merge(key, rollup, PairRollup::merge));
+    }
+
+    private synchronized int pairs() {
+        return entries.size();
+    }
+
+    private synchronized int rollupObjects() {
+        return rollupEntries.size();
+    }
+
+    // Pairs and rollup objects with unsaved deltas
+    private synchronized int size() {
+        return entries.size() + rollupEntries.size();
+    }
+
+    /** Saves every unsaved delta. */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Saves the deltas of the given pairs and of their rollup objects (write-through
+     * mode), or all deltas if null.
+     */
+    public void flush(Collection<PairKey> pairs) {
+        List<QueueMessage> durable = new ArrayList<>();
+        List<TrafficState> saved = new ArrayList<>();
+        List<Ticket> released = new ArrayList<>();
+        long start = System.nanoTime();
+        synchronized (flushLock) {
+            // 1. Take the pending deltas, grouped by store partition
+            Map<String, List<Snapshot>> byPartition = new LinkedHashMap<>();
+            List<RollupSnapshot> rollupSnapshots = new ArrayList<>();
+            synchronized (this) {
+                Collection<PairKey> selected = pairs == null ? new ArrayList<>(entries.keySet()) : pairs;
+                for (PairKey pair : selected) {
+                    Entry entry = entries.remove(pair);
+                    if (entry != null) {
+                        byPartition.computeIfAbsent(store.partitionOf(pair), k -> new ArrayList<>())
+                                .add(new Snapshot(new PairDelta(pair, entry.bySummary), entry.waiters));
+                    }
+                }
+                Set<PairKey> selectedPairs = pairs == null ? null : new HashSet<>(pairs);
+                Iterator<Map.Entry<String, RollupEntry>> it = rollupEntries.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, RollupEntry> object = it.next();
+                    RollupEntry entry = object.getValue();
+                    if (selectedPairs != null && !selectedPairs.contains(entry.pair)) continue;
+                    it.remove();
+                    rollupSnapshots.add(new RollupSnapshot(
+                            new RollupDelta(entry.pair, object.getKey(), entry.bySummary), entry.waiters));
+                }
+            }
+
+            // 2. One merge per partition, so a failing partition does not block the others
+            for (Map.Entry<String, List<Snapshot>> partition : byPartition.entrySet()) {
+                List<PairDelta> deltas = new ArrayList<>();
+                for (Snapshot snapshot : partition.getValue()) {
+                    deltas.add(snapshot.delta());
+                }
+                try {
+                    saved.addAll(store.mergeAll(deltas).values());
+                } catch (Exception e) {
+                    // Put the deltas back (merging is commutative), the next flush retries;
+                    // the messages remain unacknowledged
+                    synchronized (this) {
+                        for (Snapshot snapshot : partition.getValue()) {
+                            addDelta(snapshot.delta());
+                            entries.get(snapshot.delta().pair()).waiters.addAll(0, snapshot.waiters());
+                        }
+                    }
+                    FLUSH_FAILURES.increment();
+                    System.err.println("Failed to flush " + partition.getKey() + ": " + e.getMessage());
+                    continue;
+                }
+                for (Snapshot snapshot : partition.getValue()) {
+                    released.addAll(snapshot.waiters());
+                }
+            }
+
+            // 3. Rollup objects, one conditional write each; a failed one is put back like a partition
+            for (RollupSnapshot snapshot : rollupSnapshots) {
+                try {
+                    rollups.merge(snapshot.delta());
+                } catch (Exception e) {
+                    synchronized (this) {
+                        addRollupDelta(snapshot.delta());
+                        rollupEntries.get(snapshot.delta().key()).waiters.addAll(0, snapshot.waiters());
+                    }
+                    ROLLUP_FAILURES.increment();
+                    System.err.println("Failed to save rollup " + snapshot.delta().key() + ": " + e.getMessage());
+                    continue;
+                }
+                released.addAll(snapshot.waiters());
+            }
+
+            // 4. Change log, written in save order; the messages wait for it
+            boolean logged = true;
+            if (!saved.isEmpty()) {
+                try {
+                    onSaved.accept(saved);
+                } catch (Exception e) {
+                    logged = false;
+                    CHANGELOG_FAILURES.increment();
+                    System.err.println("Failed to write change log (" + saved.size()
+                            + " states, their messages stay unacknowledged): " + e.getMessage());
+                }
+            }
+            for (Ticket ticket : released) {
+                if (!logged) {
+                    ticket.unlogged = true;
+                }
+                if (ticket.remaining.decrementAndGet() == 0 && !ticket.unlogged) {
+                    durable.add(ticket.message);
+                }
+            }
+            if (!byPartition.isEmpty() || !rollupSnapshots.isEmpty()) {
+                FLUSH.recordSince(start);
+            }
+        }
+        if (!durable.isEmpty()) {
+            onDurable.accept(durable);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.iot.analytics;
+
+import com.iot.shared.Backend;
+import com.iot.shared.ConfigLoader;
+import com.iot.shared.ObjectStore;
+import com.iot.shared.StateStore;
+import com.iot.shared.TrafficState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the State bucket between the "pair" and "segment" layouts.
+ * Consolidators must be stopped during the migration; switch state.layout afterwards.
+ */
+public class StateMigrationTool {
+
+    // States buffered before a write (one read/modify/write per touched segment)
+    private static final int CHUNK_SIZE = 50_000;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp ... StateMigrationTool <pair|segment> <pair|segment>");
+            System.exit(1);
+        }
+
+        String stateBucket = ConfigLoader.getBucketState();
+
+        try {
+            ObjectStore objects = Backend.fromConfig().objects();
+            StateStore source = StateStore.create(args[0], objects, stateBucket);
+            StateStore target = StateStore.create(args[1], objects, stateBucket);
+
+            List<TrafficState> chunk = new ArrayList<>(CHUNK_SIZE);
+            long[] migrated = {0};
+            source.forEach(state -> {
+                chunk.add(state);
+                if (chunk.size() == CHUNK_SIZE) {
+                    target.saveAll(chunk);
+                    migrated[0] += chunk.size();
+                    chunk.clear();
+                    System.out.println("Migrated " + migrated[0] + " states...");
+                }
+            });
+            if (!chunk.isEmpty()) {
+                target.saveAll(chunk);
+                migrated[0] += chunk.size();
+            }
+
+            System.out.println("Success! " + migrated[0] + " states migrated from " + args[0] + " to " + args[1] + ".");
+        } catch (Exception e) {
+            System.err.println("Migration failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.iot.analytics;
+
+import com.iot.shared.IntermediateSummary;
+import com.iot.shared.MemoryObjectStore;
+import com.iot.shared.PairKey;
+import com.iot.shared.RollupDelta;
+import com.iot.shared.RollupStore;
+import com.iot.shared.TrafficState;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static com.iot.analytics.RollupQuery.LEVEL_DAY;
+import static com.iot.analytics.RollupQuery.LEVEL_MONTH;
+import static com.iot.analytics.RollupQuery.LEVEL_WEEK;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupQueryTest {
+
+    private static final PairKey PAIR = new PairKey("10.0.0.1", "192.168.1.1");
+
+    private static RollupQuery.Period period(String level, String start) {
+        return new RollupQuery.Period(level, LocalDate.parse(start));
+    }
+
+    @Test
+    void wholeMonthsAreOneBucketEach() {
+        List<RollupQuery.Period> plan = RollupQuery.plan(LocalDate.parse("2024-01-01"), LocalDate.parse("2024-12-31"));
+
+        assertEquals(12, plan.size());
+        assertTrue(plan.stream().allMatch(p -> p.level().equals(LEVEL_MONTH)));
+        assertEquals(LocalDate.parse("2024-02-29"), plan.get(1).end());
+    }
+
+    @Test
+    void partialMonthsUseWeeksThenDays() {
+        // Thursday 2024-01-25 to Wednesday 2024-03-13
+        List<RollupQuery.Period> plan = RollupQuery.plan(LocalDate.parse("2024-01-25"), LocalDate.parse("2024-03-13"));
+
+        assertEquals(List.of(
+                period(LEVEL_DAY, "2024-01-25"), period(LEVEL_DAY, "2024-01-26"),
+                period(LEVEL_DAY, "2024-01-27"), period(LEVEL_DAY, "2024-01-28"),
+                period(LEVEL_DAY, "2024-01-29"), period(LEVEL_DAY, "2024-01-30"),
+                period(LEVEL_DAY, "2024-01-31"),
+                period(LEVEL_MONTH, "2024-02-01"),
+                period(LEVEL_DAY, "2024-03-01"), period(LEVEL_DAY, "2024-03-02"),
+                period(LEVEL_DAY, "2024-03-03"),
+                period(LEVEL_WEEK, "2024-03-04"),
+                period(LEVEL_DAY, "2024-03-11"), period(LEVEL_DAY, "2024-03-12"),
+                period(LEVEL_DAY, "2024-03-13")), plan);
+    }
+
+    @Test
+    void rangesWithinAMonthKeepWholeWeeks() {
+        List<RollupQuery.Period> plan = RollupQuery.plan(LocalDate.parse("2024-05-06"), LocalDate.parse("2024-05-19"));
+
+        assertEquals(List.of(period(LEVEL_WEEK, "2024-05-06"), period(LEVEL_WEEK, "2024-05-13")), plan);
+        assertEquals(List.of(period(LEVEL_DAY, "2024-05-08")),
+                RollupQuery.plan(LocalDate.parse("2024-05-08"), LocalDate.parse("2024-05-08")));
+    }
+
+    @Test
+    void everyDayOfTheRangeIsCoveredOnce() {
+        SplittableRandom random = new SplittableRandom(11);
+        LocalDate origin = LocalDate.parse("2020-01-01");
+        for (int i = 0; i < 500; i++) {
+            LocalDate from = origin.plusDays(random.nextInt(1500));
+            LocalDate to = from.plusDays(random.nextInt(800));
+
+            List<RollupQuery.Period> plan = RollupQuery.plan(from, to);
+
+            LocalDate next = from;
+            for (RollupQuery.Period period : plan) {
+                assertEquals(next, period.start(), from + " to " + to);
+                if (period.level().equals(LEVEL_WEEK)) {
+                    assertEquals(DayOfWeek.MONDAY, period.start().getDayOfWeek());
+                }
+                if (period.level().equals(LEVEL_MONTH)) {
+                    assertEquals(1, period.start().getDayOfMonth());
+                }
+                next = period.end().plusDays(1);
+            }
+            assertEquals(to.plusDays(1), next, from + " to " + to);
+            // Each partial month around the whole months: up to 6 days, 4 weeks, 6 days
+            assertTrue(plan.stream().filter(p -> p.level().equals(LEVEL_DAY)).count() <= 2 * 12, from + " to " + to);
+            assertTrue(plan.stream().filter(p -> p.level().equals(LEVEL_WEEK)).count() <= 2 * 4, from + " to " + to);
+        }
+    }
+
+    @Test
+    void rejectsEmptyRanges() {
+        assertThrows(IllegalArgumentException.class,
+                () -> RollupQuery.plan(LocalDate.parse("2024-05-08"), LocalDate.parse("2024-05-07")));
+    }
+
+    @Test
+    void queryMatchesTheDailySummariesOfTheRange() {
+        RollupStore store = new RollupStore(new MemoryObjectStore(), "state");
+        RollupUpdater updater = new RollupUpdater(store, 100);
+        SplittableRandom random = new SplittableRandom(5);
+
+        // Some daily summaries over 14 months, including a week across two months
+        LocalDate first = LocalDate.parse("2023-11-20");
+        Map<LocalDate, long[]> days = new LinkedHashMap<>();
+        Map<String, List<IntermediateSummary>> byMessage = new LinkedHashMap<>();
+        for (LocalDate day = first; day.isBefore(first.plusMonths(14)); day = day.plusDays(1)) {
+            if (random.nextInt(3) == 0) continue;
+            long[] values = {random.nextLong(100_000), random.nextLong(1_000)};
+            days.put(day, values);
+            String key = "summaries/" + day + ".json";
+            byMessage.put(key, List.of(new IntermediateSummary(PAIR.srcIp(), PAIR.dstIp(), day.toString(), values[0], values[1])));
+        }
+        byMessage.forEach((key, summaries) -> RollupUpdater.deltasOf(key, summaries).forEach(updater::merge));
+
+        try (RollupQuery query = new RollupQuery(store, 4)) {
+            for (String[] range : new String[][]{
+                    {"2023-11-20", "2025-01-19"}, {"2023-11-29", "2023-12-05"},
+                    {"2024-02-14", "2024-09-02"}, {"2024-07-01", "2024-07-31"}, {"2022-01-01", "2022-12-31"}}) {
+                LocalDate from = LocalDate.parse(range[0]);
+                LocalDate to = LocalDate.parse(range[1]);
+                TrafficState expected = TrafficState.empty(PAIR.srcIp(), PAIR.dstIp());
+                for (Map.Entry<LocalDate, long[]> day : days.entrySet()) {
+                    if (!day.getKey().isBefore(from) && !day.getKey().isAfter(to)) {
+                        expected = expected.add(day.getValue()[0], day.getValue()[1]);
+                    }
+                }
+
+                TrafficState actual = query.query(PAIR, from, to);
+
+                String label = from + " to " + to;
+                assertEquals(expected.count(), actual.count(), label);
+                assertEquals(expected.duration().sum(), actual.duration().sum(), 1e-6 * (1 + expected.duration().sum()), label);
+                assertEquals(expected.packets().sum(), actual.packets().sum(), 1e-6 * (1 + expected.packets().sum()), label);
+                assertEquals(expected.duration().stdDev(), actual.duration().stdDev(), 1e-6 * (1 + expected.duration().stdDev()), label);
+                if (expected.count() > 0) {
+                    assertEquals(expected.duration().min(), actual.duration().min(), label);
+                    assertEquals(expected.packets().max(), actual.packets().max(), label);
+                }
+            }
+        }
+    }
+
+    @Test
+    void replayedMessagesAreCountedOnce() {
+        RollupStore store = new RollupStore(new MemoryObjectStore(), "state");
+        RollupUpdater updater = new RollupUpdater(store, 100);
+        List<RollupDelta> deltas = RollupUpdater.deltasOf("summaries/a.json",
+                List.of(new IntermediateSummary(PAIR.srcIp(), PAIR.dstIp(), "2024-03-05", 100, 10)));
+
+        deltas.forEach(updater::merge);
+        // Fresh updater: no cached version, the ledger in the objects has to catch the replay
+        deltas.forEach(new RollupUpdater(store, 100)::merge);
+
+        try (RollupQuery query = new RollupQuery(store, 2)) {
+            Set<Long> counts = new HashSet<>();
+            for (LocalDate[] range : List.of(
+                    new LocalDate[]{LocalDate.parse("2024-03-05"), LocalDate.parse("2024-03-05")},
+                    new LocalDate[]{LocalDate.parse("2024-03-04"), LocalDate.parse("2024-03-10")},
+                    new LocalDate[]{LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-31")})) {
+                counts.add(query.query(PAIR, range[0], range[1]).count());
+            }
+            assertEquals(Set.of(1L), counts);
+            assertEquals(0, query.query(PAIR, LocalDate.parse("2024-04-01"), LocalDate.parse("2024-04-30")).count());
+        }
+    }
+}
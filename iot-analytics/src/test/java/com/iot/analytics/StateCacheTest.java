@@ -0,0 +1,278 @@
+package com.iot.analytics;
+
+import com.iot.shared.IntermediateSummary;
+import com.iot.shared.MemoryObjectStore;
+import com.iot.shared.OptimisticUpdate;
+import com.iot.shared.PairDelta;
+import com.iot.shared.PairKey;
+import com.iot.shared.PairRollup;
+import com.iot.shared.PairStateStore;
+import com.iot.shared.QueueMessage;
+import com.iot.shared.RollupDelta;
+import com.iot.shared.RollupStore;
+import com.iot.shared.TrafficState;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateCacheTest {
+
+    private static final PairKey A = new PairKey("10.0.0.1", "192.168.1.1");
+    private static final PairKey B = new PairKey("10.0.0.2", "192.168.1.1");
+    private static final PairKey C = new PairKey("10.0.0.3", "192.168.1.1");
+
+    /** Pair layout whose merges fail for the pairs listed in `failing`. */
+    private static final class FlakyStore extends PairStateStore {
+        final Set<PairKey> failing = new HashSet<>();
+
+        FlakyStore(MemoryObjectStore objects) {
+            super(objects, "state", new OptimisticUpdate(objects, 3, 0, 0), 100);
+        }
+
+        @Override
+        public Map<PairKey, TrafficState> mergeAll(Collection<PairDelta> deltas) {
+            for (PairDelta delta : deltas) {
+                if (failing.contains(delta.pair())) {
+                    throw new IllegalStateException("unavailable: " + delta.pair());
+                }
+            }
+            return super.mergeAll(deltas);
+        }
+    }
+
+    /** Rollup updater counting its writes, failing them while `failing` is set. */
+    private static final class FlakyRollups extends RollupUpdater {
+        boolean failing;
+        int writes;
+
+        FlakyRollups(RollupStore store) {
+            super(store, 100);
+        }
+
+        @Override
+        public void merge(RollupDelta delta) {
+            if (failing) throw new IllegalStateException("unavailable: " + delta.key());
+            writes++;
+            super.merge(delta);
+        }
+    }
+
+    private final MemoryObjectStore objects = new MemoryObjectStore();
+    private final FlakyStore store = new FlakyStore(objects);
+    private final RollupStore rollupStore = new RollupStore(objects, "state", new OptimisticUpdate(objects, 3, 0, 0));
+    private final FlakyRollups rollups = new FlakyRollups(rollupStore);
+    private final List<QueueMessage> acknowledged = new ArrayList<>();
+    private final List<TrafficState> logged = new ArrayList<>();
+    private boolean logFails;
+
+    private StateCache cache(int maxEntries) {
+        return new StateCache(maxEntries, store, acknowledged::addAll, saved -> {
+            if (logFails) throw new IllegalStateException("change log unavailable");
+            logged.addAll(saved);
+        });
+    }
+
+    private static QueueMessage message(String key) {
+        return new QueueMessage("id-" + key, key, "receipt-" + key);
+    }
+
+    private StateCache cacheWithRollups(int maxEntries) {
+        return new StateCache(maxEntries, store, rollups, acknowledged::addAll, logged::addAll);
+    }
+
+    /** One summary of 100 ms / 10 packets per pair, from the given message. */
+    private static void commit(StateCache cache, QueueMessage message, PairKey... pairs) {
+        commit(cache, message, "2024-03-05", pairs);
+    }
+
+    /** Same on the given date, with the rollup deltas of the summaries. */
+    private static void commit(StateCache cache, QueueMessage message, String date, PairKey... pairs) {
+        List<PairDelta> deltas = new ArrayList<>();
+        List<IntermediateSummary> summaries = new ArrayList<>();
+        for (PairKey pair : pairs) {
+            TrafficState delta = TrafficState.empty(pair.srcIp(), pair.dstIp()).add(100, 10);
+            deltas.add(new PairDelta(pair, new LinkedHashMap<>(Map.of(message.body(), delta))));
+            summaries.add(new IntermediateSummary(pair.srcIp(), pair.dstIp(), date, 100, 10));
+        }
+        Map<QueueMessage, Set<PairKey>> touched = Map.of(message, new LinkedHashSet<>(List.of(pairs)));
+        cache.commit(deltas, RollupUpdater.deltasOf(message.body(), summaries), touched);
+    }
+
+    private long days(PairKey pair, String date) {
+        LocalDate day = LocalDate.parse(date);
+        PairRollup month = rollupStore.load(pair, RollupStore.monthKey(pair, YearMonth.from(day)));
+        return month.days().containsKey(date) ? month.days().get(date).count() : 0;
+    }
+
+    private long count(PairKey pair) {
+        return store.loadAll(List.of(pair)).get(pair).count();
+    }
+
+    @Test
+    void releasesMessagesOnceEveryPairIsSaved() {
+        StateCache cache = cache(100);
+        QueueMessage m1 = message("summaries/m1.json");
+
+        commit(cache, m1, A, B);
+        assertTrue(acknowledged.isEmpty());
+        assertEquals(0, count(A));
+
+        cache.flush();
+
+        assertEquals(List.of(m1), acknowledged);
+        assertEquals(1, count(A));
+        assertEquals(1, count(B));
+        assertEquals(2, logged.size());
+    }
+
+    @Test
+    void failedPartitionIsRetriedAndItsMessageAcknowledgedOnce() {
+        StateCache cache = cache(100);
+        QueueMessage m1 = message("summaries/m1.json");
+        QueueMessage m2 = message("summaries/m2.json");
+        commit(cache, m1, A);
+        commit(cache, m2, A, B);
+
+        store.failing.add(B);
+        cache.flush();
+
+        // A is saved with both messages, m2 waits for B
+        assertEquals(List.of(m1), acknowledged);
+        assertEquals(2, count(A));
+        assertEquals(0, count(B));
+
+        cache.flush();
+        assertEquals(List.of(m1), acknowledged);
+
+        store.failing.clear();
+        cache.flush();
+        cache.flush();
+
+        assertEquals(List.of(m1, m2), acknowledged);
+        assertEquals(2, count(A));
+        assertEquals(1, count(B));
+    }
+
+    @Test
+    void deltasCommittedWhileAPartitionFailsAreKept() {
+        StateCache cache = cache(100);
+        commit(cache, message("summaries/m1.json"), B);
+        store.failing.add(B);
+        cache.flush();
+
+        commit(cache, message("summaries/m2.json"), B);
+        store.failing.clear();
+        cache.flush();
+
+        assertEquals(2, count(B));
+        assertEquals(2, acknowledged.size());
+    }
+
+    @Test
+    void changeLogFailureLeavesTheMessageUnacknowledged() {
+        StateCache cache = cache(100);
+        QueueMessage m1 = message("summaries/m1.json");
+        commit(cache, m1, A, C);
+
+        logFails = true;
+        cache.flush();
+
+        // Saved, but not in the change log: never acknowledged by this delivery
+        assertTrue(acknowledged.isEmpty());
+        assertEquals(1, count(A));
+        logFails = false;
+        cache.flush();
+        assertTrue(acknowledged.isEmpty());
+
+        // Redelivery: skipped by the ledgers, logged again, then acknowledged
+        commit(cache, m1, A, C);
+        cache.flush();
+
+        assertEquals(List.of(m1), acknowledged);
+        assertEquals(1, count(A));
+        assertEquals(1, count(C));
+        assertEquals(2, logged.size());
+    }
+
+    @Test
+    void flushesWhenFullAndPerPairInWriteThroughMode() {
+        StateCache cache = cache(2);
+        QueueMessage m1 = message("summaries/m1.json");
+        QueueMessage m2 = message("summaries/m2.json");
+
+        commit(cache, m1, A, B);
+        assertTrue(acknowledged.isEmpty());
+        commit(cache, m2, C);
+        // Three pairs buffered: over maxEntries
+        assertEquals(List.of(m1, m2), acknowledged);
+
+        QueueMessage m3 = message("summaries/m3.json");
+        QueueMessage m4 = message("summaries/m4.json");
+        commit(cache, m3, A);
+        commit(cache, m4, B);
+        cache.flush(List.of(B));
+
+        assertEquals(List.of(m1, m2, m4), acknowledged);
+        assertEquals(1, count(A));
+        assertEquals(2, count(B));
+    }
+
+    @Test
+    void rollupsAreBufferedAndWrittenOncePerObjectAndFlush() {
+        StateCache cache = cacheWithRollups(100);
+        QueueMessage m1 = message("summaries/m1.json");
+        QueueMessage m2 = message("summaries/m2.json");
+        QueueMessage m3 = message("summaries/m3.json");
+
+        commit(cache, m1, "2024-03-05", A);
+        commit(cache, m2, "2024-03-06", A);
+        commit(cache, m3, "2024-03-06", A);
+        assertEquals(0, rollups.writes);
+        assertEquals(0, days(A, "2024-03-06"));
+
+        cache.flush();
+
+        // One month object and one year object for the three messages
+        assertEquals(2, rollups.writes);
+        assertEquals(List.of(m1, m2, m3), acknowledged);
+        assertEquals(1, days(A, "2024-03-05"));
+        assertEquals(2, days(A, "2024-03-06"));
+        assertEquals(3, rollupStore.load(A, RollupStore.yearKey(A, 2024)).months().get("2024-03").count());
+    }
+
+    @Test
+    void failedRollupHoldsTheMessageUntilRetried() {
+        StateCache cache = cacheWithRollups(100);
+        QueueMessage m1 = message("summaries/m1.json");
+        commit(cache, m1, "2024-03-05", A, B);
+
+        rollups.failing = true;
+        cache.flush();
+
+        // States saved, rollups not: the message waits
+        assertTrue(acknowledged.isEmpty());
+        assertEquals(1, count(A));
+        assertEquals(0, days(A, "2024-03-05"));
+
+        rollups.failing = false;
+        cache.flush();
+        cache.flush();
+
+        assertEquals(List.of(m1), acknowledged);
+        assertEquals(1, count(A));
+        assertEquals(1, days(A, "2024-03-05"));
+        assertEquals(1, days(B, "2024-03-05"));
+    }
+}
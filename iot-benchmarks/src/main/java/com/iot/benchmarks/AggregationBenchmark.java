@@ -0,0 +1,61 @@
+package com.iot.benchmarks;
+
+import com.iot.ingestion.FlowAggregationTable;
+import com.iot.ingestion.FlowCsvReader;
+import com.iot.shared.IntermediateSummary;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row aggregation of the SummarizeWorker (parse + SrcIP:DstIP:Date table),
+ * and the materialization of the summaries before upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000", "100000"})
+    public int pairs;
+
+    @Param({"7"})
+    public int days;
+
+    private byte[] csv;
+    private FlowAggregationTable table;
+
+    @Setup
+    public void setup() throws IOException {
+        csv = SyntheticFlows.csv(rows, pairs, days, 42);
+        table = aggregate(null);
+    }
+
+    private FlowAggregationTable aggregate(RowCounter counter) throws IOException {
+        try (FlowCsvReader reader = FlowFiles.open(new ByteArrayInputStream(csv))) {
+            FlowAggregationTable aggregations = new FlowAggregationTable();
+            long aggregated = FlowFiles.aggregate(reader, aggregations);
+            if (counter != null) counter.rows += aggregated;
+            return aggregations;
+        }
+    }
+
+    @Benchmark
+    public FlowAggregationTable aggregateFile(RowCounter counter) throws IOException {
+        return aggregate(counter);
+    }
+
+    @Benchmark
+    public List<IntermediateSummary> toSummaries() {
+        return table.toSummaries();
+    }
+}
@@ -0,0 +1,57 @@
+package com.iot.benchmarks;
+
+import com.iot.ingestion.FlowAggregationTable;
+import com.iot.ingestion.FlowCsvReader;
+import com.iot.shared.Compression;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential path of the SummarizeWorker on a compressed raw object: decoding,
+ * parsing and aggregation.
+ * Scores are files per second, with rows per second as the "rows" counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressedCsvBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int pairs;
+
+    @Param({Compression.NONE, Compression.GZIP, Compression.ZSTD})
+    public String compression;
+
+    private String key;
+    private byte[] object;
+
+    @Setup
+    public void setup() throws IOException {
+        key = "benchmark.csv" + Compression.suffix(compression);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = Compression.compress(compression, out)) {
+            compressed.write(SyntheticFlows.csv(rows, pairs, 7, 42));
+        }
+        object = out.toByteArray();
+    }
+
+    @Benchmark
+    public FlowAggregationTable summarize(RowCounter counter) throws IOException {
+        try (FlowCsvReader reader = FlowFiles.open(Compression.decoding(key, new ByteArrayInputStream(object)))) {
+            FlowAggregationTable aggregations = new FlowAggregationTable();
+            counter.rows += FlowFiles.aggregate(reader, aggregations);
+            return aggregations;
+        }
+    }
+}
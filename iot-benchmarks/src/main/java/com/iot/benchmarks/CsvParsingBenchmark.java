@@ -0,0 +1,83 @@
+package com.iot.benchmarks;
+
+import com.iot.ingestion.FlowAggregationTable;
+import com.iot.ingestion.FlowCsvReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row parsing of the SummarizeWorker: tokenizing the five selected columns of a
+ * VARIoT file, and the date encoding applied to every row.
+ * Scores are files per second, with rows per second as the "rows" counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+    private static final int TIMESTAMPS = 4096;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000", "100000"})
+    public int pairs;
+
+    @Param({"7"})
+    public int days;
+
+    private byte[] csv;
+    private byte[][] timestamps;
+    private final FlowAggregationTable table = new FlowAggregationTable();
+
+    @Setup
+    public void setup() {
+        csv = SyntheticFlows.csv(rows, pairs, days, 42);
+        String[] values = SyntheticFlows.timestamps(TIMESTAMPS, days, 42);
+        timestamps = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            timestamps[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    public void parseRows(RowCounter counter, Blackhole bh) throws IOException {
+        try (FlowCsvReader reader = FlowFiles.open(new ByteArrayInputStream(csv))) {
+            while (reader.nextRow()) {
+                bh.consume(reader.fieldEnd(FlowFiles.TIMESTAMP) - reader.fieldStart(FlowFiles.TIMESTAMP));
+                bh.consume(reader.longValue(FlowFiles.DURATION));
+                bh.consume(reader.longValue(FlowFiles.PACKETS));
+                counter.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseRowsAsText(RowCounter counter, Blackhole bh) throws IOException {
+        // The String path taken by IPv6 / non-standard rows
+        try (FlowCsvReader reader = FlowFiles.open(new ByteArrayInputStream(csv))) {
+            while (reader.nextRow()) {
+                bh.consume(reader.text(FlowFiles.TIMESTAMP));
+                bh.consume(reader.text(FlowFiles.SRC_IP));
+                bh.consume(reader.text(FlowFiles.DST_IP));
+                counter.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TIMESTAMPS)
+    public void dateCode(Blackhole bh) {
+        for (byte[] timestamp : timestamps) {
+            bh.consume(table.dateCode(timestamp, 0, timestamp.length));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.iot.benchmarks;
+
+import com.iot.ingestion.FlowAggregationTable;
+import com.iot.ingestion.FlowCsvReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The row loop of the SummarizeWorker, written against the public FlowCsvReader and
+ * FlowAggregationTable API: the five columns are looked up in the header, then IPs
+ * and dates are encoded straight from the read buffer.
+ */
+final class FlowFiles {
+
+    // Slots of the selected columns
+    static final int TIMESTAMP = 0;
+    static final int SRC_IP = 1;
+    static final int DST_IP = 2;
+    static final int DURATION = 3;
+    static final int PACKETS = 4;
+
+    private FlowFiles() {
+    }
+
+    /** Opens a CSV file and selects the Timestamp, Src IP, Dst IP, Flow Duration and Tot Fwd Pkts columns. */
+    static FlowCsvReader open(InputStream in) throws IOException {
+        FlowCsvReader reader = new FlowCsvReader(in);
+        List<String> header = Arrays.asList(reader.readLine().split(","));
+        reader.selectColumns(
+                header.indexOf("Timestamp"),
+                header.indexOf("Src IP"),
+                header.indexOf("Dst IP"),
+                header.indexOf("Flow Duration"),
+                header.indexOf("Tot Fwd Pkts"));
+        return reader;
+    }
+
+    /** Aggregates every remaining row into the table; returns the number of rows. */
+    static long aggregate(FlowCsvReader reader, FlowAggregationTable table) throws IOException {
+        long rows = 0;
+        while (reader.nextRow()) {
+            byte[] buf = reader.buffer();
+            long src = table.ipCode(buf, reader.fieldStart(SRC_IP), reader.fieldEnd(SRC_IP));
+            long dst = table.ipCode(buf, reader.fieldStart(DST_IP), reader.fieldEnd(DST_IP));
+            // Synthetic timestamps always have the dd/MM/yyyy shape
+            int date = table.dateCode(buf, reader.fieldStart(TIMESTAMP), reader.fieldEnd(TIMESTAMP));
+            if (date < 0) {
+                throw new IllegalStateException("Unexpected timestamp: " + reader.text(TIMESTAMP));
+            }
+            table.add(src, dst, date, reader.longValue(DURATION), reader.longValue(PACKETS));
+            rows++;
+        }
+        return rows;
+    }
+}
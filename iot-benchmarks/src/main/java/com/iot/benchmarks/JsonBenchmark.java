@@ -0,0 +1,103 @@
+package com.iot.benchmarks;
+
+import com.iot.shared.IntermediateSummary;
+import com.iot.shared.JsonUtils;
+import com.iot.shared.SummaryBatch;
+import com.iot.shared.TrafficState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON / Smile round trips of the objects exchanged through S3: daily summaries,
+ * the per-source batch files and the pair states. Scores are objects per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    // Summaries per batch file (summarize.batch.max.entries caps it at 5000)
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({JsonUtils.FORMAT_JSON, JsonUtils.FORMAT_SMILE})
+    public String format;
+
+    private IntermediateSummary[] summaries;
+    private byte[][] summaryJson;
+    private TrafficState[] states;
+    private byte[][] stateJson;
+    private SummaryBatch batch;
+    private byte[] batchJson;
+
+    @Setup
+    public void setup() {
+        List<IntermediateSummary> list = SyntheticFlows.summaries(SAMPLES, SAMPLES, 30, 42, null);
+        summaries = list.toArray(new IntermediateSummary[0]);
+        summaryJson = new byte[SAMPLES][];
+        states = new TrafficState[SAMPLES];
+        stateJson = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            IntermediateSummary s = summaries[i];
+            summaryJson[i] = JsonUtils.toBytes(s, format);
+            TrafficState state = TrafficState.empty(s.srcIp(), s.dstIp());
+            for (int day = 0; day <= i % 30; day++) {
+                state = state.add(s.totalFlowDuration() + day, s.totalFwdPackets() + day);
+            }
+            states[i] = state;
+            stateJson[i] = JsonUtils.toBytes(state, format);
+        }
+        batch = new SummaryBatch(summaries[0].srcIp(), list.subList(0, Math.min(batchSize, SAMPLES)));
+        batchJson = JsonUtils.toBytes(batch, format);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void summaryToJson(Blackhole bh) {
+        for (IntermediateSummary summary : summaries) {
+            bh.consume(JsonUtils.toBytes(summary, format));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void summaryFromJson(Blackhole bh) {
+        for (byte[] json : summaryJson) {
+            bh.consume(JsonUtils.fromBytes(json, IntermediateSummary.class));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void stateToJson(Blackhole bh) {
+        for (TrafficState state : states) {
+            bh.consume(JsonUtils.toBytes(state, format));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void stateFromJson(Blackhole bh) {
+        for (byte[] json : stateJson) {
+            bh.consume(JsonUtils.fromBytes(json, TrafficState.class));
+        }
+    }
+
+    @Benchmark
+    public byte[] batchToJson() {
+        return JsonUtils.toBytes(batch, format);
+    }
+
+    @Benchmark
+    public SummaryBatch batchFromJson() {
+        return JsonUtils.fromBytes(batchJson, SummaryBatch.class);
+    }
+}
@@ -0,0 +1,120 @@
+package com.iot.benchmarks;
+
+import com.iot.shared.IntermediateSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic VARIoT-shaped datasets for the benchmarks.
+ *
+ * Pair i talks from 10.x.y.z (source i / 8) to one of 8 destinations, so the
+ * number of distinct Src-Dst pairs is exactly the requested cardinality. Dates are
+ * spread over the given number of consecutive days.
+ */
+public final class SyntheticFlows {
+
+    // CICFlowMeter header, as found in the VARIoT dumps (84 columns)
+    public static final String HEADER = "Flow ID,Src IP,Src Port,Dst IP,Dst Port,Protocol,Timestamp,"
+            + "Flow Duration,Tot Fwd Pkts,Tot Bwd Pkts,TotLen Fwd Pkts,TotLen Bwd Pkts,"
+            + "Fwd Pkt Len Max,Fwd Pkt Len Min,Fwd Pkt Len Mean,Fwd Pkt Len Std,"
+            + "Bwd Pkt Len Max,Bwd Pkt Len Min,Bwd Pkt Len Mean,Bwd Pkt Len Std,"
+            + "Flow Byts/s,Flow Pkts/s,Flow IAT Mean,Flow IAT Std,Flow IAT Max,Flow IAT Min,"
+            + "Fwd IAT Tot,Fwd IAT Mean,Fwd IAT Std,Fwd IAT Max,Fwd IAT Min,"
+            + "Bwd IAT Tot,Bwd IAT Mean,Bwd IAT Std,Bwd IAT Max,Bwd IAT Min,"
+            + "Fwd PSH Flags,Bwd PSH Flags,Fwd URG Flags,Bwd URG Flags,Fwd Header Len,Bwd Header Len,"
+            + "Fwd Pkts/s,Bwd Pkts/s,Pkt Len Min,Pkt Len Max,Pkt Len Mean,Pkt Len Std,Pkt Len Var,"
+            + "FIN Flag Cnt,SYN Flag Cnt,RST Flag Cnt,PSH Flag Cnt,ACK Flag Cnt,URG Flag Cnt,"
+            + "CWE Flag Count,ECE Flag Cnt,Down/Up Ratio,Pkt Size Avg,Fwd Seg Size Avg,Bwd Seg Size Avg,"
+            + "Fwd Byts/b Avg,Fwd Pkts/b Avg,Fwd Blk Rate Avg,Bwd Byts/b Avg,Bwd Pkts/b Avg,Bwd Blk Rate Avg,"
+            + "Subflow Fwd Pkts,Subflow Fwd Byts,Subflow Bwd Pkts,Subflow Bwd Byts,"
+            + "Init Fwd Win Byts,Init Bwd Win Byts,Fwd Act Data Pkts,Fwd Seg Size Min,"
+            + "Active Mean,Active Std,Active Max,Active Min,Idle Mean,Idle Std,Idle Max,Idle Min,Label";
+
+    private static final int COLUMNS = 84;
+    private static final int DESTINATIONS_PER_SOURCE = 8;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2023, 11, 1);
+
+    private SyntheticFlows() {
+    }
+
+    public static String srcIp(int pair) {
+        int source = pair / DESTINATIONS_PER_SOURCE;
+        return "10." + ((source >>> 16) & 0xFF) + "." + ((source >>> 8) & 0xFF) + "." + (source & 0xFF);
+    }
+
+    public static String dstIp(int pair) {
+        return "192.168.1." + (1 + pair % DESTINATIONS_PER_SOURCE);
+    }
+
+    /** VARIoT timestamp, dd/MM/yyyy hh:mm:ss a. */
+    public static String timestamp(SplittableRandom random, int days) {
+        LocalDate day = FIRST_DAY.plusDays(random.nextInt(days));
+        int hour = 1 + random.nextInt(12);
+        return String.format("%02d/%02d/%04d %02d:%02d:%02d %s",
+                day.getDayOfMonth(), day.getMonthValue(), day.getYear(),
+                hour, random.nextInt(60), random.nextInt(60), random.nextBoolean() ? "AM" : "PM");
+    }
+
+    /**
+     * A complete CSV file (header + rows), as uploaded to the raw bucket.
+     */
+    public static byte[] csv(int rows, int pairs, int days, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder sb = new StringBuilder(rows * 300);
+        sb.append(HEADER).append('\n');
+        for (int i = 0; i < rows; i++) {
+            int pair = random.nextInt(pairs);
+            String src = srcIp(pair);
+            String dst = dstIp(pair);
+            int srcPort = 1024 + random.nextInt(60000);
+            int dstPort = random.nextBoolean() ? 443 : 1883;
+
+            sb.append(src).append('-').append(dst).append('-').append(srcPort).append('-').append(dstPort).append("-6,");
+            sb.append(src).append(',').append(srcPort).append(',');
+            sb.append(dst).append(',').append(dstPort).append(",6,");
+            sb.append(timestamp(random, days)).append(',');
+            sb.append(random.nextInt(120_000_000)).append(',');  // Flow Duration
+            sb.append(1 + random.nextInt(200));                   // Tot Fwd Pkts
+            // Remaining feature columns: small integers and decimals
+            for (int c = 9; c < COLUMNS - 1; c++) {
+                sb.append(',');
+                if ((c & 1) == 0) {
+                    sb.append(random.nextInt(1500));
+                } else {
+                    sb.append(random.nextInt(100_000)).append('.').append(random.nextInt(10));
+                }
+            }
+            sb.append(",Benign\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String[] timestamps(int count, int days, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = timestamp(random, days);
+        }
+        return values;
+    }
+
+    /**
+     * Daily summaries as produced by the SummarizeWorker, pair index in pairOf[i].
+     */
+    public static List<IntermediateSummary> summaries(int count, int pairs, int days, long seed, int[] pairOf) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<IntermediateSummary> summaries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int pair = random.nextInt(pairs);
+            if (pairOf != null) pairOf[i] = pair;
+            summaries.add(new IntermediateSummary(srcIp(pair), dstIp(pair),
+                    FIRST_DAY.plusDays(random.nextInt(days)).toString(),
+                    random.nextLong(1_000_000_000_000L), random.nextLong(1_000_000L)));
+        }
+        return summaries;
+    }
+}
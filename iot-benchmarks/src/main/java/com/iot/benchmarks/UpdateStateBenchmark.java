@@ -0,0 +1,60 @@
+package com.iot.benchmarks;
+
+import com.iot.shared.IntermediateSummary;
+import com.iot.shared.TrafficState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Welford update of the ConsolidatorWorker (TrafficState.add) folded over a
+ * stream of daily summaries, with the states held in memory (as in the write-back cache).
+ * Scores are summaries applied per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateStateBenchmark {
+
+    private static final int SUMMARIES = 65536;
+
+    @Param({"1000", "100000"})
+    public int pairs;
+
+    @Param({"30"})
+    public int days;
+
+    private IntermediateSummary[] summaries;
+    private int[] pairOf;
+    private TrafficState[] states;
+
+    @Setup
+    public void setup() {
+        pairOf = new int[SUMMARIES];
+        List<IntermediateSummary> list = SyntheticFlows.summaries(SUMMARIES, pairs, days, 42, pairOf);
+        summaries = list.toArray(new IntermediateSummary[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStates() {
+        states = new TrafficState[pairs];
+        for (int i = 0; i < pairs; i++) {
+            states[i] = TrafficState.empty(SyntheticFlows.srcIp(i), SyntheticFlows.dstIp(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SUMMARIES)
+    public TrafficState[] updateState() {
+        for (int i = 0; i < SUMMARIES; i++) {
+            int pair = pairOf[i];
+            IntermediateSummary summary = summaries[i];
+            states[pair] = states[pair].add(summary.totalFlowDuration(), summary.totalFwdPackets());
+        }
+        return states;
+    }
+}
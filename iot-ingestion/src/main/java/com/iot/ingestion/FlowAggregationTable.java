@@ -0,0 +1,493 @@
+package com.iot.ingestion;
+
+import com.iot.shared.IntermediateSummary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Open-addressing aggregation table for SrcIP:DstIP:Date keys.
+ *
+ * Keys are packed into two longs, totals live in parallel long arrays, so adding a
+ * row allocates nothing. IntermediateSummary records are only built on the way out,
+ * by forEachSourceChunk() or toSummaries().
+ *
+ * Key layout:
+ *   hi = src code (33 bits)
+ *   lo = dst code (33 bits) << 24 | date code (24 bits)
+ *   ip code   : canonical dotted IPv4 value, or DICT_IP | dictionary id (IPv6, malformed)
+ *   date code : epoch day + DAY_OFFSET (years 0000-9999), or DICT_DATE | dictionary id
+ * Decoding a code gives back exactly the original string.
+ *
+ * memoryBytes() and isFull() let the caller bound the table: once full, its keys
+ * are written out as a sorted run by writeSortedRun(), which clears the table and
+ * its dictionary and keeps its arrays for the next rows (see SpilledRuns).
+ */
+public class FlowAggregationTable {
+
+    private static final long DICT_IP = 1L << 32;
+    private static final int DICT_DATE = 1 << 23;
+    private static final int DATE_BITS = 24;
+    private static final long DAY_OFFSET = 719_528; // 0000-01-01 -> 0
+
+    private static final long EMPTY = -1L;
+    private static final int SLOT_BITS = 30; // Capacity stays below 2^30 slots (arrays are int-indexed)
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // Rough heap cost of a dictionary entry besides its characters (String, map entry)
+    private static final int DICT_ENTRY_BYTES = 96;
+
+    private long[] keyHi;
+    private long[] keyLo;
+    private long[] durations;
+    private long[] packets;
+    private int size;
+    private int mask;
+
+    // Fallback dictionary for values that cannot be packed
+    private final Map<String, Integer> dictIds = new HashMap<>();
+    private final List<String> dictValues = new ArrayList<>();
+    private long dictBytes;
+
+    public FlowAggregationTable() {
+        this(1024);
+    }
+
+    public FlowAggregationTable(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedKeys / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keyHi = new long[capacity];
+        keyLo = new long[capacity];
+        durations = new long[capacity];
+        packets = new long[capacity];
+        Arrays.fill(keyHi, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /** Number of distinct keys. */
+    public int size() {
+        return size;
+    }
+
+    /** Approximate heap footprint of the table arrays and dictionary, in bytes. */
+    public long memoryBytes() {
+        return 4L * 8 * keyHi.length + dictBytes;
+    }
+
+    /**
+     * True when the next new key could take the table over maxBytes: the arrays are
+     * about to double (old and new ones live at once while rehashing), or are already
+     * over. An empty table is never full, so that every row can be added.
+     */
+    public boolean isFull(long maxBytes) {
+        if (size == 0) return false;
+        long arrays = 4L * 8 * keyHi.length;
+        long peak = size + 1 > mask * LOAD_FACTOR ? 3 * arrays : arrays;
+        return peak + dictBytes > maxBytes;
+    }
+
+    /** Drops every key and the dictionary; the arrays are kept at their current capacity. */
+    public void clear() {
+        Arrays.fill(keyHi, EMPTY);
+        size = 0;
+        dictIds.clear();
+        dictValues.clear();
+        dictBytes = 0;
+    }
+
+    // --- Key encoding -------------------------------------------------------
+
+    /** Encodes an IP field read from the CSV buffer. */
+    public long ipCode(byte[] buf, int start, int end) {
+        long v = parseIpv4(buf, start, end);
+        if (v >= 0) return v;
+        return DICT_IP | intern(new String(buf, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes the normalized date of a Timestamp field, for the two VARIoT shapes
+     * "yyyy-MM-dd[ ...]" and "dd/MM/yyyy[ ...]". Returns -1 for anything else,
+     * in which case the caller normalizes the String and uses dateCode(String).
+     */
+    public int dateCode(byte[] buf, int start, int end) {
+        int len = end - start;
+        int y;
+        int m;
+        int d;
+        if (len >= 10 && (len == 10 || buf[start + 10] == ' ')) {
+            if (buf[start + 4] == '-' && buf[start + 7] == '-') {
+                y = digits(buf, start, 4);
+                m = digits(buf, start + 5, 2);
+                d = digits(buf, start + 8, 2);
+            } else if (buf[start + 2] == '/' && buf[start + 5] == '/') {
+                d = digits(buf, start, 2);
+                m = digits(buf, start + 3, 2);
+                y = digits(buf, start + 6, 4);
+            } else {
+                return -1;
+            }
+            if (y < 0 || m < 1 || m > 12 || d < 1 || d > daysInMonth(y, m)) return -1;
+            return (int) (daysFromCivil(y, m, d) + DAY_OFFSET);
+        }
+        return -1;
+    }
+
+    /** Encodes an already normalized date (fallback path). */
+    public int dateCode(String date) {
+        int id = intern(date);
+        if (id >= DICT_DATE) {
+            throw new IllegalStateException("Too many distinct non-standard dates");
+        }
+        return DICT_DATE | id;
+    }
+
+    private int intern(String value) {
+        Integer id = dictIds.get(value);
+        if (id == null) {
+            id = dictValues.size();
+            dictIds.put(value, id);
+            dictValues.add(value);
+            dictBytes += DICT_ENTRY_BYTES + value.length();
+        }
+        return id;
+    }
+
+    String ipString(long code) {
+        if ((code & DICT_IP) != 0) return dictValues.get((int) (code & 0xFFFFFFFFL));
+        return packedIpString(code);
+    }
+
+    String dateString(int code) {
+        if ((code & DICT_DATE) != 0) return dictValues.get(code & (DICT_DATE - 1));
+        return packedDateString(code);
+    }
+
+    /** Canonical dotted quad only (no leading zeros), so formatting it back is lossless. */
+    private static long parseIpv4(byte[] buf, int start, int end) {
+        long value = 0;
+        int octets = 0;
+        int i = start;
+        while (octets < 4) {
+            int octetStart = i;
+            int octet = 0;
+            while (i < end && i - octetStart < 3 && buf[i] >= '0' && buf[i] <= '9') {
+                octet = octet * 10 + (buf[i] - '0');
+                i++;
+            }
+            int digits = i - octetStart;
+            if (digits == 0 || octet > 255 || (digits > 1 && buf[octetStart] == '0')) return -1;
+            value = (value << 8) | octet;
+            octets++;
+            if (octets < 4) {
+                if (i >= end || buf[i] != '.') return -1;
+                i++;
+            }
+        }
+        return i == end ? value : -1;
+    }
+
+    private static int digits(byte[] buf, int start, int count) {
+        int v = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            v = v * 10 + digit;
+        }
+        return v;
+    }
+
+    private static int daysInMonth(int y, int m) {
+        if (m == 2) return ((y % 4 == 0 && y % 100 != 0) || y % 400 == 0) ? 29 : 28;
+        return (m == 4 || m == 6 || m == 9 || m == 11) ? 30 : 31;
+    }
+
+    // Proleptic Gregorian days since 1970-01-01 (H. Hinnant's days_from_civil)
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    // --- Aggregation --------------------------------------------------------
+
+    public void add(long srcCode, long dstCode, int dateCode, long duration, long packetCount) {
+        long lo = (dstCode << DATE_BITS) | dateCode;
+        addPacked(srcCode, lo, duration, packetCount);
+    }
+
+    private void addPacked(long hi, long lo, long duration, long packetCount) {
+        int slot = (int) mix(hi, lo) & mask;
+        while (true) {
+            long k = keyHi[slot];
+            if (k == EMPTY) {
+                keyHi[slot] = hi;
+                keyLo[slot] = lo;
+                durations[slot] = duration;
+                packets[slot] = packetCount;
+                if (++size > mask * LOAD_FACTOR) grow();
+                return;
+            }
+            if (k == hi && keyLo[slot] == lo) {
+                durations[slot] += duration;
+                packets[slot] += packetCount;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static long mix(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void grow() {
+        long[] oldHi = keyHi;
+        long[] oldLo = keyLo;
+        long[] oldDur = durations;
+        long[] oldPkt = packets;
+        allocate(oldHi.length * 2);
+        size = 0;
+        for (int i = 0; i < oldHi.length; i++) {
+            if (oldHi[i] != EMPTY) addPacked(oldHi[i], oldLo[i], oldDur[i], oldPkt[i]);
+        }
+    }
+
+    /**
+     * Adds every key of another table (e.g. a byte range parsed on another thread).
+     * Dictionary-coded parts are re-interned, as ids are local to each table.
+     */
+    public void mergeFrom(FlowAggregationTable other) {
+        for (int i = 0; i < other.keyHi.length; i++) {
+            long hi = other.keyHi[i];
+            if (hi == EMPTY) continue;
+            long lo = other.keyLo[i];
+            long dst = lo >>> DATE_BITS;
+            int date = (int) (lo & ((1 << DATE_BITS) - 1));
+
+            if ((hi & DICT_IP) != 0) hi = DICT_IP | intern(other.ipString(hi));
+            if ((dst & DICT_IP) != 0) dst = DICT_IP | intern(other.ipString(dst));
+            if ((date & DICT_DATE) != 0) date = dateCode(other.dateString(date));
+
+            add(hi, dst, date, other.durations[i], other.packets[i]);
+        }
+    }
+
+    /**
+     * Materializes the aggregates grouped by source IP, at most maxEntries at a time:
+     * the consumer receives each source with one chunk of its summaries, a source
+     * with more than maxEntries keys coming in several chunks. Only one chunk of
+     * records exists at once, plus a sorted index of the keys (8 bytes per key).
+     */
+    public void forEachSourceChunk(int maxEntries, BiConsumer<String, List<IntermediateSummary>> consumer) {
+        // Occupied slots ordered by source code: src (33 bits) << SLOT_BITS | slot
+        long[] order = new long[size];
+        int n = 0;
+        for (int i = 0; i < keyHi.length; i++) {
+            if (keyHi[i] != EMPTY) order[n++] = (keyHi[i] << SLOT_BITS) | i;
+        }
+        Arrays.sort(order, 0, n);
+
+        List<IntermediateSummary> chunk = new ArrayList<>(Math.min(n, maxEntries));
+        String srcIp = null;
+        long src = EMPTY;
+        for (int k = 0; k < n; k++) {
+            int slot = (int) (order[k] & ((1 << SLOT_BITS) - 1));
+            if (keyHi[slot] != src || chunk.size() == maxEntries) {
+                if (!chunk.isEmpty()) {
+                    consumer.accept(srcIp, chunk);
+                    chunk = new ArrayList<>(Math.min(n - k, maxEntries));
+                }
+                if (keyHi[slot] != src) {
+                    src = keyHi[slot];
+                    srcIp = ipString(src);
+                }
+            }
+            long lo = keyLo[slot];
+            chunk.add(new IntermediateSummary(
+                    srcIp,
+                    ipString(lo >>> DATE_BITS),
+                    dateString((int) (lo & ((1 << DATE_BITS) - 1))),
+                    durations[slot],
+                    packets[slot]));
+        }
+        if (!chunk.isEmpty()) {
+            consumer.accept(srcIp, chunk);
+        }
+    }
+
+    // --- Sorted runs ---------------------------------------------------------
+
+    /**
+     * Writes every key to `out` in (src, dst, date) order, then clears the table.
+     * Record: src code, dst/date code, the string of each dictionary-coded part,
+     * duration, packets. Dictionary ids are local to the table, so they are written
+     * as 0 (DICT_IP / DICT_DATE alone) followed by the string: runs of different
+     * tables then merge on codes and strings, and nothing outlives the table.
+     * Packed codes sort before dictionary ones, and dictionary parts by their
+     * string (see compareIp / compareDate, and SpilledRuns). Entries are compacted
+     * and sorted in place. Returns the number of keys written.
+     */
+    public int writeSortedRun(DataOutput out) throws IOException {
+        int n = 0;
+        for (int i = 0; i < keyHi.length; i++) {
+            if (keyHi[i] == EMPTY) continue;
+            // n <= i: the slot moved to is free or already read
+            keyHi[n] = keyHi[i];
+            keyLo[n] = keyLo[i];
+            durations[n] = durations[i];
+            packets[n] = packets[i];
+            n++;
+        }
+        heapSort(n);
+        for (int i = 0; i < n; i++) {
+            long hi = keyHi[i];
+            long dst = keyLo[i] >>> DATE_BITS;
+            int date = (int) (keyLo[i] & ((1 << DATE_BITS) - 1));
+            boolean dictSrc = (hi & DICT_IP) != 0;
+            boolean dictDst = (dst & DICT_IP) != 0;
+            boolean dictDate = (date & DICT_DATE) != 0;
+            out.writeLong(dictSrc ? DICT_IP : hi);
+            out.writeLong(((dictDst ? DICT_IP : dst) << DATE_BITS) | (dictDate ? DICT_DATE : date));
+            if (dictSrc) writeString(out, ipString(hi));
+            if (dictDst) writeString(out, ipString(dst));
+            if (dictDate) writeString(out, dateString(date));
+            out.writeLong(durations[i]);
+            out.writeLong(packets[i]);
+        }
+        clear();
+        return n;
+    }
+
+    // Length-prefixed UTF-8 (writeUTF stops at 64 KB, a malformed field may not)
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** True when an ip code of a run record is followed by its string. */
+    static boolean isDictIp(long code) {
+        return (code & DICT_IP) != 0;
+    }
+
+    /** True when a date code of a run record is followed by its string. */
+    static boolean isDictDate(int code) {
+        return (code & DICT_DATE) != 0;
+    }
+
+    /** Dst code of a dst/date code. */
+    static long dstPart(long lo) {
+        return lo >>> DATE_BITS;
+    }
+
+    /** Date code of a dst/date code. */
+    static int datePart(long lo) {
+        return (int) (lo & ((1 << DATE_BITS) - 1));
+    }
+
+    /** Dotted IPv4 of a packed ip code. */
+    static String packedIpString(long code) {
+        return ((code >>> 24) & 0xFF) + "." + ((code >>> 16) & 0xFF) + "." + ((code >>> 8) & 0xFF) + "." + (code & 0xFF);
+    }
+
+    /** yyyy-MM-dd of a packed date code. */
+    static String packedDateString(int code) {
+        return LocalDate.ofEpochDay(code - DAY_OFFSET).toString();
+    }
+
+    // In-place heapsort of the first n entries in run order
+    private void heapSort(int n) {
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) return;
+            if (child + 1 < n && before(child, child + 1)) child++;
+            if (!before(i, child)) return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        int c = compareIp(keyHi[a], keyHi[b]);
+        if (c == 0) c = compareIp(keyLo[a] >>> DATE_BITS, keyLo[b] >>> DATE_BITS);
+        if (c == 0) c = compareDate(datePart(keyLo[a]), datePart(keyLo[b]));
+        return c < 0;
+    }
+
+    // Packed values stay below the DICT flags, so they sort first
+    private int compareIp(long a, long b) {
+        if (a == b) return 0;
+        if ((a & DICT_IP) == 0 || (b & DICT_IP) == 0) return Long.compare(a, b);
+        return ipString(a).compareTo(ipString(b));
+    }
+
+    private int compareDate(int a, int b) {
+        if (a == b) return 0;
+        if ((a & DICT_DATE) == 0 || (b & DICT_DATE) == 0) return Integer.compare(a, b);
+        return dateString(a).compareTo(dateString(b));
+    }
+
+    private void swap(int a, int b) {
+        swap(keyHi, a, b);
+        swap(keyLo, a, b);
+        swap(durations, a, b);
+        swap(packets, a, b);
+    }
+
+    private static void swap(long[] values, int a, int b) {
+        long t = values[a];
+        values[a] = values[b];
+        values[b] = t;
+    }
+
+    /** Materializes the aggregates for upload. */
+    public List<IntermediateSummary> toSummaries() {
+        List<IntermediateSummary> summaries = new ArrayList<>(size);
+        for (int i = 0; i < keyHi.length; i++) {
+            if (keyHi[i] == EMPTY) continue;
+            long lo = keyLo[i];
+            summaries.add(new IntermediateSummary(
+                    ipString(keyHi[i]),
+                    ipString(lo >>> DATE_BITS),
+                    dateString((int) (lo & ((1 << DATE_BITS) - 1))),
+                    durations[i],
+                    packets[i]));
+        }
+        return summaries;
+    }
+}
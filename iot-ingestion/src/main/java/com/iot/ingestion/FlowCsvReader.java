@@ -0,0 +1,314 @@
+package com.iot.ingestion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level, quote-aware CSV reader for VARIoT / CICFlowMeter flow dumps.
+ *
+ * Reads the stream into a single reusable buffer and only tokenizes the columns
+ * selected with {@link #selectColumns(int...)}. Selected fields are exposed as
+ * offsets into the buffer, so a row costs no allocation unless a field is
+ * explicitly materialized with {@link #text(int)}.
+ *
+ * Splitting follows the historical regex {@code ,(?=(?:[^"]*"[^"]*")*[^"]*$)}:
+ * a comma is a separator when an even number of quotes follows it on the line.
+ * Quotes are kept in the field values. Lines end on \n, \r\n or a lone \r,
+ * exactly like {@link java.io.BufferedReader#readLine()}.
+ *
+ * A line longer than MAX_LINE_BYTES is not buffered: it is skipped up to its
+ * terminator and returned empty, flagged by {@link #lineTooLong()}, so that the
+ * buffer never grows past twice that size whatever the input.
+ */
+public class FlowCsvReader implements AutoCloseable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Flow records are a few hundred bytes; anything this long is not one
+    public static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;      // Next unread byte
+    private int limit;    // End of valid data in buf
+    private boolean eof;
+    private long consumed; // Bytes of the stream before buf[0]
+
+    // Current line, as [lineStart, lineEnd) in buf
+    private int lineStart;
+    private int lineEnd;
+    private int lineQuotes;
+    private boolean tooLong;
+
+    // Column selection: slotOf[columnIndex] -> slot, or -1 when not selected
+    private int[] slotOf = new int[0];
+    private int maxColumn = -1;
+    private int[] fieldStart = new int[0];
+    private int[] fieldEnd = new int[0];
+    private int found;
+
+    public FlowCsvReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FlowCsvReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Chooses which columns {@link #nextRow()} extracts. Slot {@code i} of the
+     * accessors refers to {@code columns[i]}.
+     */
+    public void selectColumns(int... columns) {
+        int max = -1;
+        for (int c : columns) max = Math.max(max, c);
+        slotOf = new int[max + 1];
+        java.util.Arrays.fill(slotOf, -1);
+        for (int i = 0; i < columns.length; i++) {
+            slotOf[columns[i]] = i;
+        }
+        maxColumn = max;
+        fieldStart = new int[columns.length];
+        fieldEnd = new int[columns.length];
+    }
+
+    /**
+     * Reads the next line as a String (used for the header).
+     * Returns null at end of stream.
+     */
+    public String readLine() throws IOException {
+        if (!advanceLine()) return null;
+        return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips the remainder of the current line. Used to align on the first full
+     * line when reading from the middle of a file.
+     */
+    public boolean skipLine() throws IOException {
+        return advanceLine();
+    }
+
+    /**
+     * Advances to the next line and locates the selected columns.
+     * Returns false at end of stream.
+     */
+    public boolean nextRow() throws IOException {
+        if (!advanceLine()) return false;
+        if (tooLong) {
+            found = 0;
+        } else {
+            tokenize();
+        }
+        return true;
+    }
+
+    /** True when the current line exceeded MAX_LINE_BYTES and was skipped. */
+    public boolean lineTooLong() {
+        return tooLong;
+    }
+
+    /**
+     * True when the current row contains every selected column.
+     * Rows that are too short were rejected by the old split-based parser too.
+     */
+    public boolean isComplete() {
+        return found == fieldStart.length;
+    }
+
+    /** Stream offset of the first byte of the next line to be read. */
+    public long position() {
+        return consumed + pos;
+    }
+
+    /** Materializes a selected field as a String. */
+    public String text(int slot) {
+        return new String(buf, fieldStart[slot], fieldEnd[slot] - fieldStart[slot], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Raw access to a selected field: bytes [fieldStart(slot), fieldEnd(slot)) of
+     * buffer(). Only valid until the next call to nextRow().
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int fieldStart(int slot) {
+        return fieldStart[slot];
+    }
+
+    public int fieldEnd(int slot) {
+        return fieldEnd[slot];
+    }
+
+    /**
+     * Parses a selected field as a long without allocating.
+     * Same contract as the former parseLongSafe: blank or invalid values yield 0.
+     */
+    public long longValue(int slot) {
+        int start = fieldStart[slot];
+        int end = fieldEnd[slot];
+
+        // String.trim() semantics: strip every char <= ' '
+        while (start < end && (buf[start] & 0xFF) <= ' ') start++;
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') end--;
+        if (start == end) return 0;
+
+        boolean negative = false;
+        byte first = buf[start];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start == end) return 0;
+        }
+
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int b = buf[i] & 0xFF;
+            if (b >= 0x80) {
+                // Non-ASCII digits are rare enough to go through the JDK parser
+                return parseLongFallback(fieldStart[slot], fieldEnd[slot]);
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9) return 0;
+            // Accumulate negatively so Long.MIN_VALUE stays representable
+            if (result < Long.MIN_VALUE / 10) return 0;
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit) return 0;
+            result -= digit;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE) return 0;
+            return -result;
+        }
+        return result;
+    }
+
+    private long parseLongFallback(int start, int end) {
+        try {
+            return Long.parseLong(new String(buf, start, end - start, StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void tokenize() {
+        found = 0;
+        if (maxColumn < 0) return;
+
+        // Odd quote count on the line flips the parity, as the lookahead regex does
+        boolean inQuotes = (lineQuotes & 1) == 1;
+        int column = 0;
+        int start = lineStart;
+
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i < lineEnd) {
+                byte b = buf[i];
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                    continue;
+                }
+                if (b != ',' || inQuotes) continue;
+            }
+            // End of field [start, i)
+            int slot = slotOf[column];
+            if (slot >= 0) {
+                fieldStart[slot] = start;
+                fieldEnd[slot] = i;
+                found++;
+            }
+            if (column == maxColumn) return;
+            column++;
+            start = i + 1;
+        }
+    }
+
+    /**
+     * Finds the next line in the buffer, refilling as needed.
+     * The line is [lineStart, lineEnd) and pos is moved past its terminator.
+     * An overlong line is dropped as it is read, and ends up empty.
+     */
+    private boolean advanceLine() throws IOException {
+        int scan = pos;
+        int quotes = 0;
+        tooLong = false;
+
+        while (true) {
+            while (scan < limit) {
+                byte b = buf[scan];
+                if (b == '\n' || b == '\r') {
+                    lineStart = tooLong ? scan : pos;
+                    lineEnd = scan;
+                    lineQuotes = quotes;
+                    pos = scan + 1;
+                    if (b == '\r') {
+                        // Consume the \n of a \r\n pair right away so position() stays exact
+                        if (pos == limit && !eof) {
+                            int shift = compact(lineStart);
+                            lineStart -= shift;
+                            lineEnd -= shift;
+                            fill();
+                        }
+                        if (pos < limit && buf[pos] == '\n') pos++;
+                    }
+                    return true;
+                }
+                if (b == '"') quotes++;
+                scan++;
+            }
+
+            if (eof) {
+                if (pos == limit && !tooLong) return false;
+                // Last line without terminator
+                lineStart = tooLong ? limit : pos;
+                lineEnd = limit;
+                lineQuotes = quotes;
+                pos = limit;
+                return true;
+            }
+
+            if (limit - pos >= MAX_LINE_BYTES) {
+                // Discard what was read of the line, position() stays exact
+                consumed += limit;
+                pos = 0;
+                limit = 0;
+                scan = 0;
+                tooLong = true;
+            }
+            scan -= compact(pos);
+            fill();
+        }
+    }
+
+    /** Moves bytes from keepFrom onwards to the front of the buffer, growing it if full. */
+    private int compact(int keepFrom) {
+        int shift = keepFrom;
+        if (shift > 0) {
+            System.arraycopy(buf, keepFrom, buf, 0, limit - keepFrom);
+            limit -= shift;
+            pos -= shift;
+            consumed += shift;
+        }
+        if (limit == buf.length) {
+            buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+        }
+        return shift;
+    }
+
+    private void fill() throws IOException {
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.iot.ingestion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream on a background thread into a few recycled chunks, so that the
+ * download and the decompression of a raw object overlap with CSV parsing
+ * instead of alternating with it on the same core.
+ *
+ * Memory is bounded by CHUNKS * CHUNK_SIZE whatever the size of the object.
+ * A failed read of the source is rethrown by every later read, so that a caller
+ * that goes on reading never mistakes a truncated object for its end.
+ */
+class ReadAheadInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS = 4;
+
+    private static final class Chunk {
+        final byte[] data = new byte[CHUNK_SIZE];
+        int length;
+        boolean last;
+        IOException error;
+    }
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNKS);
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(CHUNKS);
+    private final Thread reader;
+    private Chunk current;
+    private int pos;
+    private IOException failure;
+    private volatile boolean closed;
+
+    ReadAheadInputStream(InputStream source, String name) {
+        this.source = source;
+        for (int i = 0; i < CHUNKS; i++) {
+            free.add(new Chunk());
+        }
+        this.reader = new Thread(this::fill, "read-ahead-" + name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void fill() {
+        try {
+            while (true) {
+                Chunk chunk = free.take();
+                try {
+                    chunk.length = source.readNBytes(chunk.data, 0, CHUNK_SIZE);
+                    chunk.last = chunk.length < CHUNK_SIZE;
+                } catch (IOException e) {
+                    chunk.length = 0;
+                    chunk.last = true;
+                    chunk.error = e;
+                }
+                filled.put(chunk);
+                if (chunk.last) return;
+            }
+        } catch (InterruptedException e) {
+            // Closed by the consumer
+        } finally {
+            // Closed here, never concurrently with a read (codecs are not thread-safe)
+            try {
+                source.close();
+            } catch (IOException e) {
+                // Nothing left to read
+            }
+        }
+    }
+
+    // Returns false at end of stream
+    private boolean nextChunk() throws IOException {
+        if (current != null) {
+            if (current.last) return false;
+            free.add(current);
+            current = null;
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ahead", e);
+        }
+        pos = 0;
+        if (current.error != null) {
+            failure = current.error;
+            throw failure;
+        }
+        return current.length > 0 || !current.last;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (failure != null) throw failure;
+        if (len == 0) return 0;
+        while (current == null || pos == current.length) {
+            if (!nextChunk()) return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        // The reader stops after its current chunk and closes the source
+        reader.interrupt();
+    }
+}
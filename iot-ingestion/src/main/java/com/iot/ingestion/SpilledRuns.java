@@ -0,0 +1,226 @@
+package com.iot.ingestion;
+
+import com.iot.shared.IntermediateSummary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Aggregation tables of one file that did not fit the memory budget, spilled to
+ * local temp files (config summarize.spill.dir) as sorted runs.
+ *
+ * Every run is sorted in the same order (packed codes, then the strings of the
+ * dictionary-coded parts, which the records carry), so a k-way merge at the end of
+ * the file adds up the keys found in several runs: each SrcIP:DstIP:Date key is
+ * emitted once per file, with the same totals as if the file had been aggregated
+ * in one table. No dictionary outlives its table: only a read buffer and the
+ * current record per run, and one chunk of summaries, are in memory during the merge.
+ */
+class SpilledRuns implements AutoCloseable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private record Run(Path file, int keys) {}
+
+    /** Current record of a run during the merge. */
+    private static final class Cursor {
+        final DataInputStream in;
+        int remaining;
+        long hi;
+        long lo;
+        String src;  // Strings of the dictionary-coded parts, null for packed ones
+        String dst;
+        String date;
+        long duration;
+        long packets;
+
+        Cursor(Run run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file()), BUFFER_BYTES));
+            this.remaining = run.keys();
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            hi = in.readLong();
+            lo = in.readLong();
+            src = FlowAggregationTable.isDictIp(hi) ? FlowAggregationTable.readString(in) : null;
+            dst = FlowAggregationTable.isDictIp(FlowAggregationTable.dstPart(lo)) ? FlowAggregationTable.readString(in) : null;
+            date = FlowAggregationTable.isDictDate(FlowAggregationTable.datePart(lo)) ? FlowAggregationTable.readString(in) : null;
+            duration = in.readLong();
+            packets = in.readLong();
+            return true;
+        }
+
+        // Order of FlowAggregationTable.writeSortedRun: dictionary codes are equal, strings decide
+        int compareTo(Cursor other) {
+            int c = Long.compare(hi, other.hi);
+            if (c == 0) c = compare(src, other.src);
+            if (c == 0) c = Long.compare(FlowAggregationTable.dstPart(lo), FlowAggregationTable.dstPart(other.lo));
+            if (c == 0) c = compare(dst, other.dst);
+            if (c == 0) c = Integer.compare(FlowAggregationTable.datePart(lo), FlowAggregationTable.datePart(other.lo));
+            if (c == 0) c = compare(date, other.date);
+            return c;
+        }
+
+        String srcIp() {
+            return src != null ? src : FlowAggregationTable.packedIpString(hi);
+        }
+
+        String dstIp() {
+            return dst != null ? dst : FlowAggregationTable.packedIpString(FlowAggregationTable.dstPart(lo));
+        }
+
+        String dateString() {
+            return date != null ? date : FlowAggregationTable.packedDateString(FlowAggregationTable.datePart(lo));
+        }
+
+        // Both null (packed) or both set (same dictionary flag)
+        private static int compare(String a, String b) {
+            return a == null ? 0 : a.compareTo(b);
+        }
+    }
+
+    private final Path dir;
+    private final String name;
+    private final List<Run> runs = new ArrayList<>();
+    private long bytes;
+
+    /**
+     * @param dir  where the runs are written
+     * @param name file being summarized, for the names of the runs
+     */
+    SpilledRuns(Path dir, String name) {
+        this.dir = dir;
+        this.name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /** Writes the keys of a table as a new run and clears the table. */
+    void spill(FlowAggregationTable table) {
+        Path file = null;
+        try {
+            Files.createDirectories(dir);
+            file = Files.createTempFile(dir, "spill-" + name + "-", ".run");
+            int keys;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES))) {
+                keys = table.writeSortedRun(out);
+            }
+            synchronized (this) {
+                runs.add(new Run(file, keys));
+                bytes += Files.size(file);
+            }
+        } catch (IOException e) {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // Reported below
+                }
+            }
+            throw new UncheckedIOException("Failed to spill aggregation of " + name, e);
+        }
+    }
+
+    synchronized int runs() {
+        return runs.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Merges the runs and hands out the summaries grouped by source IP, at most
+     * maxEntries at a time, like FlowAggregationTable.forEachSourceChunk.
+     * Returns the number of distinct keys.
+     */
+    long forEachSourceChunk(int maxEntries, BiConsumer<String, List<IntermediateSummary>> consumer) {
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, runs.size()), Cursor::compareTo);
+            for (Run run : runs) {
+                Cursor cursor = new Cursor(run);
+                cursors.add(cursor);
+                if (cursor.next()) heap.add(cursor);
+            }
+
+            long keys = 0;
+            List<IntermediateSummary> chunk = new ArrayList<>();
+            long src = -1;
+            String srcDict = null;
+            String srcIp = null;
+            while (!heap.isEmpty()) {
+                Cursor head = heap.poll();
+                boolean newSource = head.hi != src || !Objects.equals(head.src, srcDict);
+                if (newSource || chunk.size() == maxEntries) {
+                    if (!chunk.isEmpty()) {
+                        consumer.accept(srcIp, chunk);
+                        chunk = new ArrayList<>();
+                    }
+                    if (newSource) {
+                        src = head.hi;
+                        srcDict = head.src;
+                        srcIp = head.srcIp();
+                    }
+                }
+                String dstIp = head.dstIp();
+                String date = head.dateString();
+                long duration = head.duration;
+                long packets = head.packets;
+                // Sum the key over every run holding it
+                while (!heap.isEmpty() && heap.peek().compareTo(head) == 0) {
+                    Cursor same = heap.poll();
+                    duration += same.duration;
+                    packets += same.packets;
+                    if (same.next()) heap.add(same);
+                }
+                if (head.next()) heap.add(head);
+
+                chunk.add(new IntermediateSummary(srcIp, dstIp, date, duration, packets));
+                keys++;
+            }
+            if (!chunk.isEmpty()) {
+                consumer.accept(srcIp, chunk);
+            }
+            return keys;
+        } catch (EOFException e) {
+            throw new UncheckedIOException("Truncated spill run of " + name, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to merge spill runs of " + name, e);
+        } finally {
+            for (Cursor cursor : cursors) {
+                try {
+                    cursor.in.close();
+                } catch (IOException ignored) {
+                    // Deleted by close()
+                }
+            }
+        }
+    }
+
+    /** Deletes the runs. */
+    @Override
+    public synchronized void close() {
+        for (Run run : runs) {
+            try {
+                Files.deleteIfExists(run.file());
+            } catch (IOException e) {
+                System.err.println("Failed to delete spill run " + run.file() + ": " + e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+}
@@ -1,33 +1,63 @@
 package com.iot.ingestion;
 
+import com.iot.shared.Backend;
+import com.iot.shared.Compression;
 import com.iot.shared.ConfigLoader;
+import com.iot.shared.Histogram;
 import com.iot.shared.IntermediateSummary;
 import com.iot.shared.JsonUtils;
-import software.amazon.awssdk.core.ResponseInputStream;
+import com.iot.shared.MessageQueue;
+import com.iot.shared.Metrics;
+import com.iot.shared.MetricsExporter;
+import com.iot.shared.ObjectStore;
+import com.iot.shared.OutgoingMessage;
+import com.iot.shared.QueueMessage;
+import com.iot.shared.SummaryBatch;
+import com.iot.shared.TrafficSketch;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotification;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotificationRecord;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.*;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class SummarizeWorker {
 
     private static final String QUEUE_URL = ConfigLoader.getQueueSummarize();
     private static final String INTERIM_BUCKET = ConfigLoader.getBucketInterim();
     private static final String NEXT_QUEUE_URL = ConfigLoader.getQueueConsolidate();
+    private static final int PARALLELISM = ConfigLoader.getSummarizeParallelism();
+    private static final long SPLIT_THRESHOLD_BYTES = ConfigLoader.getSummarizeSplitThresholdBytes();
+    private static final int BATCH_MAX_ENTRIES = ConfigLoader.getSummarizeBatchMaxEntries();
+    private static final boolean SKETCH_ENABLED = ConfigLoader.isSketchEnabled();
+
+    // Notifications sent together (one SendMessageBatch on SQS)
+    private static final int NOTIFY_BATCH_SIZE = 10;
 
     // Required Column Names (Exact match to your schema)
     private static final String COL_TIMESTAMP = "Timestamp";
@@ -36,113 +66,610 @@ public class SummarizeWorker {
     private static final String COL_FLOW_DURATION = "Flow Duration";
     private static final String COL_FWD_PKTS = "Tot Fwd Pkts";
 
-    private final S3Client s3;
-    private final SqsClient sqs;
+    // Slots of the selected columns in FlowCsvReader (same order as selectColumns)
+    private static final int SLOT_TIMESTAMP = 0;
+    private static final int SLOT_SRC_IP = 1;
+    private static final int SLOT_DST_IP = 2;
+    private static final int SLOT_FLOW_DURATION = 3;
+    private static final int SLOT_FWD_PKTS = 4;
+
+    // Pipeline: messages held at once, threads per stage, hand-off queues between stages
+    private static final int MAX_IN_FLIGHT = ConfigLoader.getSummarizeMaxInFlight();
+    private static final int DOWNLOAD_CONCURRENCY = ConfigLoader.getSummarizeDownloadConcurrency();
+    private static final int PARSE_CONCURRENCY = ConfigLoader.getSummarizeParseConcurrency();
+    private static final int UPLOAD_CONCURRENCY = ConfigLoader.getSummarizeUploadConcurrency();
+    private static final int STAGE_QUEUE_CAPACITY = ConfigLoader.getSummarizeStageQueueCapacity();
+    private static final int VISIBILITY_TIMEOUT_S = ConfigLoader.getSummarizeVisibilityTimeoutSeconds();
+    private static final int HEARTBEAT_INTERVAL_S = ConfigLoader.getSummarizeHeartbeatIntervalSeconds();
+
+    // SQS returns at most 10 messages per receive
+    private static final int RECEIVE_MAX_MESSAGES = 10;
+
+    // Memory budget: split evenly between the aggregation tables that can be alive at
+    // once (ranges of every parse thread, files waiting for and in the upload stage).
+    // A table reaching its share is spilled to SPILL_DIR as a sorted run and reused.
+    private static final long TABLE_MAX_BYTES = ConfigLoader.getSummarizeMemoryBudgetBytes()
+            / (PARSE_CONCURRENCY * PARALLELISM + STAGE_QUEUE_CAPACITY + UPLOAD_CONCURRENCY);
+    private static final Path SPILL_DIR = Paths.get(ConfigLoader.getSummarizeSpillDir());
+
+    // Summaries buffered before being folded into the sketch of their file
+    private static final int SKETCH_FOLD_ENTRIES = 50_000;
+
+    // Metrics: rows per outcome, per-file figures (keys, duration in us), skipped files
+    private static final LongAdder ROWS_PARSED = Metrics.counter("summarize.rows.parsed");
+    private static final LongAdder ROWS_INCOMPLETE = Metrics.counter("summarize.rows.rejected.incomplete");
+    private static final LongAdder ROWS_INVALID = Metrics.counter("summarize.rows.rejected.invalid");
+    private static final LongAdder ROWS_OVERSIZED = Metrics.counter("summarize.rows.rejected.oversized");
+    private static final LongAdder SPILL_RUNS = Metrics.counter("summarize.spill.runs");
+    private static final LongAdder SPILL_BYTES = Metrics.counter("summarize.spill.bytes");
+    private static final Histogram FILE_KEYS = Metrics.histogram("summarize.file.distinct_keys");
+    private static final Histogram FILE_TIME = Metrics.histogram("summarize.file");
+    private static final Histogram BATCH_ENTRIES = Metrics.histogram("summarize.batch.entries");
+    private static final LongAdder FILES_NOT_FOUND = Metrics.counter("summarize.files.rejected.not_found");
+    private static final LongAdder FILES_BAD_HEADER = Metrics.counter("summarize.files.rejected.header");
+    private static final LongAdder FILES_FAILED = Metrics.counter("summarize.files.failed");
+
+    /**
+     * Rows seen by aggregateRows: aggregated, or rejected by reason. Counted in plain
+     * fields by the parsing thread and published once per file.
+     */
+    static final class RowCounts {
+        long parsed;
+        long incomplete; // Fewer columns than the header
+        long invalid;    // A selected field could not be decoded
+        long oversized;  // Line longer than FlowCsvReader.MAX_LINE_BYTES
+        String firstRejected;
+
+        long rejected() {
+            return incomplete + invalid + oversized;
+        }
+
+        synchronized void add(RowCounts other) {
+            parsed += other.parsed;
+            incomplete += other.incomplete;
+            invalid += other.invalid;
+            oversized += other.oversized;
+            if (firstRejected == null) firstRejected = other.firstRejected;
+        }
+    }
+
+    /** A received message, acknowledged once all its files went through the pipeline. */
+    private final class Delivery {
+        final QueueMessage message;
+        final AtomicInteger remainingFiles = new AtomicInteger();
+
+        Delivery(QueueMessage message) {
+            this.message = message;
+        }
+
+        void fileDone() {
+            if (remainingFiles.decrementAndGet() == 0) {
+                finish(this);
+            }
+        }
+    }
+
+    /** One raw file moving through the stages; each stage fills the next fields. */
+    private static final class FileJob {
+        final Delivery delivery;
+        final String bucket;
+        final String key;
+        final Long size;
+        final RowCounts rows = new RowCounts();
+        long startNanos;
+
+        // Download stage: an open stream, or the header of a file split into ranges
+        InputStream content;
+        int[] columns;
+        long dataStart = -1;
+
+        // Parse stage: the table of the file, or its sorted runs if it did not fit
+        FlowAggregationTable aggregations;
+        SpilledRuns runs;
+
+        // Upload stage (guarded by the job)
+        TrafficSketch sketch;
+
+        FileJob(Delivery delivery, String bucket, String key, Long size) {
+            this.delivery = delivery;
+            this.bucket = bucket;
+            this.key = key;
+            this.size = size;
+        }
+
+        boolean ranged() {
+            return dataStart >= 0;
+        }
+    }
+
+    private final ObjectStore objects;
+    private final MessageQueue queues;
+    private final ExecutorService rangePool;
+
+    // Bounded hand-offs: a full queue blocks the stage before it (backpressure)
+    private final BlockingQueue<FileJob> toDownload = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+    private final BlockingQueue<FileJob> toParse = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+    private final BlockingQueue<FileJob> toUpload = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+
+    // Messages received and not yet acknowledged, kept visible-to-us by the heartbeat
+    private final Semaphore inFlightSlots = new Semaphore(MAX_IN_FLIGHT);
+    private final Set<Delivery> inFlight = ConcurrentHashMap.newKeySet();
 
     public SummarizeWorker() {
-        Region region = Region.of(ConfigLoader.getAwsRegion());
-        this.s3 = S3Client.builder().region(region).build();
-        this.sqs = SqsClient.builder().region(region).build();
+        this(Backend.fromConfig());
     }
 
+    public SummarizeWorker(Backend backend) {
+        this.objects = backend.objects();
+        this.queues = backend.queues();
+        this.rangePool = Executors.newFixedThreadPool(PARALLELISM);
+    }
+
+    /**
+     * Runs the pipeline: receive -> download -> parse/aggregate -> upload/notify.
+     * Each stage has its own threads, and the bounded queues between them let the
+     * download of a file overlap with the parsing of the previous one and with the
+     * uploads, without buffering more than a few files. At most MAX_IN_FLIGHT messages
+     * are held; the heartbeat extends their visibility timeout until they are deleted,
+     * so that a large file is not delivered to another worker meanwhile.
+     */
     public void start() {
-        System.out.println("Summarize Worker Started. Polling SQS...");
+        System.out.println("Summarize Worker Started (pipeline: " + DOWNLOAD_CONCURRENCY + " download, "
+                + PARSE_CONCURRENCY + " parse, " + UPLOAD_CONCURRENCY + " upload threads). Polling SQS...");
+        MetricsExporter.startFromConfig();
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "visibility-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::extendVisibility,
+                HEARTBEAT_INTERVAL_S, HEARTBEAT_INTERVAL_S, TimeUnit.SECONDS);
+
+        startStage("summarize-download", DOWNLOAD_CONCURRENCY, toDownload, this::download);
+        startStage("summarize-parse", PARSE_CONCURRENCY, toParse, this::parse);
+        startStage("summarize-upload", UPLOAD_CONCURRENCY, toUpload, this::upload);
+        receiveLoop();
+    }
+
+    private void receiveLoop() {
         while (true) {
             try {
-                ReceiveMessageResponse response = sqs.receiveMessage(ReceiveMessageRequest.builder()
-                        .queueUrl(QUEUE_URL)
-                        .maxNumberOfMessages(1)
-                        .waitTimeSeconds(20)
-                        .build());
-
-                for (Message message : response.messages()) {
-                    processMessage(message);
-                    sqs.deleteMessage(req -> req.queueUrl(QUEUE_URL).receiptHandle(message.receiptHandle()));
+                // 1. Wait for a free slot, then take as many as are free (up to 10)
+                inFlightSlots.acquire();
+                int slots = 1 + drainPermits(RECEIVE_MAX_MESSAGES - 1);
+                List<QueueMessage> messages;
+                try {
+                    messages = queues.receive(QUEUE_URL, slots, 20);
+                } finally {
+                    inFlightSlots.release(slots);
+                }
+
+                // 2. Hand the files to the download stage (blocks while it is busy)
+                for (QueueMessage message : messages) {
+                    inFlightSlots.acquire();
+                    Delivery delivery = new Delivery(message);
+                    inFlight.add(delivery);
+                    List<FileJob> files = parseNotification(delivery);
+                    if (files.isEmpty()) {
+                        finish(delivery);
+                        continue;
+                    }
+                    delivery.remainingFiles.set(files.size());
+                    for (FileJob job : files) {
+                        toDownload.put(job);
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception e) {
                 System.err.println("Error processing messages: " + e.getMessage());
             }
         }
     }
 
-    private void processMessage(Message sqsMessage) {
+    private int drainPermits(int max) {
+        int taken = 0;
+        while (taken < max && inFlightSlots.tryAcquire()) {
+            taken++;
+        }
+        return taken;
+    }
+
+    private interface StageTask {
+        void run(FileJob job) throws Exception;
+    }
+
+    /** Summaries of a file grouped by source IP, a chunk at a time; returns the number of keys. */
+    private interface SourceChunks {
+        long forEach(int maxEntries, BiConsumer<String, List<IntermediateSummary>> consumer);
+    }
+
+    /**
+     * Starts `threads` daemon threads taking jobs from `input`. A failing job is
+     * logged and counted as done, like the former sequential loop did.
+     */
+    private void startStage(String name, int threads, BlockingQueue<FileJob> input, StageTask task) {
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    FileJob job;
+                    try {
+                        job = input.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        task.run(job);
+                    } catch (Exception e) {
+                        System.err.println("Failed to process file " + job.key + ": " + e.getMessage());
+                        FILES_FAILED.increment();
+                        abandon(job);
+                    }
+                }
+            }, name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private List<FileJob> parseNotification(Delivery delivery) {
+        List<FileJob> files = new ArrayList<>();
         try {
-            S3EventNotification notification = S3EventNotification.fromJson(sqsMessage.body());
-            if (notification.getRecords() == null) return;
+            S3EventNotification notification = S3EventNotification.fromJson(delivery.message.body());
+            if (notification.getRecords() == null) return files;
 
             for (S3EventNotificationRecord record : notification.getRecords()) {
                 String bucket = record.getS3().getBucket().getName();
                 String key = java.net.URLDecoder.decode(record.getS3().getObject().getKey(), StandardCharsets.UTF_8);
-                System.out.println("Processing file: " + key);
-                processCsvFile(bucket, key);
+                Long size = record.getS3().getObject().getSizeAsLong();
+                files.add(new FileJob(delivery, bucket, key, size));
             }
         } catch (Exception e) {
             System.err.println("Error parsing SQS message: " + e.getMessage());
         }
+        return files;
     }
 
-    private void processCsvFile(String bucket, String key) {
-        try (ResponseInputStream<GetObjectResponse> s3Stream = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
-             BufferedReader reader = new BufferedReader(new InputStreamReader(s3Stream, StandardCharsets.UTF_8))) {
+    // Stage 1: opens the object (read ahead in the background), or reads the header of a large file
+    private void download(FileJob job) throws Exception {
+        System.out.println("Processing file: " + job.key);
+        job.startNanos = System.nanoTime();
+        // Large objects are split into byte ranges and parsed on several cores.
+        // A compressed object cannot be entered mid-stream: it is always read sequentially.
+        boolean compressed = !Compression.NONE.equals(Compression.fromKey(job.key));
+        boolean opened;
+        if (!compressed && job.size != null && job.size >= SPLIT_THRESHOLD_BYTES && PARALLELISM > 1) {
+            opened = readRangedHeader(job);
+        } else {
+            opened = openSequential(job);
+        }
+        if (!opened) {
+            job.delivery.fileDone();
+            return;
+        }
+        toParse.put(job);
+    }
 
-            // 1. Parse Header to find indices
-            String headerLine = reader.readLine();
-            if (headerLine == null) return;
+    // Stage 2: parses and aggregates the rows
+    private void parse(FileJob job) throws Exception {
+        FlowAggregationTable aggregations = job.ranged() ? summarizeInRanges(job) : summarizeSequential(job);
+        if (aggregations == null) {
+            FILES_BAD_HEADER.increment();
+            job.delivery.fileDone();
+            return;
+        }
+        // A file that did not fit ends as runs only, merged by the upload stage
+        if (job.runs != null) {
+            spill(job, aggregations);
+        } else {
+            job.aggregations = aggregations;
+        }
+        publishRowCounts(job);
+        toUpload.put(job);
+    }
 
-            Map<String, Integer> colMap = mapHeaders(headerLine);
-            if (!validateHeaders(colMap)) {
-                System.err.println("Skipping file " + key + ": Missing required columns.");
-                return;
+    // One update of the shared counters per file, and one log line for its bad rows
+    private static void publishRowCounts(FileJob job) {
+        RowCounts rows = job.rows;
+        ROWS_PARSED.add(rows.parsed);
+        ROWS_INCOMPLETE.add(rows.incomplete);
+        ROWS_INVALID.add(rows.invalid);
+        ROWS_OVERSIZED.add(rows.oversized);
+        if (rows.rejected() > 0) {
+            System.err.printf(Locale.ROOT, "Rejected %d of %d rows of %s (%d incomplete, %d invalid, %d oversized). First: %s%n",
+                    rows.rejected(), rows.parsed + rows.rejected(), job.key,
+                    rows.incomplete, rows.invalid, rows.oversized, rows.firstRejected);
+        }
+    }
+
+    // Stage 3: uploads the interim batches, notifies the consolidator, publishes the sketch
+    private void upload(FileJob job) {
+        long summaries;
+        int runs = 0;
+        if (job.runs != null) {
+            // k-way merge of the sorted runs: each key is emitted once
+            try (SpilledRuns spilled = job.runs) {
+                runs = spilled.runs();
+                summaries = emit(job, spilled::forEachSourceChunk);
             }
+        } else {
+            FlowAggregationTable aggregations = job.aggregations;
+            job.aggregations = null;
+            summaries = emit(job, (maxEntries, consumer) -> {
+                aggregations.forEachSourceChunk(maxEntries, consumer);
+                return aggregations.size();
+            });
+        }
+        TrafficSketch sketch;
+        synchronized (job) {
+            sketch = job.sketch;
+        }
+        FILE_KEYS.record(summaries);
 
-            // 2. Process Rows
-            Map<String, IntermediateSummary> aggregations = new HashMap<>();
-            String line;
+        // Sketches of the same pass (top pairs, distinct destinations per source)
+        if (SKETCH_ENABLED) {
+            publishSketch(job.key, sketch != null ? sketch : TrafficSketch.empty(ConfigLoader.getSketchTopCapacity(), ConfigLoader.getSketchMaxSources()));
+        }
+        long elapsedNanos = System.nanoTime() - job.startNanos;
+        FILE_TIME.record(elapsedNanos / 1_000);
+        System.out.printf(Locale.ROOT, "Summarized %s: %d rows, %d summaries%s in %d ms (%.0f rows/s)%n",
+                job.key, job.rows.parsed, summaries,
+                runs > 0 ? " (merged from " + runs + " spilled runs)" : "", elapsedNanos / 1_000_000,
+                job.rows.parsed * 1e9 / Math.max(1, elapsedNanos));
+        job.delivery.fileDone();
+    }
 
-            while ((line = reader.readLine()) != null) {
-                try {
-                    // Handle CSV splitting (including potential quotes if necessary, but simple split for now)
-                    String[] cols = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                    String rawDate = cols[colMap.get(COL_TIMESTAMP)];
-                    String srcIp = cols[colMap.get(COL_SRC_IP)];
-                    String dstIp = cols[colMap.get(COL_DST_IP)];
-                    String rawDur = cols[colMap.get(COL_FLOW_DURATION)];
-                    String rawPkts = cols[colMap.get(COL_FWD_PKTS)];
-
-                    // Normalize Date (e.g., "01/11/2023 10:00" -> "2023-11-01")
-                    String dateKey = normalizeDate(rawDate);
-
-                    // Parse Numbers safely
-                    long duration = parseLongSafe(rawDur);
-                    long packets = parseLongSafe(rawPkts);
-
-                    String mapKey = srcIp + ":" + dstIp + ":" + dateKey;
-
-                    aggregations.compute(mapKey, (k, v) -> {
-                        if (v == null) return new IntermediateSummary(srcIp, dstIp, dateKey, duration, packets);
-                        return new IntermediateSummary(srcIp, dstIp, dateKey,
-                                v.totalFlowDuration() + duration,
-                                v.totalFwdPackets() + packets);
-                    });
-
-                } catch (Exception e) {
-                    // Log but don't stop processing the whole file
-                    // System.err.println("Skipping bad line: " + e.getMessage());
-                }
+    /**
+     * Writes a full table of a file still being parsed to a sorted run on local disk,
+     * then clears it for the next rows. Nothing leaves the worker before the end of
+     * the file, when the upload stage merges the runs.
+     */
+    private static void spill(FileJob job, FlowAggregationTable aggregations) {
+        SpilledRuns runs;
+        synchronized (job) {
+            if (job.runs == null) {
+                job.runs = new SpilledRuns(SPILL_DIR, job.key);
             }
+            runs = job.runs;
+        }
+        long before = runs.bytes();
+        runs.spill(aggregations);
+        SPILL_RUNS.increment();
+        SPILL_BYTES.add(runs.bytes() - before);
+    }
 
-            // 3. Upload Results
-            for (IntermediateSummary summary : aggregations.values()) {
-                uploadAndNotify(summary);
+    private void abandon(FileJob job) {
+        if (job.runs != null) {
+            job.runs.close();
+        }
+        if (job.content != null) {
+            try {
+                job.content.close();
+            } catch (IOException ignored) {
+                // Nothing else to release
             }
+        }
+        job.delivery.fileDone();
+    }
 
+    // Deletes the message once all its files are done (failed files included, as before)
+    private void finish(Delivery delivery) {
+        inFlight.remove(delivery);
+        try {
+            queues.delete(QUEUE_URL, List.of(delivery.message));
+        } finally {
+            inFlightSlots.release();
+        }
+    }
+
+    private void extendVisibility() {
+        List<QueueMessage> held = new ArrayList<>();
+        for (Delivery delivery : inFlight) {
+            held.add(delivery.message);
+        }
+        if (held.isEmpty()) return;
+        try {
+            queues.changeVisibility(QUEUE_URL, held, VISIBILITY_TIMEOUT_S);
         } catch (Exception e) {
-            System.err.println("Failed to process file " + key + ": " + e.getMessage());
+            System.err.println("Failed to extend message visibility: " + e.getMessage());
+        }
+    }
+
+    private boolean openSequential(FileJob job) throws IOException {
+        InputStream s3Stream = objects.open(job.bucket, job.key);
+        if (s3Stream == null) {
+            System.err.println("Skipping file " + job.key + ": not found.");
+            FILES_NOT_FOUND.increment();
+            return false;
+        }
+        // Decoded on the fly (gzip / zstd, by key suffix or magic bytes). With more than
+        // one core, a read-ahead thread keeps downloading and decompressing while the
+        // parse stage is busy with this file or the previous one.
+        InputStream decoded;
+        try {
+            decoded = Compression.decoding(job.key, s3Stream);
+        } catch (IOException e) {
+            s3Stream.close();
+            throw e;
+        }
+        job.content = PARALLELISM > 1 ? new ReadAheadInputStream(decoded, job.key) : decoded;
+        return true;
+    }
+
+    private FlowAggregationTable summarizeSequential(FileJob job) throws IOException {
+        try (FlowCsvReader reader = new FlowCsvReader(job.content)) {
+            job.content = null;
+
+            // 1. Parse Header to find indices
+            int[] columns = readColumns(reader, job.key);
+            if (columns == null) return null;
+            reader.selectColumns(columns);
+
+            // 2. Process Rows
+            FlowAggregationTable aggregations = new FlowAggregationTable();
+            job.rows.add(aggregateRows(reader, Long.MAX_VALUE, aggregations,
+                    TABLE_MAX_BYTES, full -> spill(job, full)));
+            return aggregations;
+        }
+    }
+
+    // Reads the header only, then drops the connection
+    private boolean readRangedHeader(FileJob job) throws IOException {
+        InputStream s3Stream = objects.open(job.bucket, job.key, 0);
+        if (s3Stream == null) {
+            System.err.println("Skipping file " + job.key + ": not found.");
+            FILES_NOT_FOUND.increment();
+            return false;
+        }
+        try (FlowCsvReader reader = new FlowCsvReader(s3Stream)) {
+            job.columns = readColumns(reader, job.key);
+            job.dataStart = reader.position();
+        }
+        if (job.columns == null) {
+            FILES_BAD_HEADER.increment();
+        }
+        return job.columns != null;
+    }
+
+    private FlowAggregationTable summarizeInRanges(FileJob job) throws Exception {
+        long size = job.size;
+
+        // 1. One range per thread over the data section
+        long rangeSize = Math.max(1, (size - job.dataStart + PARALLELISM - 1) / PARALLELISM);
+        List<Callable<FlowAggregationTable>> tasks = new ArrayList<>();
+        for (long start = job.dataStart; start < size; start += rangeSize) {
+            long rangeStart = start;
+            long rangeEnd = Math.min(size, start + rangeSize);
+            tasks.add(() -> summarizeRange(job, rangeStart, rangeEnd));
+        }
+
+        // 2. Merge partial aggregations (sums are order-independent); a range that
+        // would take the merged table over its budget is spilled as a run
+        FlowAggregationTable merged = null;
+        for (Future<FlowAggregationTable> future : rangePool.invokeAll(tasks)) {
+            FlowAggregationTable partial = future.get();
+            if (merged == null) {
+                merged = partial;
+            } else if (merged.memoryBytes() + partial.memoryBytes() <= TABLE_MAX_BYTES) {
+                merged.mergeFrom(partial);
+            } else {
+                spill(job, partial);
+            }
+        }
+        return merged != null ? merged : new FlowAggregationTable();
+    }
+
+    /**
+     * Aggregates every line that starts inside [start, end).
+     * The GET begins one byte early so that the partial line before start (or the
+     * terminator just before it) is skipped; the last line may run past end.
+     */
+    private FlowAggregationTable summarizeRange(FileJob job, long start, long end) throws IOException {
+        long base = start - 1;
+        InputStream s3Stream = objects.open(job.bucket, job.key, base);
+        if (s3Stream == null) {
+            throw new IOException("File " + job.key + " disappeared during processing");
         }
+        // Closing stops the download: the rest of the object belongs to the following ranges
+        try (FlowCsvReader reader = new FlowCsvReader(s3Stream)) {
+            reader.selectColumns(job.columns);
+            reader.skipLine();
+
+            FlowAggregationTable aggregations = new FlowAggregationTable();
+            job.rows.add(aggregateRows(reader, end - base, aggregations,
+                    TABLE_MAX_BYTES, full -> spill(job, full)));
+            return aggregations;
+        }
+    }
+
+    /**
+     * Reads the header line and resolves the indices of the required columns.
+     * Returns null if the file is empty or a column is missing.
+     */
+    private static int[] readColumns(FlowCsvReader reader, String key) throws IOException {
+        String headerLine = reader.readLine();
+        if (headerLine == null) return null;
+
+        Map<String, Integer> colMap = mapHeaders(headerLine);
+        if (!validateHeaders(colMap)) {
+            System.err.println("Skipping file " + key + ": Missing required columns.");
+            return null;
+        }
+
+        // Only these five columns are tokenized, the other ~75 are skipped
+        return new int[]{
+                colMap.get(COL_TIMESTAMP),
+                colMap.get(COL_SRC_IP),
+                colMap.get(COL_DST_IP),
+                colMap.get(COL_FLOW_DURATION),
+                colMap.get(COL_FWD_PKTS)
+        };
+    }
+
+    /**
+     * Aggregates rows until the reader reaches the given stream offset or EOF.
+     * IPv4 addresses and the usual date shapes are encoded straight from the read
+     * buffer; anything else goes through the String path and the table's dictionary.
+     * Before a row could take the table over maxBytes, the table is handed to spill,
+     * which writes its keys out and clears it.
+     * Returns the rows aggregated and rejected, with the first rejection described.
+     */
+    private static RowCounts aggregateRows(FlowCsvReader reader, long limit, FlowAggregationTable aggregations,
+                                           long maxBytes, Consumer<FlowAggregationTable> spill) throws IOException {
+        RowCounts rows = new RowCounts();
+        while (reader.position() < limit && reader.nextRow()) {
+            if (aggregations.isFull(maxBytes)) {
+                spill.accept(aggregations);
+            }
+            try {
+                // Not a flow record, skipped without being buffered
+                if (reader.lineTooLong()) {
+                    if (rows.rejected() == 0) {
+                        rows.firstRejected = "line longer than " + FlowCsvReader.MAX_LINE_BYTES + " bytes";
+                    }
+                    rows.oversized++;
+                    continue;
+                }
+                // Short line: the old split-based parser rejected it as well
+                if (!reader.isComplete()) {
+                    if (rows.rejected() == 0) {
+                        rows.firstRejected = "too few columns";
+                    }
+                    rows.incomplete++;
+                    continue;
+                }
+                byte[] buf = reader.buffer();
+
+                long srcIp = aggregations.ipCode(buf, reader.fieldStart(SLOT_SRC_IP), reader.fieldEnd(SLOT_SRC_IP));
+                long dstIp = aggregations.ipCode(buf, reader.fieldStart(SLOT_DST_IP), reader.fieldEnd(SLOT_DST_IP));
+
+                // Normalize Date (e.g., "01/11/2023 10:00" -> "2023-11-01")
+                int dateKey = aggregations.dateCode(buf, reader.fieldStart(SLOT_TIMESTAMP), reader.fieldEnd(SLOT_TIMESTAMP));
+                if (dateKey < 0) {
+                    dateKey = aggregations.dateCode(normalizeDate(reader.text(SLOT_TIMESTAMP)));
+                }
+
+                // Parse Numbers safely, straight from the buffer
+                long duration = reader.longValue(SLOT_FLOW_DURATION);
+                long packets = reader.longValue(SLOT_FWD_PKTS);
+
+                aggregations.add(srcIp, dstIp, dateKey, duration, packets);
+                rows.parsed++;
+
+            } catch (Exception e) {
+                // Counted (and the first one logged by the caller), the file goes on
+                if (rows.rejected() == 0) {
+                    rows.firstRejected = e.toString();
+                }
+                rows.invalid++;
+            }
+        }
+        return rows;
     }
 
-    private Map<String, Integer> mapHeaders(String headerLine) {
+    private static Map<String, Integer> mapHeaders(String headerLine) {
         Map<String, Integer> map = new HashMap<>();
         String[] headers = headerLine.split(",");
         for (int i = 0; i < headers.length; i++) {
@@ -151,13 +678,13 @@ public class SummarizeWorker {
         return map;
     }
 
-    private boolean validateHeaders(Map<String, Integer> map) {
+    private static boolean validateHeaders(Map<String, Integer> map) {
         return map.containsKey(COL_TIMESTAMP) && map.containsKey(COL_SRC_IP) &&
                 map.containsKey(COL_DST_IP) && map.containsKey(COL_FLOW_DURATION) &&
                 map.containsKey(COL_FWD_PKTS);
     }
 
-    private String normalizeDate(String timestamp) {
+    private static String normalizeDate(String timestamp) {
         // Attempt to parse standard formats.
         // VARIoT often uses: dd/MM/yyyy hh:mm:ss a OR yyyy-MM-dd HH:mm:ss
         // Simple approach: Split by space to get Date part, then reformat if needed.
@@ -176,28 +703,66 @@ public class SummarizeWorker {
         }
     }
 
-    private long parseLongSafe(String value) {
-        try {
-            if (value == null || value.trim().isEmpty()) return 0;
-            return Long.parseLong(value.trim());
-        } catch (NumberFormatException e) {
-            return 0;
+    /**
+     * Writes one interim object per source IP (chunked to BATCH_MAX_ENTRIES summaries)
+     * and notifies the FIFO queue (SendMessageBatch on SQS, 10 entries per call).
+     * The table (or the merge of its runs) streams its summaries grouped by source,
+     * one chunk at a time, and they are folded into the sketch of the file as they go.
+     * Returns the number of summaries.
+     */
+    private long emit(FileJob job, SourceChunks summaries) {
+        List<OutgoingMessage> notifications = new ArrayList<>();
+        List<IntermediateSummary> unsketched = new ArrayList<>();
+        long keys = summaries.forEach(BATCH_MAX_ENTRIES, (srcIp, chunk) -> {
+            BATCH_ENTRIES.record(chunk.size());
+            // JSON or Smile, depending on wire.format (source IP = FIFO message group)
+            String jsonFileName = SummaryBatch.KEY_PREFIX + UUID.randomUUID() + JsonUtils.extension();
+            byte[] jsonBody = JsonUtils.toBytes(new SummaryBatch(srcIp, chunk));
+
+            objects.write(INTERIM_BUCKET, jsonFileName, jsonBody);
+
+            notifications.add(new OutgoingMessage(jsonFileName, srcIp, jsonFileName));
+            if (notifications.size() == NOTIFY_BATCH_SIZE) {
+                queues.send(NEXT_QUEUE_URL, notifications);
+                notifications.clear();
+            }
+            if (SKETCH_ENABLED) {
+                unsketched.addAll(chunk);
+                if (unsketched.size() >= SKETCH_FOLD_ENTRIES) {
+                    foldSketch(job, unsketched);
+                    unsketched.clear();
+                }
+            }
+        });
+        if (!notifications.isEmpty()) {
+            queues.send(NEXT_QUEUE_URL, notifications);
+        }
+        if (!unsketched.isEmpty()) {
+            foldSketch(job, unsketched);
         }
+        return keys;
     }
 
-    private void uploadAndNotify(IntermediateSummary summary) {
-        String jsonFileName = "summary-" + UUID.randomUUID() + ".json";
-        String jsonBody = JsonUtils.toJson(summary);
-
-        s3.putObject(PutObjectRequest.builder().bucket(INTERIM_BUCKET).key(jsonFileName).build(),
-                software.amazon.awssdk.core.sync.RequestBody.fromString(jsonBody));
+    // Sketches merge exactly, so the sketch of a file can be built from any split of its summaries
+    private static void foldSketch(FileJob job, List<IntermediateSummary> summaries) {
+        TrafficSketch sketch = TrafficSketch.of(summaries,
+                ConfigLoader.getSketchTopCapacity(), ConfigLoader.getSketchHllPrecision(), ConfigLoader.getSketchMaxSources());
+        synchronized (job) {
+            job.sketch = job.sketch == null ? sketch : job.sketch.merge(sketch);
+        }
+    }
 
-        sqs.sendMessage(SendMessageRequest.builder()
-                .queueUrl(NEXT_QUEUE_URL)
-                .messageBody(jsonFileName)
-                .messageGroupId(summary.srcIp())
-                .messageDeduplicationId(jsonFileName)
-                .build());
+    /**
+     * Writes the sketch of a file to bucket-interim, for the SketchReport.
+     * Sketches are approximate by nature: a failure is only logged, so that the
+     * file is not summarized (and consolidated) twice.
+     */
+    private void publishSketch(String key, TrafficSketch sketch) {
+        try {
+            objects.write(INTERIM_BUCKET, TrafficSketch.pendingKey(key), JsonUtils.toBytes(sketch));
+        } catch (Exception e) {
+            System.err.println("Failed to publish sketch of " + key + ": " + e.getMessage());
+        }
     }
 
     public static void main(String[] args) {
@@ -1,42 +1,252 @@
 package com.iot.ingestion;
 
+import com.iot.shared.Backend;
+import com.iot.shared.Compression;
 import com.iot.shared.ConfigLoader;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import com.iot.shared.ObjectStore;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 public class UploadClient {
 
-    public static void main(String[] args) {
+    private static final double MB = 1024.0 * 1024.0;
+
+    /** Outcome of one file, for the summary. */
+    private static final class Result {
+        final long bytesRead;
+        final long bytesStored;
+        final boolean skipped;
+
+        Result(long bytesRead, long bytesStored, boolean skipped) {
+            this.bytesRead = bytesRead;
+            this.bytesStored = bytesStored;
+            this.skipped = skipped;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.out.println("Usage: java -cp ... UploadClient <path-to-csv>");
+            System.out.println("Usage: java -cp ... UploadClient <file|directory|glob>...");
             System.exit(1);
         }
 
         String bucketName = ConfigLoader.getBucketRaw();
-        Region region = Region.of(ConfigLoader.getAwsRegion());
+        String compression = ConfigLoader.getUploadCompression();
+        int concurrency = ConfigLoader.getUploadConcurrency();
+
+        // 1. Expand directories and globs
+        List<Path> files = resolveInputs(List.of(args));
+        if (files.isEmpty()) {
+            System.err.println("No file to upload.");
+            System.exit(1);
+        }
+        System.out.println("Uploading " + files.size() + " file(s) to " + bucketName
+                + " (" + concurrency + " at a time, compression: " + compression + ")...");
+
+        // 2. Several files at once; large ones are also split into parallel parts by the store
+        ObjectStore objects = Backend.fromConfig().objects();
+        UploadJournal journal = new UploadJournal(Paths.get(ConfigLoader.getUploadJournalDir()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, files.size()));
+        long start = System.nanoTime();
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path file : files) {
+            results.add(pool.submit(() -> uploadResumable(objects, journal, file, compression)));
+        }
+
+        // 3. Throughput summary
+        int uploaded = 0;
+        int skipped = 0;
+        int failed = 0;
+        long bytesRead = 0;
+        long bytesStored = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                Result result = results.get(i).get();
+                if (result.skipped) {
+                    skipped++;
+                    continue;
+                }
+                uploaded++;
+                bytesRead += result.bytesRead;
+                bytesStored += result.bytesStored;
+            } catch (Exception e) {
+                failed++;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("Upload failed for " + files.get(i) + ": " + cause.getMessage());
+            }
+        }
+        pool.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "Done: %d uploaded, %d already uploaded, %d failed. %.1f MB read, %.1f MB stored in %.1f s (%.1f MB/s)",
+                uploaded, skipped, failed, bytesRead / MB, bytesStored / MB, seconds,
+                seconds > 0 ? bytesRead / MB / seconds : 0));
+        if (failed > 0) {
+            System.err.println("Run the same command again to resume the failed uploads.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Expands the command line arguments: files as is, directories recursively
+     * (hidden files excluded) and glob patterns such as "captures/*.csv" (quoted so
+     * that the shell does not expand them). Returns the files sorted, without duplicates.
+     */
+    public static List<Path> resolveInputs(List<String> args) throws IOException {
+        TreeSet<Path> files = new TreeSet<>();
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile)
+                            .filter(p -> !p.getFileName().toString().startsWith("."))
+                            .forEach(files::add);
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(path);
+            } else if (isGlob(arg)) {
+                files.addAll(expandGlob(arg));
+            } else {
+                System.err.println("Skipping " + arg + ": no such file or directory.");
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String arg) {
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        // Walk from the deepest directory without wildcards
+        String normalized = pattern.replace('\\', '/');
+        int firstGlob = normalized.length();
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            int i = normalized.indexOf(c);
+            if (i >= 0) firstGlob = Math.min(firstGlob, i);
+        }
+        int slash = normalized.lastIndexOf('/', firstGlob);
+        Path base = slash >= 0 ? Paths.get(normalized.substring(0, slash + 1)) : Paths.get("");
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized);
+        List<Path> matches = new ArrayList<>();
+        if (slash >= 0 && !Files.isDirectory(base)) return matches;
+        try (Stream<Path> walk = Files.walk(base)) {
+            walk.filter(Files::isRegularFile).filter(matcher::matches).forEach(matches::add);
+        }
+        return matches;
+    }
+
+    /**
+     * Uploads a file through the journal: a file already uploaded is skipped, an
+     * interrupted upload is sent again under the same key. Uncompressed files resume
+     * their multipart upload (only the missing parts are sent); compressed ones are
+     * streamed, and start over from the beginning.
+     * A journaled key that already exists in the bucket was completed by a run that
+     * stopped before updating the journal: it is marked done, not sent again, since
+     * a second upload would notify the pipeline and summarize the file twice.
+     */
+    private static Result uploadResumable(ObjectStore objects, UploadJournal journal,
+                                          Path file, String compression) throws IOException {
+        UploadJournal.Entry entry = journal.find(file, compression);
+        if (entry != null && entry.done) {
+            System.out.println("Skipping " + file + ": already uploaded as " + entry.key);
+            return new Result(0, 0, true);
+        }
+        if (entry != null && objects.exists(ConfigLoader.getBucketRaw(), entry.key)) {
+            journal.completed(file, compression, entry.key);
+            System.out.println("Skipping " + file + ": upload to " + entry.key + " had completed");
+            return new Result(0, 0, true);
+        }
+        String key = entry != null ? entry.key : newKey(compression);
+        journal.started(file, compression, key);
 
-        String filePath = args[0];
-        String key = "traffic-data-" + UUID.randomUUID() + ".csv"; // Unique name
+        long size = Files.size(file);
+        long start = System.nanoTime();
+        long stored = send(objects, file, compression, key);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        journal.completed(file, compression, key);
 
-        System.out.println("Uploading " + filePath + " to " + bucketName + "...");
+        System.out.println(String.format(Locale.ROOT, "Uploaded %s as %s: %.1f MB in %.1f s (%.1f MB/s)",
+                file, key, size / MB, seconds, seconds > 0 ? size / MB / seconds : 0));
+        return new Result(size, stored, false);
+    }
 
-        try (S3Client s3 = S3Client.builder().region(region).build()) {
+    /**
+     * Uploads a raw CSV to the Raw bucket under a unique name and returns its key,
+     * compressed as configured by upload.compression.
+     */
+    public static String upload(ObjectStore objects, Path file) {
+        return upload(objects, file, ConfigLoader.getUploadCompression());
+    }
 
-            s3.putObject(PutObjectRequest.builder()
-                            .bucket(bucketName)
-                            .key(key)
-                            .build(),
-                    Paths.get(filePath));
+    /**
+     * Same, with an explicit compression. The file is compressed while it is read
+     * from disk and streamed to the store; the key suffix (.gz / .zst) tells the
+     * SummarizeWorker how to decode it.
+     */
+    public static String upload(ObjectStore objects, Path file, String compression) {
+        String key = newKey(compression);
+        send(objects, file, compression, key);
+        return key;
+    }
 
-            System.out.println("Success! File uploaded as: " + key);
+    private static String newKey(String compression) {
+        return "traffic-data-" + UUID.randomUUID() + ".csv" + Compression.suffix(compression); // Unique name
+    }
 
-        } catch (Exception e) {
-            System.err.println("Upload failed: " + e.getMessage());
-            e.printStackTrace();
+    // Returns the number of bytes stored
+    private static long send(ObjectStore objects, Path file, String compression, String key) {
+        String bucket = ConfigLoader.getBucketRaw();
+        if (Compression.NONE.equals(compression)) {
+            objects.upload(bucket, key, file);
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
+        AtomicLong stored = new AtomicLong();
+        objects.write(bucket, key, out -> {
+            try (OutputStream compressed = Compression.compress(compression, counting(out, stored))) {
+                Files.copy(file, compressed);
+            }
+        });
+        return stored.get();
+    }
+
+    private static OutputStream counting(OutputStream out, AtomicLong count) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count.addAndGet(len);
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package com.iot.ingestion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Upload journal of the UploadClient (config upload.journal.dir): one small
+ * properties file per local file, holding the key it is uploaded to and whether
+ * the upload completed.
+ *
+ * Running the client again on the same files reuses the key of an unfinished
+ * upload, so that the object store resumes its multipart upload (uncompressed
+ * files only), and skips the files already uploaded, including those whose key
+ * exists in the bucket although the journal still says "started". A file is identified by its absolute path, size,
+ * modification time and the compression used.
+ */
+class UploadJournal {
+
+    private static final String STATUS_STARTED = "started";
+    private static final String STATUS_DONE = "done";
+
+    /** Journal entry of a file, or null when the file has no valid entry. */
+    static final class Entry {
+        final String key;
+        final boolean done;
+
+        Entry(String key, boolean done) {
+            this.key = key;
+            this.done = done;
+        }
+    }
+
+    private final Path dir;
+
+    UploadJournal(Path dir) {
+        this.dir = dir;
+    }
+
+    Entry find(Path file, String compression) {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(entryFile(file))) {
+            props.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // A file modified since (or uploaded with another compression) starts over
+        Properties current = describe(file, compression);
+        for (String name : current.stringPropertyNames()) {
+            if (!current.getProperty(name).equals(props.getProperty(name))) return null;
+        }
+        String key = props.getProperty("key");
+        return key == null ? null : new Entry(key, STATUS_DONE.equals(props.getProperty("status")));
+    }
+
+    void started(Path file, String compression, String key) {
+        save(file, compression, key, STATUS_STARTED);
+    }
+
+    void completed(Path file, String compression, String key) {
+        save(file, compression, key, STATUS_DONE);
+    }
+
+    private void save(Path file, String compression, String key, String status) {
+        Properties props = describe(file, compression);
+        props.setProperty("key", key);
+        props.setProperty("status", status);
+        try {
+            Files.createDirectories(dir);
+            Path target = entryFile(file);
+            Path temp = dir.resolve(".tmp-" + UUID.randomUUID());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                props.store(out, null);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Properties describe(Path file, String compression) {
+        Properties props = new Properties();
+        try {
+            props.setProperty("path", file.toAbsolutePath().normalize().toString());
+            props.setProperty("size", Long.toString(Files.size(file)));
+            props.setProperty("modified", Long.toString(Files.getLastModifiedTime(file).toMillis()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        props.setProperty("compression", compression);
+        return props;
+    }
+
+    // One entry per absolute path
+    private Path entryFile(Path file) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(file.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash, 0, 16) + ".properties");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.iot.ingestion;
+
+import com.iot.shared.IntermediateSummary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowAggregationTableTest {
+
+    record Row(String src, String dst, String timestamp, String date, long duration, long packets) {}
+
+    // Canonical IPv4 (packed), non-canonical IPv4 and IPv6 (dictionary)
+    private static final String[] IPS = {"10.0.0.1", "192.168.1.254", "0.0.0.0", "255.255.255.255",
+            "010.0.0.1", "10.0.0", "2001:db8::1", "fe80::2", "not-an-ip"};
+
+    private static String ip(SplittableRandom random) {
+        return random.nextInt(4) == 0
+                ? IPS[random.nextInt(IPS.length)]
+                : "10." + random.nextInt(3) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+
+    static List<Row> rows(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDate day = LocalDate.parse("2023-10-25").plusDays(random.nextInt(15));
+            String timestamp;
+            String date;
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    timestamp = day + " 10:15:00";
+                    date = day.toString();
+                }
+                case 1 -> {
+                    timestamp = String.format("%02d/%02d/%04d 10:15:00 AM", day.getDayOfMonth(), day.getMonthValue(), day.getYear());
+                    date = day.toString();
+                }
+                case 2 -> {
+                    timestamp = day.toString();
+                    date = day.toString();
+                }
+                default -> {
+                    // Not a packable shape: normalized by the caller, dictionary-coded
+                    timestamp = "31/02/2023";
+                    date = "2023-02-31";
+                }
+            }
+            rows.add(new Row(ip(random), ip(random), timestamp, date, random.nextLong(1_000_000), random.nextLong(1_000)));
+        }
+        return rows;
+    }
+
+    static void add(FlowAggregationTable table, Row row) {
+        byte[] src = row.src().getBytes(StandardCharsets.UTF_8);
+        byte[] dst = row.dst().getBytes(StandardCharsets.UTF_8);
+        byte[] timestamp = row.timestamp().getBytes(StandardCharsets.UTF_8);
+        int date = table.dateCode(timestamp, 0, timestamp.length);
+        if (date < 0) date = table.dateCode(row.date());
+        table.add(table.ipCode(src, 0, src.length), table.ipCode(dst, 0, dst.length), date, row.duration(), row.packets());
+    }
+
+    static FlowAggregationTable table(List<Row> rows) {
+        FlowAggregationTable table = new FlowAggregationTable(16);
+        rows.forEach(row -> add(table, row));
+        return table;
+    }
+
+    static Map<String, long[]> expected(List<Row> rows) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (Row row : rows) {
+            long[] sums = totals.computeIfAbsent(row.src() + "|" + row.dst() + "|" + row.date(), k -> new long[2]);
+            sums[0] += row.duration();
+            sums[1] += row.packets();
+        }
+        return totals;
+    }
+
+    static Map<String, long[]> actual(List<IntermediateSummary> summaries) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (IntermediateSummary s : summaries) {
+            long[] previous = totals.put(s.srcIp() + "|" + s.dstIp() + "|" + s.date(),
+                    new long[]{s.totalFlowDuration(), s.totalFwdPackets()});
+            assertNull(previous, "key emitted twice: " + s);
+        }
+        return totals;
+    }
+
+    static void assertSameTotals(Map<String, long[]> expected, Map<String, long[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((key, sums) -> {
+            assertEquals(sums[0], actual.get(key)[0], key);
+            assertEquals(sums[1], actual.get(key)[1], key);
+        });
+    }
+
+    @Test
+    void aggregatesLikeAMapOfStrings() {
+        List<Row> rows = rows(50_000, 1);
+
+        FlowAggregationTable table = table(rows);
+
+        assertEquals(expected(rows).size(), table.size());
+        assertSameTotals(expected(rows), actual(table.toSummaries()));
+    }
+
+    @Test
+    void packsDatesOfBothTimestampShapes() {
+        FlowAggregationTable table = new FlowAggregationTable();
+        for (LocalDate day = LocalDate.parse("0000-01-01"); day.getYear() < 10_000; day = day.plusDays(97)) {
+            String iso = day + " 23:59:59";
+            String french = String.format("%02d/%02d/%04d", day.getDayOfMonth(), day.getMonthValue(), day.getYear());
+            int code = table.dateCode(iso.getBytes(StandardCharsets.US_ASCII), 0, iso.length());
+            assertTrue(code >= 0, iso);
+            assertEquals(code, table.dateCode(french.getBytes(StandardCharsets.US_ASCII), 0, french.length()), french);
+            assertEquals(day.toString(), table.dateString(code));
+        }
+        for (String other : List.of("2023-02-29", "29/02/2023", "2023-13-01", "2023/11/01", "2023-11-1",
+                "2023-11-01T10:00", "1/11/2023", "", "yesterday")) {
+            assertEquals(-1, table.dateCode(other.getBytes(StandardCharsets.US_ASCII), 0, other.length()), other);
+        }
+        assertTrue(table.dateCode("2024-02-29".getBytes(StandardCharsets.US_ASCII), 0, 10) >= 0);
+    }
+
+    @Test
+    void keepsIpStringsAsTheyWere() {
+        FlowAggregationTable table = new FlowAggregationTable();
+        for (String ip : IPS) {
+            byte[] bytes = ip.getBytes(StandardCharsets.UTF_8);
+            assertEquals(ip, table.ipString(table.ipCode(bytes, 0, bytes.length)));
+        }
+    }
+
+    @Test
+    void groupsChunksBySource() {
+        List<Row> rows = rows(20_000, 2);
+        FlowAggregationTable table = table(rows);
+
+        List<IntermediateSummary> all = new ArrayList<>();
+        Set<String> finished = new HashSet<>();
+        String[] current = {null};
+        table.forEachSourceChunk(7, (srcIp, chunk) -> {
+            assertFalse(chunk.isEmpty());
+            assertTrue(chunk.size() <= 7);
+            assertTrue(chunk.stream().allMatch(s -> s.srcIp().equals(srcIp)));
+            // The chunks of a source come one after the other
+            if (!srcIp.equals(current[0])) {
+                assertTrue(finished.add(srcIp), srcIp);
+                current[0] = srcIp;
+            }
+            all.addAll(chunk);
+        });
+
+        assertSameTotals(expected(rows), actual(all));
+    }
+
+    @Test
+    void mergesTablesWithTheirOwnDictionaries() {
+        List<Row> first = rows(10_000, 3);
+        List<Row> second = rows(10_000, 4);
+
+        FlowAggregationTable merged = table(first);
+        merged.mergeFrom(table(second));
+
+        List<Row> both = new ArrayList<>(first);
+        both.addAll(second);
+        assertSameTotals(expected(both), actual(merged.toSummaries()));
+    }
+
+    @Test
+    void sortedRunsMergeBackToOneAggregation(@TempDir Path dir) throws IOException {
+        List<Row> rows = rows(30_000, 5);
+
+        List<IntermediateSummary> merged = new ArrayList<>();
+        try (SpilledRuns runs = new SpilledRuns(dir, "flows/part 1.csv")) {
+            // Several small tables, each spilled many times, as under a tight budget
+            FlowAggregationTable[] tables = {new FlowAggregationTable(16), new FlowAggregationTable(16)};
+            for (int i = 0; i < rows.size(); i++) {
+                FlowAggregationTable table = tables[i % 2];
+                add(table, rows.get(i));
+                if (table.size() == 1_000) runs.spill(table);
+            }
+            for (FlowAggregationTable table : tables) {
+                runs.spill(table);
+                assertEquals(0, table.size());
+            }
+            assertTrue(runs.runs() > 20);
+            assertTrue(runs.bytes() > 0);
+
+            long keys = runs.forEachSourceChunk(50, (srcIp, chunk) -> {
+                assertTrue(chunk.size() <= 50);
+                assertTrue(chunk.stream().allMatch(s -> s.srcIp().equals(srcIp)));
+                merged.addAll(chunk);
+            });
+            assertEquals(merged.size(), keys);
+        }
+
+        assertSameTotals(expected(rows), actual(merged));
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void boundsItsMemory() {
+        FlowAggregationTable table = new FlowAggregationTable(16);
+        assertFalse(table.isFull(0));
+
+        List<Row> rows = rows(5_000, 6);
+        rows.forEach(row -> add(table, row));
+        long bytes = table.memoryBytes();
+        assertTrue(table.isFull(bytes - 1));
+        assertFalse(table.isFull(3 * bytes));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.isFull(0));
+        assertTrue(table.toSummaries().isEmpty());
+        // Arrays are kept, the dictionary is not
+        assertTrue(table.memoryBytes() < bytes);
+        assertTrue(table.memoryBytes() >= 4L * 8 * 16);
+    }
+}
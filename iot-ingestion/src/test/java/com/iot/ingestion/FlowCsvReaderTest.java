@@ -0,0 +1,181 @@
+package com.iot.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowCsvReaderTest {
+
+    // Split used by SummarizeWorker before FlowCsvReader
+    private static final String SPLIT = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+
+    private static final String[] TOKENS = {"a", "7", "-3", " 42 ", ",", ",", "\"", "\"x,y\"", "", "\u00e9", "2023-11-01 10:00:00"};
+    private static final String[] TERMINATORS = {"\n", "\r\n", "\r"};
+
+    private static FlowCsvReader reader(String text, int bufferSize) {
+        return new FlowCsvReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    }
+
+    private static String randomLine(SplittableRandom random) {
+        StringBuilder line = new StringBuilder();
+        int tokens = random.nextInt(25);
+        for (int i = 0; i < tokens; i++) {
+            line.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return line.toString();
+    }
+
+    private static List<String> readLines(String text) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // Former parseLongSafe
+    private static long parseLongSafe(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Test
+    void splitsLikeTheLookaheadRegex() throws IOException {
+        SplittableRandom random = new SplittableRandom(1);
+        int[] columns = {4, 0, 2, 7};
+        int maxColumn = 7;
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) {
+            text.append(randomLine(random)).append(TERMINATORS[random.nextInt(TERMINATORS.length)]);
+        }
+        // Lines as the former parser read them (a lone \r then an empty line reads as \r\n)
+        List<String> lines = readLines(text.toString());
+
+        // A small buffer so that lines and \r\n pairs straddle refills
+        for (int bufferSize : new int[]{16, 64, 64 * 1024}) {
+            try (FlowCsvReader reader = reader(text.toString(), bufferSize)) {
+                reader.selectColumns(columns);
+                for (String line : lines) {
+                    assertTrue(reader.nextRow());
+                    String[] cols = line.split(SPLIT, -1);
+                    assertEquals(cols.length > maxColumn, reader.isComplete(), line);
+                    if (!reader.isComplete()) continue;
+                    for (int slot = 0; slot < columns.length; slot++) {
+                        assertEquals(cols[columns[slot]], reader.text(slot), line);
+                        assertEquals(parseLongSafe(cols[columns[slot]]), reader.longValue(slot), line);
+                    }
+                }
+                assertFalse(reader.nextRow());
+            }
+        }
+    }
+
+    @Test
+    void endsLinesLikeBufferedReader() throws IOException {
+        String text = "h1,h2\r\na,1\rb,2\n\nc,3\r\n\r\nlast,4";
+        List<String> expected = readLines(text);
+
+        for (int bufferSize : new int[]{16, 1024}) {
+            List<String> actual = new ArrayList<>();
+            try (FlowCsvReader reader = reader(text, bufferSize)) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    actual.add(line);
+                }
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void positionIsTheOffsetOfTheNextLine() throws IOException {
+        String text = "time,dur\r\n2023-11-01,\u00e95\n2023-11-02,6\r2023-11-03,7";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        try (FlowCsvReader reader = reader(text, 16)) {
+            reader.selectColumns(1);
+            assertEquals("time,dur", reader.readLine());
+            assertEquals(10, reader.position());
+            assertTrue(reader.nextRow());
+            assertEquals("\u00e95", reader.text(0));
+            assertEquals(indexAfter(bytes, (byte) '\n', 10), reader.position());
+            assertTrue(reader.nextRow());
+            assertEquals(6, reader.longValue(0));
+            assertTrue(reader.nextRow());
+            assertEquals(7, reader.longValue(0));
+            assertEquals(bytes.length, reader.position());
+            assertFalse(reader.nextRow());
+        }
+    }
+
+    private static int indexAfter(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) return i + 1;
+        }
+        return bytes.length;
+    }
+
+    @Test
+    void parsesLongsLikeParseLongSafe() throws IOException {
+        List<String> values = List.of("0", "42", " 42\t", "-17", "+5", "", " ", "-", "+", "1.5", "12a",
+                "9223372036854775807", "-9223372036854775808", "9223372036854775808", "-9223372036854775809",
+                "\u0663", "00012");
+        String text = String.join("\n", values.stream().map(v -> "x," + v).toList());
+
+        try (FlowCsvReader reader = reader(text, 32)) {
+            reader.selectColumns(1);
+            for (String value : values) {
+                assertTrue(reader.nextRow());
+                assertEquals(parseLongSafe(value), reader.longValue(0), "'" + value + "'");
+            }
+        }
+    }
+
+    @Test
+    void skipsOverlongLinesAndCarriesOn() throws IOException {
+        char[] filler = new char[FlowCsvReader.MAX_LINE_BYTES + 100];
+        Arrays.fill(filler, 'z');
+        String text = "a,1\n" + new String(filler) + ",2\nb,3";
+
+        try (FlowCsvReader reader = reader(text, 1024)) {
+            reader.selectColumns(0, 1);
+            assertTrue(reader.nextRow());
+            assertFalse(reader.lineTooLong());
+            assertEquals("a", reader.text(0));
+
+            assertTrue(reader.nextRow());
+            assertTrue(reader.lineTooLong());
+            assertFalse(reader.isComplete());
+            // The buffer never held the whole line
+            assertTrue(reader.buffer().length <= 2 * FlowCsvReader.MAX_LINE_BYTES);
+
+            assertTrue(reader.nextRow());
+            assertFalse(reader.lineTooLong());
+            assertEquals("b", reader.text(0));
+            assertEquals(3, reader.longValue(1));
+            assertEquals(text.length(), reader.position());
+            assertFalse(reader.nextRow());
+        }
+        try (FlowCsvReader reader = reader("", 16)) {
+            assertNull(reader.readLine());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.iot.ingestion;
+
+import com.iot.ingestion.FlowAggregationTableTest.Row;
+import com.iot.shared.IntermediateSummary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static com.iot.ingestion.FlowAggregationTableTest.actual;
+import static com.iot.ingestion.FlowAggregationTableTest.add;
+import static com.iot.ingestion.FlowAggregationTableTest.assertSameTotals;
+import static com.iot.ingestion.FlowAggregationTableTest.expected;
+import static com.iot.ingestion.FlowAggregationTableTest.table;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpilledRunsTest {
+
+    // Few sources and destinations, mostly dictionary-coded, so that keys repeat across runs
+    private static final String[] IPS = {"2001:db8::1", "2001:db8::2", "fe80::1", "::1", "10.0.0.1",
+            "10.0.0.2", "010.0.0.3", "2001:DB8::1"};
+
+    private static List<Row> overlappingRows(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String timestamp;
+            String date;
+            if (random.nextInt(3) == 0) {
+                // Not a packable shape: normalized by the caller, dictionary-coded
+                timestamp = "3" + random.nextInt(2) + "/02/2024";
+                date = "2024-02-3" + timestamp.charAt(1);
+            } else {
+                date = LocalDate.parse("2024-02-27").plusDays(random.nextInt(3)).toString();
+                timestamp = date + " 08:00:00";
+            }
+            rows.add(new Row(IPS[random.nextInt(IPS.length)], IPS[random.nextInt(IPS.length)], timestamp, date,
+                    random.nextLong(1_000_000), random.nextLong(1_000)));
+        }
+        return rows;
+    }
+
+    private static List<IntermediateSummary> merge(SpilledRuns runs, int maxEntries) {
+        List<IntermediateSummary> merged = new ArrayList<>();
+        Set<String> finished = new HashSet<>();
+        String[] current = {null};
+        long keys = runs.forEachSourceChunk(maxEntries, (srcIp, chunk) -> {
+            assertFalse(chunk.isEmpty());
+            assertTrue(chunk.size() <= maxEntries);
+            assertTrue(chunk.stream().allMatch(s -> s.srcIp().equals(srcIp)));
+            // The chunks of a source come one after the other
+            if (!srcIp.equals(current[0])) {
+                assertTrue(finished.add(srcIp), srcIp);
+                current[0] = srcIp;
+            }
+            merged.addAll(chunk);
+        });
+        assertEquals(merged.size(), keys);
+        return merged;
+    }
+
+    private static void assertNoRunLeft(Path dir) throws IOException {
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void sumsKeysSpilledByManyTables(@TempDir Path dir) throws IOException {
+        List<Row> rows = overlappingRows(20_000, 1);
+
+        List<IntermediateSummary> merged;
+        int spilled = 0;
+        try (SpilledRuns runs = new SpilledRuns(dir, "flows/v6.csv")) {
+            FlowAggregationTable[] tables = new FlowAggregationTable[5];
+            for (int t = 0; t < tables.length; t++) {
+                tables[t] = new FlowAggregationTable(16);
+            }
+            for (int i = 0; i < rows.size(); i++) {
+                FlowAggregationTable table = tables[i % tables.length];
+                add(table, rows.get(i));
+                if (table.size() == 100) {
+                    spilled += table.size();
+                    runs.spill(table);
+                }
+            }
+            for (FlowAggregationTable table : tables) {
+                spilled += table.size();
+                runs.spill(table);
+            }
+            assertTrue(runs.runs() > 10);
+
+            merged = merge(runs, 1_000);
+        }
+
+        // Every key is in several runs, and comes out once with the totals of one table
+        assertTrue(spilled > 3 * merged.size());
+        assertSameTotals(expected(rows), actual(merged));
+        assertSameTotals(expected(rows), actual(table(rows).toSummaries()));
+        assertNoRunLeft(dir);
+    }
+
+    @Test
+    void matchesDictionaryValuesOfDifferentTablesByString(@TempDir Path dir) throws IOException {
+        // Same values interned in opposite orders: the ids of the two tables are swapped
+        List<Row> first = List.of(
+                new Row("fe80::1", "2001:db8::1", "31/02/2024", "2024-02-31", 1, 10),
+                new Row("2001:db8::1", "fe80::1", "30/02/2024", "2024-02-30", 2, 20));
+        List<Row> second = List.of(
+                new Row("2001:db8::1", "fe80::1", "30/02/2024", "2024-02-30", 3, 30),
+                new Row("fe80::1", "2001:db8::1", "31/02/2024", "2024-02-31", 4, 40));
+
+        List<IntermediateSummary> merged;
+        try (SpilledRuns runs = new SpilledRuns(dir, "swapped.csv")) {
+            runs.spill(table(first));
+            runs.spill(table(second));
+            merged = merge(runs, 10);
+        }
+
+        List<Row> both = new ArrayList<>(first);
+        both.addAll(second);
+        assertEquals(2, merged.size());
+        assertSameTotals(expected(both), actual(merged));
+        assertNoRunLeft(dir);
+    }
+
+    @Test
+    void splitsASourceIntoChunksOfMaxEntries(@TempDir Path dir) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rows.add(new Row("2001:db8::1", "2001:db8::" + Integer.toHexString(i + 16), "2024-02-28", "2024-02-28", i, 1));
+            rows.add(new Row("10.0.0.1", "10.0.1." + i, "2024-02-28", "2024-02-28", i, 1));
+        }
+
+        List<Integer> sizes = new ArrayList<>();
+        List<IntermediateSummary> merged = new ArrayList<>();
+        try (SpilledRuns runs = new SpilledRuns(dir, "chunks.csv")) {
+            // Each source spread over three runs
+            runs.spill(table(rows.subList(0, 16)));
+            runs.spill(table(rows.subList(16, 34)));
+            runs.spill(table(rows.subList(34, rows.size())));
+            merged.addAll(merge(runs, 10));
+            runs.forEachSourceChunk(10, (srcIp, chunk) -> sizes.add(chunk.size()));
+        }
+
+        // Packed IPv4 sources come before dictionary ones
+        assertEquals(List.of(10, 10, 5, 10, 10, 5), sizes);
+        assertEquals("10.0.0.1", merged.get(0).srcIp());
+        assertEquals("2001:db8::1", merged.get(merged.size() - 1).srcIp());
+        assertSameTotals(expected(rows), actual(merged));
+    }
+
+    @Test
+    void failsOnATruncatedRun(@TempDir Path dir) throws IOException {
+        try (SpilledRuns runs = new SpilledRuns(dir, "cut.csv")) {
+            runs.spill(table(overlappingRows(500, 2)));
+            runs.spill(table(overlappingRows(500, 3)));
+            Path run;
+            try (Stream<Path> files = Files.list(dir)) {
+                run = files.findFirst().orElseThrow();
+            }
+            // Cut inside the last record
+            try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 5);
+            }
+
+            UncheckedIOException e = assertThrows(UncheckedIOException.class,
+                    () -> runs.forEachSourceChunk(100, (srcIp, chunk) -> {}));
+            assertTrue(e.getMessage().startsWith("Truncated spill run of cut.csv"), e.getMessage());
+        }
+        assertNoRunLeft(dir);
+    }
+}
@@ -0,0 +1,404 @@
+package com.iot.local;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Streams synthetic VARIoT / CICFlowMeter CSVs for load tests (LoadHarness), or
+ * writes them to a directory for the UploadClient:
+ *
+ *   java -cp iot-local.jar com.iot.local.FlowGenerator --out /tmp/flows --files 4 --rows 1000000
+ *
+ * Rows carry Flow ID, Src IP, Src Port, Dst IP, Dst Port, Protocol, Timestamp,
+ * Flow Duration, Tot Fwd Pkts, then `padding` numeric columns and a Label, so that
+ * the parser skips as many bytes as in a real capture (75 padding columns: the 84
+ * columns of CICFlowMeter). Pair i talks from 10.x.y.z (source i / 8) to one of 8
+ * destinations, as in the benchmarks' SyntheticFlows.
+ *
+ * - pairs     : distinct Src-Dst pairs drawn from
+ * - zipf      : skew of the pair popularity (0 = uniform, 1 = classic Zipf: the
+ *               hottest pair gets about 1 / ln(pairs) of the rows)
+ * - days      : consecutive days the timestamps are spread over
+ * - malformed : share of bad rows, half truncated (rejected by the parser), half
+ *               with a non-numeric Flow Duration (read as 0, like the real parser does)
+ *
+ * Output is deterministic for a given seed: file i uses seed + i.
+ */
+public class FlowGenerator {
+
+    /** Generation settings; see the class comment. */
+    public record Options(int files, long rows, int pairs, double zipf, int days, LocalDate firstDay,
+                          double malformed, int padding, long seed) {
+
+        public static Options defaults() {
+            return new Options(4, 250_000, 100_000, 1.0, 30, LocalDate.of(2023, 11, 1), 0.001, 75, 42);
+        }
+    }
+
+    /** Options after one argument, and the index of the last argument read. */
+    public record Parsed(Options options, int last) {}
+
+    /** What was generated: rows by kind, bytes, distinct pairs among the valid rows. */
+    public record Totals(long rows, long truncated, long badNumbers, long bytes, int distinctPairs) {
+
+        /** Rows the parser aggregates (bad numbers included). */
+        public long parseable() {
+            return rows - truncated;
+        }
+    }
+
+    /** Options accepted by parseOption, for usage messages. */
+    public static final String USAGE = "[--files N] [--rows N] [--pairs N] [--zipf S] [--days N] "
+            + "[--first-day yyyy-MM-dd] [--malformed RATE] [--padding N] [--seed N]";
+
+    private static final int DESTINATIONS_PER_SOURCE = 8;
+    private static final String[] FIXED_COLUMNS = {
+            "Flow ID", "Src IP", "Src Port", "Dst IP", "Dst Port", "Protocol", "Timestamp",
+            "Flow Duration", "Tot Fwd Pkts"
+    };
+
+    private final Options options;
+    private final ZipfSampler zipf;
+    private final int stride;
+    private final String header;
+    private final String[] dayPrefixes;
+
+    // Pairs written in parseable rows, over every file of this generator
+    private final BitSet pairsSeen;
+    private long rows;
+    private long truncated;
+    private long badNumbers;
+    private long bytes;
+
+    public FlowGenerator(Options options) {
+        if (options.pairs() < 1 || options.days() < 1 || options.rows() < 0) {
+            throw new IllegalArgumentException("pairs and days must be positive, rows not negative");
+        }
+        this.options = options;
+        this.zipf = options.zipf() > 0 ? new ZipfSampler(options.pairs(), options.zipf()) : null;
+        this.stride = coprimeStride(options.pairs());
+        this.header = header(options.padding());
+        this.dayPrefixes = new String[options.days()];
+        for (int d = 0; d < dayPrefixes.length; d++) {
+            LocalDate day = options.firstDay().plusDays(d);
+            dayPrefixes[d] = String.format(Locale.ROOT, "%02d/%02d/%04d ",
+                    day.getDayOfMonth(), day.getMonthValue(), day.getYear());
+        }
+        this.pairsSeen = new BitSet(options.pairs());
+    }
+
+    public synchronized Totals totals() {
+        return new Totals(rows, truncated, badNumbers, bytes, pairsSeen.cardinality());
+    }
+
+    /** Writes files flows-000.csv ... into dir and returns their paths. */
+    public List<Path> writeFiles(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < options.files(); i++) {
+            Path file = dir.resolve(String.format(Locale.ROOT, "flows-%03d.csv", i));
+            try (OutputStream out = Files.newOutputStream(file)) {
+                write(out, i);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /** Streams file number `index` (header + options.rows() rows) to out, which is left open. */
+    public void write(OutputStream out, int index) throws IOException {
+        SplittableRandom random = new SplittableRandom(options.seed() + index);
+        long fileTruncated = 0;
+        long fileBadNumbers = 0;
+        BitSet filePairs = new BitSet();
+        CountingOutputStream counted = new CountingOutputStream(out);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.US_ASCII), 1 << 16);
+        writer.write(header);
+        writer.write('\n');
+
+        StringBuilder row = new StringBuilder(64 + options.padding() * 8);
+        for (long r = 0; r < options.rows(); r++) {
+            int pair = nextPair(random);
+            boolean bad = options.malformed() > 0 && random.nextDouble() < options.malformed();
+            boolean truncate = bad && random.nextBoolean();
+            row.setLength(0);
+            appendRow(row, random, pair, truncate, bad && !truncate);
+            writer.append(row).append('\n');
+            if (truncate) {
+                fileTruncated++;
+            } else {
+                filePairs.set(pair);
+                if (bad) fileBadNumbers++;
+            }
+        }
+        writer.flush();
+
+        synchronized (this) {
+            rows += options.rows();
+            truncated += fileTruncated;
+            badNumbers += fileBadNumbers;
+            bytes += counted.count;
+            pairsSeen.or(filePairs);
+        }
+    }
+
+    private int nextPair(SplittableRandom random) {
+        int rank = zipf != null ? zipf.sample(random) - 1 : random.nextInt(options.pairs());
+        // Spreads the hot ranks over sources instead of giving them all to the first ones
+        return (int) ((long) rank * stride % options.pairs());
+    }
+
+    private void appendRow(StringBuilder sb, SplittableRandom random, int pair, boolean truncate, boolean badNumber) {
+        int source = pair / DESTINATIONS_PER_SOURCE;
+        int srcPort = 1024 + random.nextInt(60000);
+        int dstPort = random.nextBoolean() ? 443 : 1883;
+        appendSrc(sb, source);
+        sb.append('-');
+        appendDst(sb, pair);
+        sb.append('-').append(srcPort).append('-').append(dstPort).append("-6,");
+        appendSrc(sb, source);
+        if (truncate) {
+            // Cut after Src IP: too few columns
+            return;
+        }
+        sb.append(',').append(srcPort).append(',');
+        appendDst(sb, pair);
+        sb.append(',').append(dstPort).append(",6,");
+
+        // dd/MM/yyyy hh:mm:ss a
+        sb.append(dayPrefixes[random.nextInt(dayPrefixes.length)]);
+        appendTwoDigits(sb, 1 + random.nextInt(12));
+        sb.append(':');
+        appendTwoDigits(sb, random.nextInt(60));
+        sb.append(':');
+        appendTwoDigits(sb, random.nextInt(60));
+        sb.append(random.nextBoolean() ? " AM," : " PM,");
+
+        if (badNumber) {
+            sb.append("NaN,");
+        } else {
+            sb.append(random.nextInt(120_000_000)).append(',');
+        }
+        sb.append(1 + random.nextInt(200));
+        for (int c = 0; c < options.padding(); c++) {
+            sb.append(',');
+            if ((c & 1) == 0) {
+                sb.append(random.nextInt(1500));
+            } else {
+                sb.append(random.nextInt(100_000)).append('.').append(random.nextInt(10));
+            }
+        }
+        sb.append(",Benign");
+    }
+
+    private static void appendSrc(StringBuilder sb, int source) {
+        sb.append("10.").append((source >>> 16) & 0xFF).append('.')
+                .append((source >>> 8) & 0xFF).append('.').append(source & 0xFF);
+    }
+
+    private static void appendDst(StringBuilder sb, int pair) {
+        sb.append("192.168.1.").append(1 + pair % DESTINATIONS_PER_SOURCE);
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static String header(int padding) {
+        StringBuilder sb = new StringBuilder(String.join(",", FIXED_COLUMNS));
+        for (int c = 1; c <= padding; c++) {
+            sb.append(",Pad ").append(c);
+        }
+        return sb.append(",Label").toString();
+    }
+
+    // Multiplying by a stride coprime with n permutes 0..n-1
+    private static int coprimeStride(int n) {
+        long stride = 0x9E3779B1L % n;
+        while (stride <= 1 && n > 2 || gcd(stride, n) != 1) {
+            stride++;
+        }
+        return (int) stride;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Zipf sampler over 1..n by rejection-inversion (Hoermann and Derflinger, 1996):
+     * constant time and memory per draw, whatever n.
+     */
+    private static final class ZipfSampler {
+        private final int n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(int n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) Math.min(n, Math.max(1, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, stable near 0
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, stable near 0
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path out = null;
+        Options options = Options.defaults();
+        for (int i = 0; i < args.length; i++) {
+            if ("--out".equals(args[i]) && i + 1 < args.length) {
+                out = Paths.get(args[++i]);
+                continue;
+            }
+            Parsed parsed = parseOption(args, i, options);
+            if (parsed == null) {
+                out = null;
+                break;
+            }
+            options = parsed.options();
+            i = parsed.last();
+        }
+        if (out == null) {
+            System.out.println("Usage: java -cp iot-local.jar com.iot.local.FlowGenerator --out <dir> " + USAGE);
+            System.exit(1);
+        }
+
+        FlowGenerator generator = new FlowGenerator(options);
+        long start = System.nanoTime();
+        List<Path> files = generator.writeFiles(out);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Totals totals = generator.totals();
+        System.out.printf(Locale.ROOT, "Generated %d files in %s: %d rows (%d truncated, %d bad numbers), "
+                        + "%.1f MB, %d distinct pairs in %.1f s (%.0f rows/s)%n",
+                files.size(), out, totals.rows(), totals.truncated(), totals.badNumbers(),
+                totals.bytes() / 1e6, totals.distinctPairs(), seconds, totals.rows() / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Reads the generator option at args[i] and its value.
+     * Returns null if args[i] is not a generator option or has no value.
+     */
+    public static Parsed parseOption(String[] args, int i, Options o) {
+        if (i + 1 >= args.length) return null;
+        String value = args[i + 1];
+        Options next;
+        switch (args[i]) {
+            case "--files":
+                next = new Options(Integer.parseInt(value), o.rows(), o.pairs(), o.zipf(), o.days(), o.firstDay(),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--rows":
+                next = new Options(o.files(), Long.parseLong(value), o.pairs(), o.zipf(), o.days(), o.firstDay(),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--pairs":
+                next = new Options(o.files(), o.rows(), Integer.parseInt(value), o.zipf(), o.days(), o.firstDay(),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--zipf":
+                next = new Options(o.files(), o.rows(), o.pairs(), Double.parseDouble(value), o.days(), o.firstDay(),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--days":
+                next = new Options(o.files(), o.rows(), o.pairs(), o.zipf(), Integer.parseInt(value), o.firstDay(),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--first-day":
+                next = new Options(o.files(), o.rows(), o.pairs(), o.zipf(), o.days(), LocalDate.parse(value),
+                        o.malformed(), o.padding(), o.seed());
+                break;
+            case "--malformed":
+                next = new Options(o.files(), o.rows(), o.pairs(), o.zipf(), o.days(), o.firstDay(),
+                        Double.parseDouble(value), o.padding(), o.seed());
+                break;
+            case "--padding":
+                next = new Options(o.files(), o.rows(), o.pairs(), o.zipf(), o.days(), o.firstDay(),
+                        o.malformed(), Integer.parseInt(value), o.seed());
+                break;
+            case "--seed":
+                next = new Options(o.files(), o.rows(), o.pairs(), o.zipf(), o.days(), o.firstDay(),
+                        o.malformed(), o.padding(), Long.parseLong(value));
+                break;
+            default:
+                return null;
+        }
+        return new Parsed(next, i + 1);
+    }
+}
@@ -0,0 +1,228 @@
+package com.iot.local;
+
+import com.iot.analytics.ConsolidatorWorker;
+import com.iot.analytics.ExportClient;
+import com.iot.ingestion.SummarizeWorker;
+import com.iot.ingestion.UploadClient;
+import com.iot.shared.Backend;
+import com.iot.shared.ConfigLoader;
+import com.iot.shared.Histogram;
+import com.iot.shared.LocalMessageQueue;
+import com.iot.shared.Metrics;
+import com.iot.shared.StateStore;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test on an in-process S3 / SQS stand-in, for capacity planning:
+ * FlowGenerator -> UploadClient -> SummarizeWorker -> ConsolidatorWorker -> ExportClient.
+ *
+ *   java -cp iot-local.jar com.iot.local.LoadHarness --files 8 --rows 1000000 --pairs 500000 --zipf 1.1
+ *
+ * The files are generated first (not timed), then uploaded upload.concurrency at a
+ * time while both workers run, with the configured pipeline settings. The report
+ * gives, per stage, when it drained and the rows per second up to that point, with
+ * the latency percentiles of its unit of work, then the S3 / SQS call latencies and
+ * the hit ratios (all from Metrics). The row and pair counts of the run are checked
+ * against what was generated: the exit code is 2 on a mismatch.
+ *
+ * --backend memory (default) keeps every object in the heap; --backend local writes
+ * under local.root, for datasets larger than the heap (start from an empty root,
+ * or the exported pairs include those of earlier runs).
+ */
+public class LoadHarness {
+
+    private static final long DRAIN_POLL_MS = 50;
+
+    private static final Histogram UPLOAD = Metrics.histogram("harness.upload");
+
+    public static void main(String[] args) throws Exception {
+        String backendKind = Backend.MEMORY;
+        boolean keep = false;
+        FlowGenerator.Options options = FlowGenerator.Options.defaults();
+        for (int i = 0; i < args.length; i++) {
+            if ("--backend".equals(args[i]) && i + 1 < args.length) {
+                backendKind = args[++i];
+                continue;
+            }
+            if ("--keep".equals(args[i])) {
+                keep = true;
+                continue;
+            }
+            FlowGenerator.Parsed parsed = FlowGenerator.parseOption(args, i, options);
+            if (parsed == null) {
+                usage();
+            }
+            options = parsed.options();
+            i = parsed.last();
+        }
+        if (!Backend.MEMORY.equals(backendKind) && !Backend.LOCAL.equals(backendKind)) {
+            usage();
+        }
+
+        // 1. Dataset, outside the measurements
+        Path dir = Files.createTempDirectory("iot-load-");
+        FlowGenerator generator = new FlowGenerator(options);
+        long generationStart = System.nanoTime();
+        List<Path> files = generator.writeFiles(dir);
+        FlowGenerator.Totals totals = generator.totals();
+        System.out.printf(Locale.ROOT, "Generated %d files, %d rows, %.1f MB in %d ms (%s)%n",
+                files.size(), totals.rows(), totals.bytes() / 1e6,
+                (System.nanoTime() - generationStart) / 1_000_000, dir);
+
+        try {
+            int exitCode = run(backendKind, files, totals, dir.resolve("report.csv"), System.out);
+            if (exitCode != 0) System.exit(exitCode);
+        } finally {
+            if (!keep) deleteRecursively(dir);
+        }
+        System.exit(0);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java -cp iot-local.jar com.iot.local.LoadHarness "
+                + "[--backend memory|local] [--keep] " + FlowGenerator.USAGE);
+        System.exit(1);
+    }
+
+    /** Runs the pipeline over the files and prints the report; returns the exit code. */
+    static int run(String backendKind, List<Path> files, FlowGenerator.Totals totals, Path report,
+                   PrintStream out) throws Exception {
+        Backend local = Backend.LOCAL.equals(backendKind) ? Backend.local() : Backend.memory();
+        LocalMessageQueue queues = (LocalMessageQueue) local.queues();
+        Backend backend = local.metered();
+
+        startDaemon("summarize-worker", () -> new SummarizeWorker(backend).start());
+        startDaemon("consolidator-worker", () -> new ConsolidatorWorker(backend).start());
+
+        // 2. Upload, upload.concurrency files at a time
+        long start = System.nanoTime();
+        ExecutorService uploads = Executors.newFixedThreadPool(ConfigLoader.getUploadConcurrency());
+        List<Future<?>> sent = new ArrayList<>();
+        for (Path file : files) {
+            sent.add(uploads.submit(() -> {
+                long fileStart = System.nanoTime();
+                UploadClient.upload(backend.objects(), file);
+                UPLOAD.recordSince(fileStart);
+                return null;
+            }));
+        }
+        for (Future<?> upload : sent) {
+            upload.get();
+        }
+        uploads.shutdown();
+        long uploaded = System.nanoTime() - start;
+
+        // 3. Drain: summarize first (its notifications are sent before its message is
+        // deleted), then consolidate (acknowledged once the states are saved)
+        String summarizeQueue = ConfigLoader.getQueueSummarize();
+        String consolidateQueue = ConfigLoader.getQueueConsolidate();
+        while (queues.pending(summarizeQueue) > 0) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+        long summarized = System.nanoTime() - start;
+        while (queues.pending(summarizeQueue) > 0 || queues.pending(consolidateQueue) > 0) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+        long consolidated = System.nanoTime() - start;
+
+        // 4. Report
+        long exportStart = System.nanoTime();
+        long exported = ExportClient.export(StateStore.fromConfig(local.objects()), report.toString());
+        long exportNanos = System.nanoTime() - exportStart;
+
+        return printReport(out, totals, exported, uploaded, summarized, consolidated, exportNanos);
+    }
+
+    private static int printReport(PrintStream out, FlowGenerator.Totals totals, long exported, long uploaded,
+                                   long summarized, long consolidated, long exportNanos) {
+        Map<String, Number> m = Metrics.snapshot();
+        out.println();
+        out.printf(Locale.ROOT, "%-12s %10s %12s  %-22s %9s %9s %9s %9s%n",
+                "Stage", "Done (ms)", "Rows/s", "Latency of", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        stage(out, m, "upload", uploaded, totals.rows(), "file", "harness.upload", 1e3);
+        stage(out, m, "summarize", summarized, totals.rows(), "file", "summarize.file", 1e3);
+        stage(out, m, "consolidate", consolidated, totals.rows(), "notification -> ack", "consolidate.lag_ms", 1);
+        stage(out, m, "", -1, 0, "batch", "consolidate.batch", 1e3);
+        stage(out, m, "", -1, 0, "flush", "consolidate.flush", 1e3);
+        out.printf(Locale.ROOT, "%-12s %10d %12.0f  %-22s%n", "export", exportNanos / 1_000_000,
+                exported * 1e9 / Math.max(1, exportNanos), "(pairs/s)");
+
+        out.println();
+        out.printf(Locale.ROOT, "%-22s %10s %9s %9s %9s %9s%n", "Call", "Count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (String call : List.of("s3.get", "s3.put", "s3.delete", "s3.list",
+                "sqs.receive", "sqs.send", "sqs.delete", "sqs.visibility")) {
+            out.printf(Locale.ROOT, "%-22s %10d %9.2f %9.2f %9.2f %9.2f%n", call, m.get(call + ".count").longValue(),
+                    millis(m, call + ".p50", 1e3), millis(m, call + ".p90", 1e3),
+                    millis(m, call + ".p99", 1e3), millis(m, call + ".max", 1e3));
+        }
+
+        out.println();
+        out.printf(Locale.ROOT, "Distinct keys per file: p50 %d, max %d%n",
+                m.get("summarize.file.distinct_keys.p50").longValue(),
+                m.get("summarize.file.distinct_keys.max").longValue());
+        out.printf(Locale.ROOT, "Hit ratios: write-back cache %.3f, ETag %.3f, receive fill %.3f; %d conditional write conflicts%n",
+                m.getOrDefault("consolidate.cache.hit_ratio", 0.0).doubleValue(),
+                m.getOrDefault("update.etag_hit_ratio", 0.0).doubleValue(),
+                m.getOrDefault("sqs.receive.fill_ratio", 0.0).doubleValue(),
+                m.getOrDefault("s3.put.conflicts.count", 0L).longValue());
+        out.printf(Locale.ROOT, "End to end: %d rows in %d ms, %.0f rows/s%n", totals.rows(),
+                consolidated / 1_000_000, totals.rows() * 1e9 / Math.max(1, consolidated));
+
+        // Checks: every generated row accounted for, one report line per generated pair
+        long parsed = m.getOrDefault("summarize.rows.parsed.count", 0L).longValue();
+        long rejected = m.getOrDefault("summarize.rows.rejected.incomplete.count", 0L).longValue()
+                + m.getOrDefault("summarize.rows.rejected.invalid.count", 0L).longValue()
+                + m.getOrDefault("summarize.rows.rejected.oversized.count", 0L).longValue();
+        boolean ok = check(out, "rows parsed", totals.parseable(), parsed)
+                & check(out, "rows rejected", totals.truncated(), rejected)
+                & check(out, "pairs exported", totals.distinctPairs(), exported);
+        return ok ? 0 : 2;
+    }
+
+    private static void stage(PrintStream out, Map<String, Number> m, String name, long doneNanos, long rows,
+                              String unit, String histogram, double perMilli) {
+        String done = doneNanos >= 0 ? String.valueOf(doneNanos / 1_000_000) : "";
+        String rate = doneNanos >= 0 ? String.format(Locale.ROOT, "%.0f", rows * 1e9 / Math.max(1, doneNanos)) : "";
+        out.printf(Locale.ROOT, "%-12s %10s %12s  %-22s %9.2f %9.2f %9.2f %9.2f%n", name, done, rate, unit,
+                millis(m, histogram + ".p50", perMilli), millis(m, histogram + ".p90", perMilli),
+                millis(m, histogram + ".p99", perMilli), millis(m, histogram + ".max", perMilli));
+    }
+
+    private static double millis(Map<String, Number> m, String name, double perMilli) {
+        Number value = m.get(name);
+        return value == null ? 0 : value.doubleValue() / perMilli;
+    }
+
+    private static boolean check(PrintStream out, String what, long expected, long actual) {
+        boolean ok = expected == actual;
+        out.printf(Locale.ROOT, "Check %-15s expected %d, got %d: %s%n", what, expected, actual, ok ? "OK" : "MISMATCH");
+        return ok;
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.iot.local;
+
+import com.iot.analytics.ConsolidatorWorker;
+import com.iot.analytics.ExportClient;
+import com.iot.ingestion.SummarizeWorker;
+import com.iot.ingestion.UploadClient;
+import com.iot.shared.Backend;
+import com.iot.shared.ConfigLoader;
+import com.iot.shared.LocalMessageQueue;
+import com.iot.shared.StateStore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the whole pipeline in one JVM on the local backend (no AWS):
+ * upload -> SummarizeWorker -> ConsolidatorWorker -> ExportClient.
+ *
+ * Buckets are directories under local.root, queues are in-process. The states
+ * persist in local.root between runs, like the State bucket.
+ */
+public class LocalPipeline {
+
+    private static final long DRAIN_POLL_MS = 200;
+
+    public static void main(String[] args) throws Exception {
+        String output = "report.csv";
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        // Files, directories or globs, as for the UploadClient
+        List<Path> files = UploadClient.resolveInputs(inputs);
+        if (files.isEmpty()) {
+            System.out.println("Usage: java -jar iot-local.jar [-o report.csv] <file.csv|directory|glob>...");
+            System.exit(1);
+        }
+
+        Backend local = Backend.local();
+        LocalMessageQueue queues = (LocalMessageQueue) local.queues();
+        Backend backend = local.metered();
+        long start = System.currentTimeMillis();
+
+        // 1. Workers poll the in-process queues
+        startDaemon("summarize-worker", () -> new SummarizeWorker(backend).start());
+        startDaemon("consolidator-worker", () -> new ConsolidatorWorker(backend).start());
+
+        // 2. Upload: each file lands in the Raw bucket and notifies queue-summarize
+        for (Path file : files) {
+            String key = UploadClient.upload(backend.objects(), file);
+            System.out.println("Uploaded " + file + " as " + key);
+        }
+
+        // 3. Wait until both queues are empty. SummarizeWorker sends its notifications
+        // before deleting its message, and the consolidator acknowledges only saved states.
+        String summarizeQueue = ConfigLoader.getQueueSummarize();
+        String consolidateQueue = ConfigLoader.getQueueConsolidate();
+        while (queues.pending(summarizeQueue) > 0 || queues.pending(consolidateQueue) > 0) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+        System.out.println("Pipeline drained in " + (System.currentTimeMillis() - start) + " ms");
+
+        // 4. Report
+        ExportClient.export(StateStore.fromConfig(backend.objects()), output);
+        System.exit(0);
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
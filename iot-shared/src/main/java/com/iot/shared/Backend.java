@@ -0,0 +1,120 @@
+package com.iot.shared;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Object store + message queues used by the workers and clients (config backend):
+ * - "aws": S3 and SQS
+ * - "local": LocalObjectStore under local.root and in-process LocalMessageQueue.
+ *   Writes to the Raw bucket notify queue-summarize, as the S3 event
+ *   notification does on AWS.
+ * - "memory": same as "local" with a MemoryObjectStore, for tests and load harnesses.
+ *
+ * fromConfig() returns one instance per JVM: local queues only exist in memory,
+ * so every component of the process must share them. Its calls are timed in
+ * Metrics (MeteredObjectStore, MeteredMessageQueue).
+ */
+public final class Backend {
+
+    public static final String AWS = "aws";
+    public static final String LOCAL = "local";
+    public static final String MEMORY = "memory";
+
+    private static Backend shared;
+
+    private final ObjectStore objects;
+    private final MessageQueue queues;
+
+    public Backend(ObjectStore objects, MessageQueue queues) {
+        this.objects = objects;
+        this.queues = queues;
+    }
+
+    public ObjectStore objects() {
+        return objects;
+    }
+
+    public MessageQueue queues() {
+        return queues;
+    }
+
+    public static synchronized Backend fromConfig() {
+        if (shared == null) {
+            shared = create(ConfigLoader.getBackend());
+        }
+        return shared;
+    }
+
+    /** Backend of the given kind, metered. */
+    public static Backend create(String kind) {
+        switch (kind) {
+            case AWS:
+                return aws().metered();
+            case LOCAL:
+                return local().metered();
+            case MEMORY:
+                return memory().metered();
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + kind);
+        }
+    }
+
+    /** Same store and queues, with every call timed in Metrics (s3.* and sqs.*). */
+    public Backend metered() {
+        return new Backend(new MeteredObjectStore(objects), new MeteredMessageQueue(queues));
+    }
+
+    public static Backend aws() {
+        Region region = Region.of(ConfigLoader.getAwsRegion());
+        return new Backend(
+                new S3ObjectStore(S3Client.builder().region(region).build(), ConfigLoader.getUploadPartSizeBytes(),
+                        ConfigLoader.getUploadMultipartThresholdBytes(), ConfigLoader.getUploadPartConcurrency()),
+                new SqsMessageQueue(SqsClient.builder().region(region).build()));
+    }
+
+    public static Backend local() {
+        LocalMessageQueue queues = localQueues();
+        return new Backend(new LocalObjectStore(Paths.get(ConfigLoader.getLocalRoot()),
+                ConfigLoader.isLocalMmap(), rawNotifier(queues)), queues);
+    }
+
+    public static Backend memory() {
+        LocalMessageQueue queues = localQueues();
+        return new Backend(new MemoryObjectStore(rawNotifier(queues)), queues);
+    }
+
+    private static LocalMessageQueue localQueues() {
+        return new LocalMessageQueue(ConfigLoader.getLocalQueueCapacity(),
+                ConfigLoader.getLocalVisibilityTimeoutSeconds(), ConfigLoader.getLocalMaxReceives());
+    }
+
+    private static LocalObjectStore.Listener rawNotifier(LocalMessageQueue queues) {
+        String rawBucket = ConfigLoader.getBucketRaw();
+        String summarizeQueue = ConfigLoader.getQueueSummarize();
+        return (bucket, key, size) -> {
+            if (bucket.equals(rawBucket)) {
+                queues.send(summarizeQueue, List.of(OutgoingMessage.standard(objectCreatedEvent(bucket, key, size))));
+            }
+        };
+    }
+
+    // Minimal S3 event notification, as parsed by SummarizeWorker (keys are URL-encoded)
+    private static String objectCreatedEvent(String bucket, String key, long size) {
+        Map<String, Object> object = Map.of(
+                "key", URLEncoder.encode(key, StandardCharsets.UTF_8),
+                "size", size);
+        Map<String, Object> record = Map.of(
+                "eventSource", "aws:s3",
+                "eventName", "ObjectCreated:Put",
+                "s3", Map.of("bucket", Map.of("name", bucket), "object", object));
+        return JsonUtils.toJson(Map.of("Records", List.of(record)));
+    }
+}
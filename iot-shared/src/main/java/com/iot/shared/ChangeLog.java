@@ -0,0 +1,90 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consolidation change log, under changes/ in bucket-state.
+ *
+ * Every flush of the ConsolidatorWorker writes one object listing the states it
+ * has just saved, with their full statistics. Keys start with the write time
+ * (changes/&lt;epoch ms&gt;-&lt;uuid&gt;), so a listing after a given key returns the
+ * changes since that time, and a delta report only reads what changed.
+ *
+ * A pair may appear in several objects: the state with the highest count is the
+ * newest one, since count only grows. Reading a change twice is therefore harmless.
+ */
+public class ChangeLog {
+
+    public static final String PREFIX = "changes/";
+
+    /** Content of one change log object. */
+    public record ChangeSet(
+            @JsonProperty("created_at") long createdAt,
+            @JsonProperty("states") List<TrafficState> states
+    ) {}
+
+    private final ObjectStore objects;
+    private final String bucket;
+
+    public ChangeLog(ObjectStore objects, String bucket) {
+        this.objects = objects;
+        this.bucket = bucket;
+    }
+
+    public static ChangeLog fromConfig(ObjectStore objects) {
+        return new ChangeLog(objects, ConfigLoader.getBucketState());
+    }
+
+    /** Key of a change log written at the given time; also the cursor for "changes after". */
+    public static String keyAt(long timeMs) {
+        return String.format("%s%013d", PREFIX, timeMs);
+    }
+
+    /**
+     * Records states that have just been saved. Nothing is kept on failure: the
+     * exception reaches the caller, which must then leave the messages behind these
+     * states unacknowledged. Their redelivery is skipped by the ledger of the store
+     * but returns the same states, which are appended again.
+     */
+    public void append(Collection<TrafficState> saved) {
+        if (saved.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        String key = keyAt(now) + "-" + UUID.randomUUID() + JsonUtils.extension();
+        objects.write(bucket, key, JsonUtils.toBytes(new ChangeSet(now, new ArrayList<>(saved))));
+    }
+
+    /**
+     * Newest state of every pair changed after the given time, reading up to
+     * `parallelism` change log objects concurrently.
+     */
+    public Map<PairKey, TrafficState> changesSince(long sinceMs, int parallelism) {
+        Map<PairKey, TrafficState> changes = new ConcurrentHashMap<>();
+        ObjectScanner.scan(objects, bucket, PREFIX, keyAt(sinceMs), parallelism,
+                in -> JsonUtils.fromJson(in, ChangeSet.class).states(),
+                state -> newest(changes, state));
+        return changes;
+    }
+
+    /** Deletes the change log objects written before the given time; returns how many. */
+    public int prune(long beforeMs) {
+        String cutoff = keyAt(beforeMs);
+        List<String> expired = new ArrayList<>();
+        for (StoredObject obj : objects.list(bucket, PREFIX)) {
+            if (obj.key().compareTo(cutoff) >= 0) break;
+            expired.add(obj.key());
+        }
+        objects.delete(bucket, expired);
+        return expired.size();
+    }
+
+    private static void newest(Map<PairKey, TrafficState> states, TrafficState state) {
+        states.merge(PairKey.of(state), state, (a, b) -> a.count() >= b.count() ? a : b);
+    }
+}
@@ -0,0 +1,115 @@
+package com.iot.shared;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of raw CSV objects (config upload.compression): "none", "gzip" or "zstd".
+ *
+ * The encoding is carried by the key suffix (.gz / .zst). Keys without a known
+ * suffix are sniffed from their magic bytes, so a file compressed by another tool
+ * and uploaded as plain .csv is still read correctly, as long as it stays under the
+ * split threshold (byte ranges are only taken from keys without a compression suffix).
+ */
+public final class Compression {
+
+    public static final String NONE = "none";
+    public static final String GZIP = "gzip";
+    public static final String ZSTD = "zstd";
+
+    // Codec buffers: large enough that the parser reads whole chunks per call
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ZSTD_LEVEL = 3;
+
+    private static final int GZIP_MAGIC_0 = 0x1f;
+    private static final int GZIP_MAGIC_1 = 0x8b;
+    private static final int[] ZSTD_MAGIC = {0x28, 0xb5, 0x2f, 0xfd};
+
+    private Compression() {
+    }
+
+    public static String suffix(String compression) {
+        switch (compression) {
+            case NONE:
+                return "";
+            case GZIP:
+                return ".gz";
+            case ZSTD:
+                return ".zst";
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /** Encoding given by the key suffix; NONE when the suffix is not a compression one. */
+    public static String fromKey(String key) {
+        String lower = key.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".gz") || lower.endsWith(".gzip")) return GZIP;
+        if (lower.endsWith(".zst") || lower.endsWith(".zstd")) return ZSTD;
+        return NONE;
+    }
+
+    /** Wraps a stream so that what is written to it is compressed; closing it closes out. */
+    public static OutputStream compress(String compression, OutputStream out) throws IOException {
+        switch (compression) {
+            case NONE:
+                return out;
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStreamNoFinalizer(out, ZSTD_LEVEL);
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /** Decompresses on the fly; nothing is buffered beyond the codec window. */
+    public static InputStream decompress(String compression, InputStream in) throws IOException {
+        switch (compression) {
+            case NONE:
+                return in;
+            case GZIP:
+                // Also reads concatenated members (pigz, split-and-cat files)
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStreamNoFinalizer(in);
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /**
+     * Decoded content of an object: by key suffix, else by magic bytes.
+     */
+    public static InputStream decoding(String key, InputStream in) throws IOException {
+        String compression = fromKey(key);
+        if (!NONE.equals(compression)) {
+            return decompress(compression, in);
+        }
+        PushbackInputStream pushback = new PushbackInputStream(in, ZSTD_MAGIC.length);
+        byte[] head = pushback.readNBytes(ZSTD_MAGIC.length);
+        pushback.unread(head);
+        return decompress(sniff(head), pushback);
+    }
+
+    private static String sniff(byte[] head) {
+        if (head.length >= 2 && (head[0] & 0xFF) == GZIP_MAGIC_0 && (head[1] & 0xFF) == GZIP_MAGIC_1) {
+            return GZIP;
+        }
+        if (head.length >= ZSTD_MAGIC.length) {
+            for (int i = 0; i < ZSTD_MAGIC.length; i++) {
+                if ((head[i] & 0xFF) != ZSTD_MAGIC[i]) return NONE;
+            }
+            return ZSTD;
+        }
+        return NONE;
+    }
+}
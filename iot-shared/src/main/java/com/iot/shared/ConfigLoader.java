@@ -14,6 +14,7 @@ public class ConfigLoader {
 
     static {
         loadConfig();
+        validateChoices();
     }
 
     private static void loadConfig() {
@@ -32,6 +33,17 @@ public class ConfigLoader {
         }
     }
 
+    /**
+     * Rejects an unknown value of a multiple-choice setting at startup, rather than
+     * when a worker first writes or reads with it.
+     */
+    private static void validateChoices() {
+        getBackend();
+        getWireFormat();
+        getStateLayout();
+        getUploadCompression();
+    }
+
     /**
      * Get a configuration value. Priority: Environment Variable > config.properties > default value
      */
@@ -54,6 +66,58 @@ public class ConfigLoader {
         return value;
     }
 
+    /**
+     * Get an integer configuration value, or the default if absent.
+     */
+    private static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Valeur entière invalide pour " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Get a value that must be one of the allowed ones. Throws exception otherwise.
+     */
+    private static String getChoice(String key, String defaultValue, String... allowed) {
+        String value = get(key, defaultValue).trim();
+        for (String choice : allowed) {
+            if (choice.equals(value)) return value;
+        }
+        throw new IllegalStateException("Valeur invalide pour " + key + ": " + value
+                + " (valeurs possibles : " + String.join(", ", allowed) + ")");
+    }
+
+    // Backend: "aws" (S3 + SQS), "local" (directory + in-process queues) or "memory"
+    public static String getBackend() {
+        return getChoice("backend", Backend.AWS, Backend.AWS, Backend.LOCAL, Backend.MEMORY);
+    }
+
+    public static String getLocalRoot() {
+        return get("local.root", "local-data");
+    }
+
+    public static boolean isLocalMmap() {
+        return Boolean.parseBoolean(get("local.mmap", "false").trim());
+    }
+
+    public static int getLocalQueueCapacity() {
+        return Math.max(1, getInt("local.queue.capacity", 10000));
+    }
+
+    public static int getLocalVisibilityTimeoutSeconds() {
+        return Math.max(1, getInt("local.visibility.timeout.s", 30));
+    }
+
+    public static int getLocalMaxReceives() {
+        return Math.max(1, getInt("local.max.receives", 5));
+    }
+
     // AWS Region
     public static String getAwsRegion() {
         return get("aws.region", "us-east-1");
@@ -81,15 +145,261 @@ public class ConfigLoader {
         return getRequired("queue.consolidate");
     }
 
+    // Format of interim summaries and pair states: "json" or "smile" (binary)
+    public static String getWireFormat() {
+        return getChoice("wire.format", JsonUtils.FORMAT_JSON, JsonUtils.FORMAT_JSON, JsonUtils.FORMAT_SMILE);
+    }
+
+    // State storage layout: "pair" (one JSON per pair) or "segment" (packed segments)
+    public static String getStateLayout() {
+        return getChoice("state.layout", StateStore.LAYOUT_PAIR, StateStore.LAYOUT_PAIR, StateStore.LAYOUT_SEGMENT);
+    }
+
+    public static int getStateSegments() {
+        return Math.max(1, getInt("state.segments", 1024));
+    }
+
+    // Conditional writes of states and rollups: attempts on conflict, then jittered
+    // exponential backoff between attempts (base and ceiling)
+    public static int getStateUpdateMaxAttempts() {
+        return Math.max(1, getInt("state.update.max.attempts", 8));
+    }
+
+    public static long getStateUpdateBackoffMs() {
+        return Math.max(0, getInt("state.update.backoff.ms", 20));
+    }
+
+    public static long getStateUpdateMaxBackoffMs() {
+        return Math.max(0, getInt("state.update.backoff.max.ms", 2000));
+    }
+
+    // Ledger of applied summaries kept in each state / segment / rollup object: exact
+    // hashes of the recent keys, then Bloom generations of `capacity` keys each
+    public static int getLedgerRecentSize() {
+        return Math.max(1, getInt("ledger.recent.size", 32));
+    }
+
+    public static int getLedgerBloomCapacity() {
+        return Math.max(1, getInt("ledger.bloom.capacity", 256));
+    }
+
+    public static int getLedgerBloomBitsPerKey() {
+        return Math.min(64, Math.max(8, getInt("ledger.bloom.bits.per.key", 32)));
+    }
+
+    // How long an applied summary stays recognized: above the longest time a message
+    // can come back (default: the default retention of an SQS queue, 4 days)
+    public static long getLedgerWindowMillis() {
+        return Math.max(1, getInt("ledger.window.hours", 96)) * 3_600_000L;
+    }
+
+    // Change log of the consolidation (changes/ in bucket-state), read by delta exports
+    public static boolean isChangeLogEnabled() {
+        return Boolean.parseBoolean(get("changelog.enabled", "true"));
+    }
+
+    public static int getChangeLogRetentionDays() {
+        return Math.max(1, getInt("changelog.retention.days", 7));
+    }
+
+    // Day / week / month rollups per pair (rollups/ in bucket-state), read by RollupQuery
+    public static boolean isRollupEnabled() {
+        return Boolean.parseBoolean(get("rollup.enabled", "true"));
+    }
+
+    // Sketches published by the Summarize Worker (top pairs, distinct destinations per source)
+    public static boolean isSketchEnabled() {
+        return Boolean.parseBoolean(get("sketch.enabled", "true"));
+    }
+
+    public static int getSketchTopCapacity() {
+        return Math.max(1, getInt("sketch.top.capacity", 1000));
+    }
+
+    public static int getSketchHllPrecision() {
+        return Math.min(HyperLogLog.MAX_PRECISION, Math.max(HyperLogLog.MIN_PRECISION, getInt("sketch.hll.precision", 11)));
+    }
+
+    public static int getSketchMaxSources() {
+        return Math.max(1, getInt("sketch.max.sources", 1000));
+    }
+
+    // Summarize Worker
+    public static int getSummarizeParallelism() {
+        return Math.max(1, getInt("summarize.parallelism", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static long getSummarizeSplitThresholdBytes() {
+        return getInt("summarize.split.threshold.mb", 256) * 1024L * 1024L;
+    }
+
+    // Pipeline of the Summarize Worker: messages held at once, threads per stage,
+    // capacity of the queues between stages, visibility heartbeat
+    public static int getSummarizeMaxInFlight() {
+        return Math.max(1, getInt("summarize.max.in.flight", 8));
+    }
+
+    public static int getSummarizeDownloadConcurrency() {
+        return Math.max(1, getInt("summarize.download.concurrency", 2));
+    }
+
+    public static int getSummarizeParseConcurrency() {
+        return Math.max(1, getInt("summarize.parse.concurrency", 2));
+    }
+
+    public static int getSummarizeUploadConcurrency() {
+        return Math.max(1, getInt("summarize.upload.concurrency", 2));
+    }
+
+    public static int getSummarizeStageQueueCapacity() {
+        return Math.max(1, getInt("summarize.stage.queue.capacity", 2));
+    }
+
+    public static int getSummarizeVisibilityTimeoutSeconds() {
+        return Math.max(1, getInt("summarize.visibility.timeout.s", 120));
+    }
+
+    public static int getSummarizeHeartbeatIntervalSeconds() {
+        return Math.max(1, getInt("summarize.heartbeat.interval.s", 20));
+    }
+
+    public static int getSummarizeBatchMaxEntries() {
+        return Math.max(1, getInt("summarize.batch.max.entries", 5000));
+    }
+
+    // Heap shared by the aggregation tables of a Summarize Worker; a full table is
+    // spilled to summarize.spill.dir as a sorted run, merged at the end of its file
+    public static long getSummarizeMemoryBudgetBytes() {
+        return Math.max(16, getInt("summarize.memory.budget.mb", 512)) * 1024L * 1024L;
+    }
+
+    public static String getSummarizeSpillDir() {
+        return get("summarize.spill.dir", System.getProperty("java.io.tmpdir"));
+    }
+
+    // Consolidator Worker
+    public static int getConsolidateBatchSize() {
+        // SQS returns at most 10 messages per receive
+        return Math.min(10, Math.max(1, getInt("consolidate.batch.size", 10)));
+    }
+
+    public static int getConsolidateWorkers() {
+        return Math.max(1, getInt("consolidate.workers", 4));
+    }
+
+    public static int getConsolidateCacheMaxEntries() {
+        return Math.max(0, getInt("consolidate.cache.max.entries", 50000));
+    }
+
+    public static long getConsolidateFlushIntervalMs() {
+        return Math.max(0, getInt("consolidate.cache.flush.interval.ms", 2000));
+    }
+
+    // Upload Client: compression of raw CSVs ("none", "gzip" or "zstd")
+    public static String getUploadCompression() {
+        return getChoice("upload.compression", Compression.NONE, Compression.NONE, Compression.GZIP, Compression.ZSTD);
+    }
+
+    public static int getUploadConcurrency() {
+        return Math.max(1, getInt("upload.concurrency", 4));
+    }
+
+    // Files at or above this size are sent as parallel multipart uploads
+    public static long getUploadMultipartThresholdBytes() {
+        return getInt("upload.multipart.threshold.mb", 64) * 1024L * 1024L;
+    }
+
+    public static int getUploadPartSizeBytes() {
+        // S3 rejects parts under 5 MB (except the last one)
+        return Math.max(5, getInt("upload.part.size.mb", 16)) * 1024 * 1024;
+    }
+
+    public static int getUploadPartConcurrency() {
+        return Math.max(1, getInt("upload.part.concurrency", 8));
+    }
+
+    public static String getUploadJournalDir() {
+        return get("upload.journal.dir", ".upload-journal");
+    }
+
+    // Export Client
+    public static int getExportParallelism() {
+        return Math.max(1, getInt("export.parallelism", 32));
+    }
+
+    // Metrics (MetricsExporter): JMX MBean, HTTP endpoint (port 0 = off)
+    public static boolean isMetricsJmxEnabled() {
+        return Boolean.parseBoolean(get("metrics.jmx.enabled", "true"));
+    }
+
+    public static int getMetricsHttpPort() {
+        return Math.max(0, getInt("metrics.http.port", 0));
+    }
+
+    public static String getMetricsHttpHost() {
+        return get("metrics.http.host", "127.0.0.1");
+    }
+
     // Utility method to display all loaded config (for debugging)
     public static void printConfig() {
         System.out.println("=== Configuration IoT ===");
+        System.out.println("Backend: " + getBackend());
+        if (Backend.LOCAL.equals(getBackend())) {
+            System.out.println("Local Root: " + getLocalRoot());
+            System.out.println("Local Mmap: " + isLocalMmap());
+            System.out.println("Local Queue Capacity: " + getLocalQueueCapacity());
+            System.out.println("Local Visibility Timeout (s): " + getLocalVisibilityTimeoutSeconds());
+            System.out.println("Local Max Receives: " + getLocalMaxReceives());
+        }
         System.out.println("AWS Region: " + getAwsRegion());
         System.out.println("Bucket Raw: " + getBucketRaw());
         System.out.println("Bucket Interim: " + getBucketInterim());
         System.out.println("Bucket State: " + getBucketState());
         System.out.println("Queue Summarize: " + getQueueSummarize());
         System.out.println("Queue Consolidate: " + getQueueConsolidate());
+        System.out.println("Wire Format: " + getWireFormat());
+        System.out.println("State Layout: " + getStateLayout());
+        System.out.println("State Segments: " + getStateSegments());
+        System.out.println("State Update Max Attempts: " + getStateUpdateMaxAttempts());
+        System.out.println("State Update Backoff (ms): " + getStateUpdateBackoffMs());
+        System.out.println("State Update Max Backoff (ms): " + getStateUpdateMaxBackoffMs());
+        System.out.println("Ledger Recent Size: " + getLedgerRecentSize());
+        System.out.println("Ledger Bloom Capacity: " + getLedgerBloomCapacity());
+        System.out.println("Ledger Bloom Bits Per Key: " + getLedgerBloomBitsPerKey());
+        System.out.println("Ledger Window (ms): " + getLedgerWindowMillis());
+        System.out.println("Change Log Enabled: " + isChangeLogEnabled());
+        System.out.println("Change Log Retention (days): " + getChangeLogRetentionDays());
+        System.out.println("Rollup Enabled: " + isRollupEnabled());
+        System.out.println("Sketch Enabled: " + isSketchEnabled());
+        System.out.println("Sketch Top Capacity: " + getSketchTopCapacity());
+        System.out.println("Sketch HLL Precision: " + getSketchHllPrecision());
+        System.out.println("Sketch Max Sources: " + getSketchMaxSources());
+        System.out.println("Summarize Parallelism: " + getSummarizeParallelism());
+        System.out.println("Summarize Split Threshold (bytes): " + getSummarizeSplitThresholdBytes());
+        System.out.println("Summarize Batch Max Entries: " + getSummarizeBatchMaxEntries());
+        System.out.println("Summarize Memory Budget (bytes): " + getSummarizeMemoryBudgetBytes());
+        System.out.println("Summarize Spill Dir: " + getSummarizeSpillDir());
+        System.out.println("Summarize Max In Flight: " + getSummarizeMaxInFlight());
+        System.out.println("Summarize Download Concurrency: " + getSummarizeDownloadConcurrency());
+        System.out.println("Summarize Parse Concurrency: " + getSummarizeParseConcurrency());
+        System.out.println("Summarize Upload Concurrency: " + getSummarizeUploadConcurrency());
+        System.out.println("Summarize Stage Queue Capacity: " + getSummarizeStageQueueCapacity());
+        System.out.println("Summarize Visibility Timeout (s): " + getSummarizeVisibilityTimeoutSeconds());
+        System.out.println("Summarize Heartbeat Interval (s): " + getSummarizeHeartbeatIntervalSeconds());
+        System.out.println("Consolidate Batch Size: " + getConsolidateBatchSize());
+        System.out.println("Consolidate Workers: " + getConsolidateWorkers());
+        System.out.println("Consolidate Cache Max Entries: " + getConsolidateCacheMaxEntries());
+        System.out.println("Consolidate Flush Interval (ms): " + getConsolidateFlushIntervalMs());
+        System.out.println("Upload Compression: " + getUploadCompression());
+        System.out.println("Upload Concurrency: " + getUploadConcurrency());
+        System.out.println("Upload Multipart Threshold (bytes): " + getUploadMultipartThresholdBytes());
+        System.out.println("Upload Part Size (bytes): " + getUploadPartSizeBytes());
+        System.out.println("Upload Part Concurrency: " + getUploadPartConcurrency());
+        System.out.println("Upload Journal Dir: " + getUploadJournalDir());
+        System.out.println("Export Parallelism: " + getExportParallelism());
+        System.out.println("Metrics JMX Enabled: " + isMetricsJmxEnabled());
+        System.out.println("Metrics HTTP Port: " + getMetricsHttpPort());
+        System.out.println("Metrics HTTP Host: " + getMetricsHttpHost());
         System.out.println("========================");
     }
 }
@@ -0,0 +1,93 @@
+package com.iot.shared;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values (latencies in microseconds, keys per file...),
+ * registered with {@link Metrics#histogram(String)}.
+ *
+ * Log-linear buckets: 8 per power of two, so a percentile is reported within 12.5%
+ * of the true value whatever the magnitude, in a fixed 4 KB array. Recording is one
+ * atomic increment plus an adder, and never allocates.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /** Records the time elapsed since startNanos (System.nanoTime()), in microseconds. */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000);
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that falls in the bucket
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        if (exponent == 63) return Long.MAX_VALUE;
+        long sub = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Adds count, mean, p50 / p90 / p99 and max under prefix + "." to the snapshot.
+     * Buckets are read one by one while writers go on: the figures may be off by
+     * the few values recorded meanwhile.
+     */
+    void snapshot(String prefix, Map<String, Number> into) {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long highest = max.get();
+        into.put(prefix + ".count", total);
+        into.put(prefix + ".mean", total == 0 ? 0.0 : (double) sum.sum() / total);
+        into.put(prefix + ".p50", percentile(copy, total, 0.50, highest));
+        into.put(prefix + ".p90", percentile(copy, total, 0.90, highest));
+        into.put(prefix + ".p99", percentile(copy, total, 0.99, highest));
+        into.put(prefix + ".max", highest);
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long highest) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), highest);
+            }
+        }
+        return highest;
+    }
+}
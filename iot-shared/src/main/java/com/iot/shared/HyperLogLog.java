@@ -0,0 +1,144 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct counter (Flajolet et al.) over 2^p one-byte registers:
+ * standard error about 1.04 / sqrt(2^p), 2.3% with p = 11.
+ *
+ * Sketches of the same precision merge exactly (register-wise max), so per-file
+ * sketches can be combined in any order. Serialized sparse (index, value triplets)
+ * while few registers are set, dense afterwards; Jackson writes the bytes as base64
+ * in JSON and raw in Smile.
+ * Immutable once built: merge() returns a new sketch.
+ */
+public final class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision out of range: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @JsonCreator
+    static HyperLogLog fromJson(@JsonProperty("p") int precision,
+                                @JsonProperty("sparse") boolean sparse,
+                                @JsonProperty("registers") byte[] data) {
+        HyperLogLog hll = new HyperLogLog(precision);
+        if (!sparse) {
+            System.arraycopy(data, 0, hll.registers, 0, hll.registers.length);
+            return hll;
+        }
+        for (int i = 0; i + 2 < data.length; i += 3) {
+            int index = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+            hll.registers[index] = data[i + 2];
+        }
+        return hll;
+    }
+
+    @JsonProperty("p")
+    public int precision() {
+        return precision;
+    }
+
+    @JsonProperty("sparse")
+    public boolean sparse() {
+        return nonZero() * 3 < registers.length;
+    }
+
+    @JsonProperty("registers")
+    public byte[] encoded() {
+        if (!sparse()) return registers.clone();
+        byte[] data = new byte[nonZero() * 3];
+        int pos = 0;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] == 0) continue;
+            data[pos++] = (byte) (i >>> 8);
+            data[pos++] = (byte) i;
+            data[pos++] = registers[i];
+        }
+        return data;
+    }
+
+    // Mutator for the builders of this package; sketches handed out are not modified
+    void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - precision));
+        // Rank of the first 1 bit in the remaining 64 - p bits (64 - p + 1 when all zero)
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog of precision " + precision + " and " + other.precision);
+        }
+        HyperLogLog merged = new HyperLogLog(precision);
+        for (int i = 0; i < registers.length; i++) {
+            merged.registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+        return merged;
+    }
+
+    /** Estimated number of distinct values added. */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // Small range correction: linear counting while registers are still empty
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private int nonZero() {
+        int count = 0;
+        for (byte register : registers) {
+            if (register != 0) count++;
+        }
+        return count;
+    }
+
+    // 64-bit FNV-1a followed by the SplitMix64 finalizer (FNV alone mixes the high bits poorly)
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HyperLogLog other && precision == other.precision && Arrays.equals(registers, other.registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * precision + Arrays.hashCode(registers);
+    }
+}
@@ -1,17 +1,45 @@
 package com.iot.shared;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
+/**
+ * Jackson serialization of the objects stored in S3, as text JSON or as Smile
+ * (binary JSON: same records and field names, but shared property names and
+ * short strings are written once per object, numbers in binary).
+ *
+ * Writers use the format selected by wire.format. Readers detect it from the
+ * Smile header, so objects of both formats can coexist in the buckets.
+ */
 public class JsonUtils {
 
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_SMILE = "smile";
+
+    // Smile header ":)\n", always written first
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+
     private static final ObjectMapper MAPPER = new ObjectMapper()
             .registerModule(new Jdk8Module())
             .registerModule(new JavaTimeModule());
 
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(SmileFactory.builder()
+            .enable(SmileGenerator.Feature.WRITE_HEADER)
+            // Batches repeat the same src_ip and dates in every summary
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build())
+            .registerModule(new Jdk8Module())
+            .registerModule(new JavaTimeModule());
+
+    private static final String WIRE_FORMAT = ConfigLoader.getWireFormat();
+
     // Convert Object -> JSON String
     public static String toJson(Object data) {
         try {
@@ -21,10 +49,29 @@ public class JsonUtils {
         }
     }
 
-    // Convert JSON Stream -> Object
+    // Convert Object -> bytes, in the configured wire format
+    public static byte[] toBytes(Object data) {
+        return toBytes(data, WIRE_FORMAT);
+    }
+
+    public static byte[] toBytes(Object data, String format) {
+        try {
+            return mapper(format).writeValueAsBytes(data);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize " + format, e);
+        }
+    }
+
+    // File extension of interim objects written in the configured format
+    public static String extension() {
+        return "." + WIRE_FORMAT;
+    }
+
+    // Convert JSON or Smile Stream -> Object
     public static <T> T fromJson(InputStream stream, Class<T> clazz) {
         try {
-            return MAPPER.readValue(stream, clazz);
+            InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
+            return detect(in).readValue(in, clazz);
         } catch (IOException e) {
             throw new RuntimeException("Failed to deserialize JSON", e);
         }
@@ -38,4 +85,37 @@ public class JsonUtils {
             throw new RuntimeException("Failed to deserialize JSON", e);
         }
     }
-}
\ No newline at end of file
+
+    // Convert JSON or Smile bytes -> Object
+    public static <T> T fromBytes(byte[] data, Class<T> clazz) {
+        try {
+            ObjectMapper mapper = isSmile(Arrays.copyOf(data, Math.min(data.length, SMILE_HEADER.length)))
+                    ? SMILE_MAPPER : MAPPER;
+            return mapper.readValue(data, clazz);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize JSON", e);
+        }
+    }
+
+    private static ObjectMapper mapper(String format) {
+        switch (format) {
+            case FORMAT_JSON:
+                return MAPPER;
+            case FORMAT_SMILE:
+                return SMILE_MAPPER;
+            default:
+                throw new IllegalArgumentException("Unknown wire format: " + format);
+        }
+    }
+
+    private static ObjectMapper detect(InputStream in) throws IOException {
+        in.mark(SMILE_HEADER.length);
+        byte[] head = in.readNBytes(SMILE_HEADER.length);
+        in.reset();
+        return isSmile(head) ? SMILE_MAPPER : MAPPER;
+    }
+
+    private static boolean isSmile(byte[] head) {
+        return Arrays.equals(head, SMILE_HEADER);
+    }
+}
@@ -0,0 +1,211 @@
+package com.iot.shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process MessageQueue reproducing the SQS semantics the workers rely on:
+ * - bounded: send blocks while a queue holds `capacity` messages (backpressure)
+ * - visibility timeout: a received message that is not deleted is delivered again,
+ *   unless its timeout is extended (changeVisibility)
+ * - FIFO queues (name ending in ".fifo"): messages of a group are delivered in
+ *   order and never while an earlier message of the same group is in flight;
+ *   deduplication ids are remembered for 5 minutes
+ * - after `maxReceives` deliveries a message is dropped (stand-in for a dead-letter queue)
+ */
+public class LocalMessageQueue implements MessageQueue {
+
+    private static final long DEDUPLICATION_WINDOW_MS = 5 * 60 * 1000;
+
+    private final int capacity;
+    private final long visibilityTimeoutMs;
+    private final int maxReceives;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    public LocalMessageQueue(int capacity, int visibilityTimeoutSeconds, int maxReceives) {
+        this.capacity = capacity;
+        this.visibilityTimeoutMs = visibilityTimeoutSeconds * 1000L;
+        this.maxReceives = maxReceives;
+    }
+
+    private Channel channel(String queue) {
+        return channels.computeIfAbsent(queue, q -> new Channel(q, q.endsWith(".fifo")));
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue, int maxMessages, int waitSeconds) {
+        try {
+            return channel(queue).receive(maxMessages, waitSeconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+    }
+
+    @Override
+    public void send(String queue, List<OutgoingMessage> messages) {
+        Channel channel = channel(queue);
+        try {
+            for (OutgoingMessage message : messages) {
+                channel.send(message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending to " + queue, e);
+        }
+    }
+
+    @Override
+    public void delete(String queue, List<QueueMessage> messages) {
+        Channel channel = channel(queue);
+        for (QueueMessage message : messages) {
+            channel.delete(message.receiptHandle());
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queue, List<QueueMessage> messages, int timeoutSeconds) {
+        Channel channel = channel(queue);
+        for (QueueMessage message : messages) {
+            if (!channel.changeVisibility(message.receiptHandle(), timeoutSeconds * 1000L)) {
+                System.err.println("Failed to extend visibility of message " + message.id() + ": receipt handle expired");
+            }
+        }
+    }
+
+    /** Messages stored in a queue, visible or in flight. */
+    public int pending(String queue) {
+        return channel(queue).size();
+    }
+
+    private static final class Entry {
+        final long seq;
+        final String id = UUID.randomUUID().toString();
+        final String body;
+        final String groupId;
+        final long sentAt = System.currentTimeMillis();
+        String receiptHandle; // Non-null while in flight
+        long visibleAt;
+        int receives;
+
+        Entry(long seq, OutgoingMessage message) {
+            this.seq = seq;
+            this.body = message.body();
+            this.groupId = message.groupId();
+        }
+    }
+
+    private final class Channel {
+        private final String name;
+        private final boolean fifo;
+        // Send order; removal by sequence number
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+        private final Map<String, Entry> inFlight = new HashMap<>();
+        private final LinkedHashMap<String, Long> deduplication = new LinkedHashMap<>();
+        private long nextSeq;
+
+        Channel(String name, boolean fifo) {
+            this.name = name;
+            this.fifo = fifo;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void send(OutgoingMessage message) throws InterruptedException {
+            if (fifo && message.deduplicationId() != null && isDuplicate(message.deduplicationId())) {
+                return;
+            }
+            while (entries.size() >= capacity) {
+                wait();
+            }
+            long seq = nextSeq++;
+            entries.put(seq, new Entry(seq, message));
+            notifyAll();
+        }
+
+        private boolean isDuplicate(String deduplicationId) {
+            long now = System.currentTimeMillis();
+            Iterator<Long> it = deduplication.values().iterator();
+            while (it.hasNext() && it.next() < now - DEDUPLICATION_WINDOW_MS) {
+                it.remove();
+            }
+            return deduplication.putIfAbsent(deduplicationId, now) != null;
+        }
+
+        synchronized List<QueueMessage> receive(int maxMessages, long waitMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (true) {
+                long now = System.currentTimeMillis();
+                List<QueueMessage> received = collect(maxMessages, now);
+                if (!received.isEmpty() || now >= deadline) {
+                    return received;
+                }
+                // Woken up by send / delete, or when an in-flight message may expire
+                wait(Math.min(deadline - now, 1000));
+            }
+        }
+
+        private List<QueueMessage> collect(int maxMessages, long now) {
+            List<QueueMessage> received = new ArrayList<>();
+            Set<String> blockedGroups = new HashSet<>();
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext() && received.size() < maxMessages) {
+                Entry entry = it.next();
+                if (entry.receiptHandle != null) {
+                    if (entry.visibleAt > now) {
+                        // Later messages of this group wait for it
+                        if (fifo) blockedGroups.add(entry.groupId);
+                        continue;
+                    }
+                    // Visibility timeout expired: deliver again
+                    inFlight.remove(entry.receiptHandle);
+                    entry.receiptHandle = null;
+                }
+                if (fifo && blockedGroups.contains(entry.groupId)) continue;
+
+                if (entry.receives >= maxReceives) {
+                    System.err.println("Dropping message " + entry.id + " from " + name
+                            + " after " + entry.receives + " receives: " + entry.body);
+                    it.remove();
+                    notifyAll();
+                    continue;
+                }
+                entry.receives++;
+                entry.receiptHandle = UUID.randomUUID().toString();
+                entry.visibleAt = now + visibilityTimeoutMs;
+                inFlight.put(entry.receiptHandle, entry);
+                received.add(new QueueMessage(entry.id, entry.body, entry.receiptHandle, entry.sentAt));
+            }
+            return received;
+        }
+
+        synchronized boolean changeVisibility(String receiptHandle, long timeoutMs) {
+            Entry entry = inFlight.get(receiptHandle);
+            if (entry == null) return false;
+            entry.visibleAt = System.currentTimeMillis() + timeoutMs;
+            // A shorter timeout may make the message (or its group) deliverable sooner
+            notifyAll();
+            return true;
+        }
+
+        synchronized void delete(String receiptHandle) {
+            Entry entry = inFlight.remove(receiptHandle);
+            if (entry == null) {
+                // Receipt expired (message redelivered) or already deleted, as in SQS
+                return;
+            }
+            entries.remove(entry.seq);
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.iot.shared;
+
+import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * ObjectStore on the local filesystem: &lt;root&gt;/&lt;bucket&gt;/&lt;key&gt;.
+ *
+ * Writes go to a temporary file renamed into place, so readers never see a
+ * partial object. With mmap enabled, reads are served from memory-mapped files.
+ * ETags are the MD5 of the content, as for a single-part S3 upload; conditional
+ * writes are atomic within the process (one lock per key stripe).
+ */
+public class LocalObjectStore implements ObjectStore {
+
+    /** Called after every write, like an S3 ObjectCreated event notification. */
+    public interface Listener {
+        void objectCreated(String bucket, String key, long size);
+    }
+
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path root;
+    private final boolean mmap;
+    private final Listener listener;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public LocalObjectStore(Path root, boolean mmap, Listener listener) {
+        this.root = root.toAbsolutePath().normalize();
+        this.mmap = mmap;
+        this.listener = listener;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Path bucketDir(String bucket) {
+        return resolve(root, bucket);
+    }
+
+    private Path path(String bucket, String key) {
+        return resolve(bucketDir(bucket), key);
+    }
+
+    // Keys are relative paths; reject anything escaping the bucket directory
+    private static Path resolve(Path dir, String name) {
+        Path p = dir.resolve(name).normalize();
+        if (!p.startsWith(dir) || p.equals(dir)) {
+            throw new IllegalArgumentException("Invalid object name: " + name);
+        }
+        return p;
+    }
+
+    @Override
+    public InputStream open(String bucket, String key) {
+        return open(bucket, key, 0);
+    }
+
+    @Override
+    public InputStream open(String bucket, String key, long offset) {
+        try {
+            FileChannel channel = FileChannel.open(path(bucket, key), StandardOpenOption.READ);
+            long length = Math.max(0, channel.size() - offset);
+            if (mmap && length <= Integer.MAX_VALUE) {
+                // The mapping stays valid once the channel is closed
+                try (channel) {
+                    return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                }
+            }
+            channel.position(offset);
+            return Channels.newInputStream(channel);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] read(String bucket, String key) {
+        try {
+            return Files.readAllBytes(path(bucket, key));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, byte[] data) {
+        Path target = path(bucket, key);
+        try {
+            Path temp = tempFile(target);
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        notifyCreated(bucket, key, data.length);
+    }
+
+    @Override
+    public boolean exists(String bucket, String key) {
+        return Files.isRegularFile(path(bucket, key));
+    }
+
+    @Override
+    public Versioned<byte[]> readVersioned(String bucket, String key) {
+        byte[] data = read(bucket, key);
+        return data == null ? null : new Versioned<>(data, etag(data));
+    }
+
+    @Override
+    public String writeIfMatch(String bucket, String key, byte[] data, String expectedEtag) {
+        Path target = path(bucket, key);
+        synchronized (locks[Math.floorMod(target.hashCode(), LOCK_STRIPES)]) {
+            byte[] current = read(bucket, key);
+            boolean matches = expectedEtag == null ? current == null
+                    : current != null && etag(current).equals(expectedEtag);
+            if (!matches) {
+                return null;
+            }
+            write(bucket, key, data);
+        }
+        return etag(data);
+    }
+
+    static String etag(byte[] data) {
+        try {
+            return '"' + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data)) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void upload(String bucket, String key, Path file) {
+        Path target = path(bucket, key);
+        long size;
+        try {
+            Path temp = tempFile(target);
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            size = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        notifyCreated(bucket, key, size);
+    }
+
+    @Override
+    public void write(String bucket, String key, BodyWriter body) {
+        Path target = path(bucket, key);
+        long size;
+        Path temp = null;
+        try {
+            temp = tempFile(target);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), WRITE_BUFFER_SIZE)) {
+                body.writeTo(out);
+            }
+            size = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+        notifyCreated(bucket, key, size);
+    }
+
+    private static void deleteQuietly(Path temp) {
+        if (temp == null) return;
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // Temporary files are never listed
+        }
+    }
+
+    private static Path tempFile(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        return target.resolveSibling(TEMP_PREFIX + UUID.randomUUID());
+    }
+
+    private void notifyCreated(String bucket, String key, long size) {
+        if (listener != null) {
+            listener.objectCreated(bucket, key, size);
+        }
+    }
+
+    @Override
+    public void delete(String bucket, Collection<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(path(bucket, key));
+            } catch (IOException e) {
+                System.err.println("Failed to delete " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Iterable<StoredObject> list(String bucket, String prefix, String startAfter) {
+        Path dir = bucketDir(bucket);
+        if (!Files.isDirectory(dir)) return List.of();
+
+        List<StoredObject> objects = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith(TEMP_PREFIX))
+                    .forEach(p -> {
+                        String key = dir.relativize(p).toString().replace('\\', '/');
+                        if (key.startsWith(prefix) && (startAfter == null || key.compareTo(startAfter) > 0)) {
+                            try {
+                                objects.add(new StoredObject(key, Files.size(p)));
+                            } catch (IOException e) {
+                                // Deleted while listing
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // S3 lists in key order
+        objects.sort(Comparator.comparing(StoredObject::key));
+        return objects;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.iot.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ObjectStore held in memory, for tests and load harnesses (backend=memory).
+ *
+ * Enforces the same semantics as S3: objects are replaced atomically, listings are
+ * in key order, and conditional writes fail when the ETag has changed. Every write
+ * produces a new ETag, even with identical content, so a lost update can never go
+ * unnoticed.
+ */
+public class MemoryObjectStore implements ObjectStore {
+
+    private record Entry(byte[] data, String etag) {}
+
+    private final Map<String, ConcurrentSkipListMap<String, Entry>> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final LocalObjectStore.Listener listener;
+
+    public MemoryObjectStore() {
+        this(null);
+    }
+
+    public MemoryObjectStore(LocalObjectStore.Listener listener) {
+        this.listener = listener;
+    }
+
+    private ConcurrentSkipListMap<String, Entry> bucket(String bucket) {
+        return buckets.computeIfAbsent(bucket, b -> new ConcurrentSkipListMap<>());
+    }
+
+    private Entry newEntry(byte[] data) {
+        return new Entry(data.clone(), "\"" + versions.incrementAndGet() + "\"");
+    }
+
+    @Override
+    public InputStream open(String bucket, String key) {
+        return open(bucket, key, 0);
+    }
+
+    @Override
+    public InputStream open(String bucket, String key, long offset) {
+        Entry entry = bucket(bucket).get(key);
+        if (entry == null) return null;
+        int from = (int) Math.min(offset, entry.data().length);
+        return new ByteArrayInputStream(entry.data(), from, entry.data().length - from);
+    }
+
+    @Override
+    public byte[] read(String bucket, String key) {
+        Entry entry = bucket(bucket).get(key);
+        return entry == null ? null : entry.data().clone();
+    }
+
+    @Override
+    public boolean exists(String bucket, String key) {
+        return bucket(bucket).containsKey(key);
+    }
+
+    @Override
+    public Versioned<byte[]> readVersioned(String bucket, String key) {
+        Entry entry = bucket(bucket).get(key);
+        return entry == null ? null : new Versioned<>(entry.data().clone(), entry.etag());
+    }
+
+    @Override
+    public void write(String bucket, String key, byte[] data) {
+        bucket(bucket).put(key, newEntry(data));
+        notifyCreated(bucket, key, data.length);
+    }
+
+    @Override
+    public String writeIfMatch(String bucket, String key, byte[] data, String expectedEtag) {
+        Entry next = newEntry(data);
+        ConcurrentSkipListMap<String, Entry> objects = bucket(bucket);
+        boolean written = expectedEtag == null
+                ? objects.putIfAbsent(key, next) == null
+                : replaceIfMatch(objects, key, expectedEtag, next);
+        if (!written) {
+            return null;
+        }
+        notifyCreated(bucket, key, data.length);
+        return next.etag();
+    }
+
+    private static boolean replaceIfMatch(ConcurrentSkipListMap<String, Entry> objects, String key,
+                                          String expectedEtag, Entry next) {
+        Entry current = objects.get(key);
+        // Entries are compared by identity: replace() fails if another writer got in between
+        return current != null && current.etag().equals(expectedEtag) && objects.replace(key, current, next);
+    }
+
+    @Override
+    public void upload(String bucket, String key, Path file) {
+        try {
+            write(bucket, key, Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, BodyWriter body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            body.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        write(bucket, key, out.toByteArray());
+    }
+
+    @Override
+    public void delete(String bucket, Collection<String> keys) {
+        ConcurrentSkipListMap<String, Entry> objects = bucket(bucket);
+        for (String key : keys) {
+            objects.remove(key);
+        }
+    }
+
+    @Override
+    public Iterable<StoredObject> list(String bucket, String prefix, String startAfter) {
+        List<StoredObject> listed = new ArrayList<>();
+        String from = startAfter != null && startAfter.compareTo(prefix) > 0 ? startAfter : prefix;
+        for (Map.Entry<String, Entry> e : bucket(bucket).tailMap(from, !from.equals(startAfter)).entrySet()) {
+            if (!e.getKey().startsWith(prefix)) break;
+            listed.add(new StoredObject(e.getKey(), e.getValue().data().length));
+        }
+        return listed;
+    }
+
+    private void notifyCreated(String bucket, String key, long size) {
+        if (listener != null) {
+            listener.objectCreated(bucket, key, size);
+        }
+    }
+}
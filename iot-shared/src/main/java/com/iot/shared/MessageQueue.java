@@ -0,0 +1,35 @@
+package com.iot.shared;
+
+import java.util.List;
+
+/**
+ * Message queues between the components: queue-summarize (standard) and
+ * queue-consolidate.fifo (FIFO, one message group per source IP).
+ *
+ * Implementations: SqsMessageQueue (backend=aws) and LocalMessageQueue
+ * (backend=local, in-process). Queues are identified by their configured URL.
+ */
+public interface MessageQueue {
+
+    /**
+     * Long-polls for up to maxMessages messages. Received messages stay invisible to
+     * other consumers until deleted or until their visibility timeout expires.
+     */
+    List<QueueMessage> receive(String queue, int maxMessages, int waitSeconds);
+
+    /**
+     * Sends messages, batching as the backend allows. Throws IllegalStateException
+     * if some of them could not be sent after retries.
+     */
+    void send(String queue, List<OutgoingMessage> messages);
+
+    /** Acknowledges (deletes) received messages; failures are logged. */
+    void delete(String queue, List<QueueMessage> messages);
+
+    /**
+     * Sets the visibility timeout of received messages to `timeoutSeconds` from now,
+     * so that a long job keeps its messages (heartbeat). Failures are logged: a
+     * message whose timeout already expired may have been delivered again.
+     */
+    void changeVisibility(String queue, List<QueueMessage> messages, int timeoutSeconds);
+}
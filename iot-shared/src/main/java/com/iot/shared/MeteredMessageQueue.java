@@ -0,0 +1,78 @@
+package com.iot.shared;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessageQueue decorator timing every call (Metrics, microseconds), applied by Backend:
+ * sqs.receive (long polls included), sqs.send, sqs.delete, sqs.visibility.
+ * sqs.receive.empty counts the polls that returned nothing, and
+ * sqs.receive.fill_ratio is the share of the requested messages actually received.
+ */
+public class MeteredMessageQueue implements MessageQueue {
+
+    private static final Histogram RECEIVE = Metrics.histogram("sqs.receive");
+    private static final Histogram SEND = Metrics.histogram("sqs.send");
+    private static final Histogram DELETE = Metrics.histogram("sqs.delete");
+    private static final Histogram VISIBILITY = Metrics.histogram("sqs.visibility");
+    private static final LongAdder EMPTY_RECEIVES = Metrics.counter("sqs.receive.empty");
+    private static final LongAdder RECEIVED = Metrics.counter("sqs.receive.messages");
+    private static final LongAdder MISSED = Metrics.counter("sqs.receive.missed");
+
+    static {
+        Metrics.ratio("sqs.receive.fill_ratio", RECEIVED, MISSED);
+    }
+
+    private final MessageQueue delegate;
+
+    public MeteredMessageQueue(MessageQueue delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue, int maxMessages, int waitSeconds) {
+        long start = System.nanoTime();
+        List<QueueMessage> received;
+        try {
+            received = delegate.receive(queue, maxMessages, waitSeconds);
+        } finally {
+            RECEIVE.recordSince(start);
+        }
+        if (received.isEmpty()) {
+            EMPTY_RECEIVES.increment();
+        }
+        RECEIVED.add(received.size());
+        MISSED.add(Math.max(0, maxMessages - received.size()));
+        return received;
+    }
+
+    @Override
+    public void send(String queue, List<OutgoingMessage> messages) {
+        long start = System.nanoTime();
+        try {
+            delegate.send(queue, messages);
+        } finally {
+            SEND.recordSince(start);
+        }
+    }
+
+    @Override
+    public void delete(String queue, List<QueueMessage> messages) {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(queue, messages);
+        } finally {
+            DELETE.recordSince(start);
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queue, List<QueueMessage> messages, int timeoutSeconds) {
+        long start = System.nanoTime();
+        try {
+            delegate.changeVisibility(queue, messages, timeoutSeconds);
+        } finally {
+            VISIBILITY.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.iot.shared;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ObjectStore decorator timing every call (Metrics, microseconds), applied by Backend:
+ * - s3.get    : read, readVersioned, exists (HEAD), and open up to the first byte
+ *               (the stream itself is consumed at the caller's pace)
+ * - s3.put    : write, writeIfMatch and upload, body included
+ * - s3.delete / s3.list
+ * - s3.put.conflicts : conditional writes rejected because the ETag changed
+ * The names are the same on the local and memory backends.
+ */
+public class MeteredObjectStore implements ObjectStore {
+
+    private static final Histogram GET = Metrics.histogram("s3.get");
+    private static final Histogram PUT = Metrics.histogram("s3.put");
+    private static final Histogram DELETE = Metrics.histogram("s3.delete");
+    private static final Histogram LIST = Metrics.histogram("s3.list");
+    private static final LongAdder CONFLICTS = Metrics.counter("s3.put.conflicts");
+
+    private final ObjectStore delegate;
+
+    public MeteredObjectStore(ObjectStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public InputStream open(String bucket, String key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.open(bucket, key);
+        } finally {
+            GET.recordSince(start);
+        }
+    }
+
+    @Override
+    public InputStream open(String bucket, String key, long offset) {
+        long start = System.nanoTime();
+        try {
+            return delegate.open(bucket, key, offset);
+        } finally {
+            GET.recordSince(start);
+        }
+    }
+
+    @Override
+    public byte[] read(String bucket, String key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.read(bucket, key);
+        } finally {
+            GET.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean exists(String bucket, String key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.exists(bucket, key);
+        } finally {
+            GET.recordSince(start);
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, byte[] data) {
+        long start = System.nanoTime();
+        try {
+            delegate.write(bucket, key, data);
+        } finally {
+            PUT.recordSince(start);
+        }
+    }
+
+    @Override
+    public Versioned<byte[]> readVersioned(String bucket, String key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.readVersioned(bucket, key);
+        } finally {
+            GET.recordSince(start);
+        }
+    }
+
+    @Override
+    public String writeIfMatch(String bucket, String key, byte[] data, String expectedEtag) {
+        long start = System.nanoTime();
+        String etag;
+        try {
+            etag = delegate.writeIfMatch(bucket, key, data, expectedEtag);
+        } finally {
+            PUT.recordSince(start);
+        }
+        if (etag == null) {
+            CONFLICTS.increment();
+        }
+        return etag;
+    }
+
+    @Override
+    public void upload(String bucket, String key, Path file) {
+        long start = System.nanoTime();
+        try {
+            delegate.upload(bucket, key, file);
+        } finally {
+            PUT.recordSince(start);
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, BodyWriter body) {
+        long start = System.nanoTime();
+        try {
+            delegate.write(bucket, key, body);
+        } finally {
+            PUT.recordSince(start);
+        }
+    }
+
+    @Override
+    public void delete(String bucket, Collection<String> keys) {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(bucket, keys);
+        } finally {
+            DELETE.recordSince(start);
+        }
+    }
+
+    @Override
+    public Iterable<StoredObject> list(String bucket, String prefix, String startAfter) {
+        long start = System.nanoTime();
+        try {
+            return delegate.list(bucket, prefix, startAfter);
+        } finally {
+            LIST.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.iot.shared;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics of the pipeline, shared by every component of the JVM.
+ *
+ * - counters   : LongAdder, reported as name.count and name.rate (per second over
+ *                the last RATE_INTERVAL_S, once exposed)
+ * - histograms : name.count / mean / p50 / p90 / p99 / max (see Histogram)
+ * - gauges     : a value computed when read (ratios, queue depths)
+ *
+ * Components look their metrics up once (static fields) and update them outside
+ * the per-row loops: a hot loop counts in local variables and adds the totals when
+ * it is done. {@link MetricsExporter} publishes the snapshot over JMX and HTTP.
+ */
+public final class Metrics {
+
+    private static final long RATE_INTERVAL_S = 10;
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    // Per-second rates of the counters, refreshed by the ticker
+    private static final Map<String, Double> rates = new ConcurrentHashMap<>();
+    private static final Map<String, Long> lastCounts = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService ticker;
+    private static long lastTick;
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Registers (or replaces) a gauge. */
+    public static void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Registers a gauge hits / (hits + misses), 0 before the first event. */
+    public static void ratio(String name, LongAdder hits, LongAdder misses) {
+        gauge(name, () -> {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0.0 : (double) h / total;
+        });
+    }
+
+    /** Current values, flattened and sorted by name. */
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((name, counter) -> {
+            values.put(name + ".count", counter.sum());
+            values.put(name + ".rate", rates.getOrDefault(name, 0.0));
+        });
+        histograms.forEach((name, histogram) -> histogram.snapshot(name, values));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        return values;
+    }
+
+    /** Starts computing counter rates (idempotent; called by MetricsExporter). */
+    static synchronized void startRates() {
+        if (ticker != null) return;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-rates");
+            t.setDaemon(true);
+            return t;
+        });
+        lastTick = System.nanoTime();
+        ticker.scheduleAtFixedRate(Metrics::tick, RATE_INTERVAL_S, RATE_INTERVAL_S, TimeUnit.SECONDS);
+    }
+
+    private static void tick() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTick) / 1e9;
+        lastTick = now;
+        counters.forEach((name, counter) -> {
+            long count = counter.sum();
+            long previous = lastCounts.getOrDefault(name, 0L);
+            lastCounts.put(name, count);
+            rates.put(name, (count - previous) / seconds);
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package com.iot.shared;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Publishes {@link Metrics#snapshot()}:
+ * - JMX (metrics.jmx.enabled): MBean com.iot:type=Metrics, one read-only attribute
+ *   per value (jconsole, VisualVM, jmx exporters)
+ * - HTTP (metrics.http.port, 0 = off): GET /metrics returns the snapshot as a flat
+ *   JSON object. Bound to metrics.http.host, loopback by default.
+ *
+ * Both read the registry on request only: nothing runs on the workers' threads.
+ */
+public final class MetricsExporter {
+
+    public static final String OBJECT_NAME = "com.iot:type=Metrics";
+
+    private static boolean started;
+
+    private MetricsExporter() {
+    }
+
+    /** Starts the configured exporters once per JVM; failures are logged, never fatal. */
+    public static synchronized void startFromConfig() {
+        if (started) return;
+        started = true;
+        Metrics.startRates();
+        if (ConfigLoader.isMetricsJmxEnabled()) {
+            registerMBean();
+        }
+        int port = ConfigLoader.getMetricsHttpPort();
+        if (port > 0) {
+            startHttp(ConfigLoader.getMetricsHttpHost(), port);
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new SnapshotMBean(), new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.err.println("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static void startHttp(String host, int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            server.createContext("/metrics", MetricsExporter::serve);
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            server.start();
+            System.out.println("Metrics available on http://" + host + ":" + port + "/metrics");
+        } catch (IOException e) {
+            System.err.println("Failed to start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private static void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = JsonUtils.toJson(Metrics.snapshot()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /** The attributes are the names of the snapshot; new metrics appear on the next getMBeanInfo. */
+    private static final class SnapshotMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = Metrics.snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> snapshot = Metrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = snapshot.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            Metrics.snapshot().forEach((name, value) -> attributes.add(new MBeanAttributeInfo(
+                    name, value.getClass().getName(), name, true, false, false)));
+            return new MBeanInfo(SnapshotMBean.class.getName(), "IoT pipeline metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.iot.shared;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lists a prefix (following continuation tokens) and downloads the objects
+ * concurrently, with at most `parallelism` requests in flight.
+ */
+final class ObjectScanner {
+
+    interface Decoder {
+        Collection<TrafficState> decode(InputStream in) throws Exception;
+    }
+
+    private ObjectScanner() {}
+
+    /**
+     * Calls the visitor for every decoded state. With parallelism > 1 the visitor is
+     * called from several threads and must be thread-safe.
+     */
+    static void scan(ObjectStore objects, String bucket, String prefix, int parallelism,
+                     Decoder decoder, Consumer<TrafficState> visitor) {
+        scan(objects, bucket, prefix, null, parallelism, decoder, visitor);
+    }
+
+    /** Same, for the objects whose key sorts after startAfter. */
+    static void scan(ObjectStore objects, String bucket, String prefix, String startAfter, int parallelism,
+                     Decoder decoder, Consumer<TrafficState> visitor) {
+        if (parallelism <= 1) {
+            for (StoredObject obj : objects.list(bucket, prefix, startAfter)) {
+                if (obj.size() == 0) continue;
+                read(objects, bucket, obj.key(), decoder, visitor);
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        // Bounds in-flight downloads so the listing does not run ahead unboundedly
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        try {
+            for (StoredObject obj : objects.list(bucket, prefix, startAfter)) {
+                // Skip folders / empty files
+                if (obj.size() == 0) continue;
+
+                inFlight.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        read(objects, bucket, obj.key(), decoder, visitor);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void read(ObjectStore objects, String bucket, String key, Decoder decoder, Consumer<TrafficState> visitor) {
+        try (InputStream is = objects.open(bucket, key)) {
+            // Deleted since the listing
+            if (is == null) return;
+            for (TrafficState state : decoder.decode(is)) {
+                visitor.accept(state);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to read state " + key + ": " + e.getMessage());
+        }
+    }
+}
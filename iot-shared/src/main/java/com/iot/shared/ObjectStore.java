@@ -0,0 +1,72 @@
+package com.iot.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Object storage used by every component: the Raw, Interim and State buckets.
+ *
+ * Implementations: S3ObjectStore (backend=aws) and LocalObjectStore (backend=local,
+ * one directory per bucket), and MemoryObjectStore for tests and load harnesses.
+ * Missing objects are reported as null, never as an exception, so callers do not
+ * depend on a backend-specific error type.
+ */
+public interface ObjectStore {
+
+    /** Produces the content of an object written with {@link #write(String, String, BodyWriter)}. */
+    interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Opens an object for a full read, or returns null if it does not exist. */
+    InputStream open(String bucket, String key);
+
+    /**
+     * Opens an object from the given byte offset to its end, or returns null if it
+     * does not exist. Meant for partial reads: closing the stream early is cheap
+     * (the S3 connection is aborted instead of drained).
+     */
+    InputStream open(String bucket, String key, long offset);
+
+    /** Reads a whole object, or returns null if it does not exist. */
+    byte[] read(String bucket, String key);
+
+    /** True if the object exists (HEAD: nothing is downloaded). */
+    boolean exists(String bucket, String key);
+
+    void write(String bucket, String key, byte[] data);
+
+    /** Reads a whole object with its ETag, or returns null if it does not exist. */
+    Versioned<byte[]> readVersioned(String bucket, String key);
+
+    /**
+     * Conditional write: replaces the object only if its ETag is still expectedEtag
+     * (If-Match), or creates it only if it does not exist when expectedEtag is null
+     * (If-None-Match: *). Returns the ETag of the new object, or null when the
+     * precondition failed because another writer changed the object in between.
+     */
+    String writeIfMatch(String bucket, String key, byte[] data, String expectedEtag);
+
+    void upload(String bucket, String key, Path file);
+
+    /**
+     * Writes an object of unknown length as the body writer produces it, without
+     * holding it in memory. The object only becomes visible once the writer returns;
+     * if it throws, nothing is stored.
+     */
+    void write(String bucket, String key, BodyWriter body);
+
+    /** Deletes the given keys; missing keys are ignored, failures are logged. */
+    void delete(String bucket, Collection<String> keys);
+
+    /** Lists the objects under a prefix, in key order. */
+    default Iterable<StoredObject> list(String bucket, String prefix) {
+        return list(bucket, prefix, null);
+    }
+
+    /** Lists the objects under a prefix whose key sorts after startAfter (null: all), in key order. */
+    Iterable<StoredObject> list(String bucket, String prefix, String startAfter);
+}
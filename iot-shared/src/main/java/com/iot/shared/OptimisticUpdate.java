@@ -0,0 +1,102 @@
+package com.iot.shared;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read / modify / conditional write of one object, retried on conflict.
+ *
+ * The new content is written with If-Match on the ETag it was computed from (or
+ * If-None-Match for a new object). When another writer got there first, the object
+ * is read again and the change re-applied to the fresh content, after a jittered
+ * exponential backoff. Changes must therefore be pure functions of the current value.
+ *
+ * Metrics: update.etag_hit_ratio is the share of updates written straight from the
+ * known value, without any GET; update.attempts the writes each update took.
+ */
+public final class OptimisticUpdate {
+
+    private static final LongAdder WITHOUT_READ = Metrics.counter("update.without_read");
+    private static final LongAdder WITH_READ = Metrics.counter("update.with_read");
+    private static final Histogram ATTEMPTS = Metrics.histogram("update.attempts");
+
+    static {
+        Metrics.ratio("update.etag_hit_ratio", WITHOUT_READ, WITH_READ);
+    }
+
+    /** Converts between the stored bytes and the value; decode receives null for a missing object. */
+    public interface Codec<T> {
+        T decode(byte[] data);
+
+        byte[] encode(T value);
+    }
+
+    private final ObjectStore objects;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+
+    public OptimisticUpdate(ObjectStore objects, int maxAttempts, long backoffMs, long maxBackoffMs) {
+        this.objects = objects;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public static OptimisticUpdate fromConfig(ObjectStore objects) {
+        return new OptimisticUpdate(objects, ConfigLoader.getStateUpdateMaxAttempts(),
+                ConfigLoader.getStateUpdateBackoffMs(), ConfigLoader.getStateUpdateMaxBackoffMs());
+    }
+
+    /**
+     * Applies the change and returns the written value with its ETag.
+     *
+     * @param known last value written or read by this process (null: unknown). When
+     *              it is still current, the object is written without being read.
+     * @throws IllegalStateException after maxAttempts conflicts in a row
+     */
+    public <T> Versioned<T> apply(String bucket, String key, Versioned<T> known, Codec<T> codec,
+                                  UnaryOperator<T> change) {
+        Versioned<T> current = known;
+        boolean read = false;
+        for (int attempt = 1; ; attempt++) {
+            if (current == null) {
+                current = read(bucket, key, codec::decode);
+                read = true;
+            }
+            T next = change.apply(current.value());
+            String etag = objects.writeIfMatch(bucket, key, codec.encode(next), current.etag());
+            if (etag != null) {
+                (read ? WITH_READ : WITHOUT_READ).increment();
+                ATTEMPTS.record(attempt);
+                return new Versioned<>(next, etag);
+            }
+            if (attempt >= maxAttempts) {
+                throw new IllegalStateException("Gave up updating " + key + " after " + attempt + " conflicts");
+            }
+            backoff(attempt);
+            current = null;
+        }
+    }
+
+    private <T> Versioned<T> read(String bucket, String key, Function<byte[], T> decode) {
+        Versioned<byte[]> stored = objects.readVersioned(bucket, key);
+        return stored == null
+                ? new Versioned<>(decode.apply(null), null)
+                : new Versioned<>(decode.apply(stored.value()), stored.etag());
+    }
+
+    // Full jitter: spreads the retries of writers that collided on the same object
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        if (ceiling <= 0) return;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while updating", e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.iot.shared;
+
+/**
+ * A message to send. groupId and deduplicationId are required by FIFO queues
+ * and must be null for standard queues.
+ */
+public record OutgoingMessage(String body, String groupId, String deduplicationId) {
+
+    public static OutgoingMessage standard(String body) {
+        return new OutgoingMessage(body, null, null);
+    }
+}
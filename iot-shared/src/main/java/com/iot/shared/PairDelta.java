@@ -0,0 +1,39 @@
+package com.iot.shared;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics to add to one pair, per summary (interim key) they come from, so that
+ * a store can skip the summaries its ledger has already applied.
+ */
+public record PairDelta(PairKey pair, Map<String, TrafficState> bySummary) {
+
+    /**
+     * Summaries of this delta that the ledger does not list yet. No side effect: it
+     * runs again on every attempt of a conditional write, the caller counts the
+     * skipped summaries once the write went through.
+     */
+    public List<String> unapplied(SummaryLedger ledger) {
+        List<String> keys = new ArrayList<>(bySummary.size());
+        for (String key : bySummary.keySet()) {
+            if (!ledger.contains(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /** Adds the contributions of the given summaries to a state. */
+    public TrafficState applyTo(TrafficState state, Collection<String> keys) {
+        for (String key : keys) {
+            TrafficState contribution = bySummary.get(key);
+            if (contribution != null) {
+                state = state.merge(contribution);
+            }
+        }
+        return state;
+    }
+}
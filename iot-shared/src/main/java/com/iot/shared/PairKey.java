@@ -0,0 +1,39 @@
+package com.iot.shared;
+
+/**
+ * Identifies a Src-Dst pair in the state stores.
+ */
+public record PairKey(String srcIp, String dstIp) {
+
+    public static PairKey of(IntermediateSummary summary) {
+        return new PairKey(summary.srcIp(), summary.dstIp());
+    }
+
+    public static PairKey of(TrafficState state) {
+        return new PairKey(state.srcIp(), state.dstIp());
+    }
+
+    // Key of the per-pair JSON object in bucket-state (historical layout)
+    public String objectKey() {
+        return PairStateStore.PREFIX + srcIp + "_" + dstIp + ".json";
+    }
+
+    /**
+     * 64-bit FNV-1a hash of "src\0dst". Unlike hashCode() of a record, its value is
+     * specified, so it can be persisted (segment sharding, segment index).
+     */
+    public long stableHash() {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, srcIp);
+        hash = (hash ^ 0) * 0x100000001b3L;
+        hash = fnv(hash, dstIp);
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,84 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time rollups of one pair, stored by RollupStore in two kinds of objects:
+ * - month object (one per pair and month): "days" (yyyy-MM-dd) and "weeks", keyed
+ *   by the Monday of the ISO week. A week spanning two months has one part in each
+ *   month object; parts merge like any other bucket.
+ * - year object (one per pair and year): "months" (yyyy-MM)
+ * Both also hold the ledger of the summaries they include (null in objects written
+ * before ledgers existed).
+ *
+ * Immutable: add() and merge() return an updated copy.
+ */
+public record PairRollup(
+        @JsonProperty("src_ip") String srcIp,
+        @JsonProperty("dst_ip") String dstIp,
+        @JsonProperty("days") Map<String, RollupBucket> days,
+        @JsonProperty("weeks") Map<String, RollupBucket> weeks,
+        @JsonProperty("months") Map<String, RollupBucket> months,
+        @JsonProperty("ledger") SummaryLedger ledger
+) {
+    public static PairRollup empty(PairKey pair) {
+        return new PairRollup(pair.srcIp(), pair.dstIp(), Map.of(), Map.of(), Map.of(), SummaryLedger.EMPTY);
+    }
+
+    public PairRollup withLedger(SummaryLedger next) {
+        return new PairRollup(srcIp, dstIp, days, weeks, months, next);
+    }
+
+    public static String dayKey(LocalDate date) {
+        return date.toString();
+    }
+
+    public static String weekKey(LocalDate date) {
+        return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toString();
+    }
+
+    public static String monthKey(YearMonth month) {
+        return month.toString();
+    }
+
+    /** Adds a daily summary to the day and week buckets (month object). */
+    public PairRollup addToDay(LocalDate date, long flowDuration, long fwdPackets) {
+        return new PairRollup(srcIp, dstIp,
+                add(days, dayKey(date), flowDuration, fwdPackets),
+                add(weeks, weekKey(date), flowDuration, fwdPackets),
+                months, ledger);
+    }
+
+    /** Adds a daily summary to its month bucket (year object). */
+    public PairRollup addToMonth(LocalDate date, long flowDuration, long fwdPackets) {
+        return new PairRollup(srcIp, dstIp, days, weeks,
+                add(months, monthKey(YearMonth.from(date)), flowDuration, fwdPackets), ledger);
+    }
+
+    /** Adds the buckets of another rollup of the same object; the ledger of this one is kept. */
+    public PairRollup merge(PairRollup other) {
+        return new PairRollup(srcIp, dstIp,
+                merge(days, other.days), merge(weeks, other.weeks), merge(months, other.months), ledger);
+    }
+
+    private static Map<String, RollupBucket> merge(Map<String, RollupBucket> buckets, Map<String, RollupBucket> other) {
+        if (other.isEmpty()) return buckets;
+        Map<String, RollupBucket> copy = new TreeMap<>(buckets);
+        other.forEach((key, bucket) -> copy.merge(key, bucket, RollupBucket::merge));
+        return copy;
+    }
+
+    private static Map<String, RollupBucket> add(Map<String, RollupBucket> buckets, String key,
+                                                 long flowDuration, long fwdPackets) {
+        Map<String, RollupBucket> copy = new TreeMap<>(buckets);
+        copy.put(key, copy.getOrDefault(key, RollupBucket.EMPTY).add(flowDuration, fwdPackets));
+        return copy;
+    }
+}
@@ -0,0 +1,171 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Historical layout: one JSON object per Src-Dst pair, state/&lt;src&gt;_&lt;dst&gt;.json.
+ * The content is JSON or Smile (wire.format), detected when read.
+ *
+ * mergeAll remembers the ETag of the last states it wrote (bounded LRU): the next
+ * merge of a hot pair is a single conditional PUT, and only a conflict with another
+ * consolidator costs a GET. Each object also holds the ledger of the summaries it
+ * includes ("ledger", ignored by the other readers of TrafficState).
+ */
+public class PairStateStore implements StateStore {
+
+    public static final String PREFIX = "state/";
+
+    // Contributions of summaries the ledger had already applied (replays)
+    private static final LongAdder REPLAYS_SKIPPED = Metrics.counter("consolidate.replays.skipped");
+
+    /** Content of a pair object written by mergeAll: the state fields plus the ledger. */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record StoredPair(
+            @JsonProperty("src_ip") String srcIp,
+            @JsonProperty("dst_ip") String dstIp,
+            @JsonProperty("duration") RunningStats duration,
+            @JsonProperty("packets") RunningStats packets,
+            @JsonProperty("ledger") SummaryLedger ledger
+    ) {
+        static StoredPair of(TrafficState state, SummaryLedger ledger) {
+            return new StoredPair(state.srcIp(), state.dstIp(), state.duration(), state.packets(), ledger);
+        }
+
+        TrafficState state() {
+            return new TrafficState(srcIp, dstIp, duration, packets);
+        }
+    }
+
+    private final ObjectStore objects;
+    private final String bucket;
+    private final OptimisticUpdate updates;
+    private final int maxKnown;
+
+    // Access-ordered: the eldest entry is the least recently written pair
+    private final LinkedHashMap<PairKey, Versioned<StoredPair>> known = new LinkedHashMap<>(16, 0.75f, true);
+
+    public PairStateStore(ObjectStore objects, String bucket) {
+        this(objects, bucket, OptimisticUpdate.fromConfig(objects), 0);
+    }
+
+    /**
+     * @param maxKnown number of written states whose ETag is kept (0: every merge reads first)
+     */
+    public PairStateStore(ObjectStore objects, String bucket, OptimisticUpdate updates, int maxKnown) {
+        this.objects = objects;
+        this.bucket = bucket;
+        this.updates = updates;
+        this.maxKnown = maxKnown;
+    }
+
+    @Override
+    public String partitionOf(PairKey pair) {
+        return pair.objectKey();
+    }
+
+    @Override
+    public Map<PairKey, TrafficState> loadAll(Collection<PairKey> pairs) {
+        Map<PairKey, TrafficState> states = new LinkedHashMap<>();
+        for (PairKey pair : pairs) {
+            states.put(pair, load(pair));
+        }
+        return states;
+    }
+
+    private TrafficState load(PairKey pair) {
+        try (InputStream stream = objects.open(bucket, pair.objectKey())) {
+            if (stream == null) {
+                return TrafficState.empty(pair.srcIp(), pair.dstIp());
+            }
+            return JsonUtils.fromJson(stream, TrafficState.class);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException("Failed to read " + pair.objectKey(), e);
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<TrafficState> states) {
+        for (TrafficState state : states) {
+            // Keys stay *.json whatever the wire format: readers detect Smile content
+            objects.write(bucket, PairKey.of(state).objectKey(), JsonUtils.toBytes(state));
+        }
+    }
+
+    @Override
+    public Map<PairKey, TrafficState> mergeAll(Collection<PairDelta> deltas) {
+        Map<PairKey, TrafficState> merged = new LinkedHashMap<>();
+        for (PairDelta delta : deltas) {
+            PairKey pair = delta.pair();
+            Versioned<StoredPair> written;
+            int[] applied = new int[1]; // Of the attempt that was written
+            try {
+                written = updates.apply(bucket, pair.objectKey(), known(pair), codec(pair), current -> {
+                    SummaryLedger ledger = SummaryLedger.orEmpty(current.ledger());
+                    List<String> fresh = delta.unapplied(ledger);
+                    applied[0] = fresh.size();
+                    return StoredPair.of(delta.applyTo(current.state(), fresh), ledger.withApplied(fresh));
+                });
+            } catch (RuntimeException e) {
+                forget(pair);
+                throw e;
+            }
+            remember(pair, written);
+            REPLAYS_SKIPPED.add(delta.bySummary().size() - applied[0]);
+            merged.put(pair, written.value().state());
+        }
+        return merged;
+    }
+
+    private static OptimisticUpdate.Codec<StoredPair> codec(PairKey pair) {
+        return new OptimisticUpdate.Codec<>() {
+            @Override
+            public StoredPair decode(byte[] data) {
+                if (data == null) {
+                    return StoredPair.of(TrafficState.empty(pair.srcIp(), pair.dstIp()), SummaryLedger.EMPTY);
+                }
+                StoredPair stored = JsonUtils.fromBytes(data, StoredPair.class);
+                if (stored.duration() == null || stored.packets() == null) {
+                    // Former sums / sums-of-squares format, converted by TrafficState
+                    return StoredPair.of(JsonUtils.fromBytes(data, TrafficState.class), stored.ledger());
+                }
+                return stored;
+            }
+
+            @Override
+            public byte[] encode(StoredPair stored) {
+                return JsonUtils.toBytes(stored);
+            }
+        };
+    }
+
+    private synchronized Versioned<StoredPair> known(PairKey pair) {
+        return known.get(pair);
+    }
+
+    private synchronized void remember(PairKey pair, Versioned<StoredPair> written) {
+        if (maxKnown <= 0) return;
+        known.put(pair, written);
+        if (known.size() > maxKnown) {
+            known.remove(known.keySet().iterator().next());
+        }
+    }
+
+    private synchronized void forget(PairKey pair) {
+        known.remove(pair);
+    }
+
+    @Override
+    public void forEach(int parallelism, Consumer<TrafficState> visitor) {
+        ObjectScanner.scan(objects, bucket, PREFIX, parallelism,
+                in -> List.of(JsonUtils.fromJson(in, TrafficState.class)), visitor);
+    }
+}
@@ -0,0 +1,12 @@
+package com.iot.shared;
+
+/**
+ * A received message. The receipt handle identifies this delivery for delete.
+ * sentAt is when the message was first sent (epoch millis), 0 when unknown.
+ */
+public record QueueMessage(String id, String body, String receiptHandle, long sentAt) {
+
+    public QueueMessage(String id, String body, String receiptHandle) {
+        this(id, body, receiptHandle, 0);
+    }
+}
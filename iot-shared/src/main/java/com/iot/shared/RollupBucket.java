@@ -0,0 +1,26 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Statistics of one pair over one period (day, week or month) of a PairRollup:
+ * the daily summaries of the period, as RunningStats so that buckets merge.
+ */
+public record RollupBucket(
+        @JsonProperty("duration") RunningStats duration,
+        @JsonProperty("packets") RunningStats packets
+) {
+    public static final RollupBucket EMPTY = new RollupBucket(RunningStats.EMPTY, RunningStats.EMPTY);
+
+    public RollupBucket add(long flowDuration, long fwdPackets) {
+        return new RollupBucket(duration.add(flowDuration), packets.add(fwdPackets));
+    }
+
+    public RollupBucket merge(RollupBucket other) {
+        return new RollupBucket(duration.merge(other.duration), packets.merge(other.packets));
+    }
+
+    public long count() {
+        return duration.count();
+    }
+}
@@ -0,0 +1,36 @@
+package com.iot.shared;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buckets to add to one rollup object (RollupStore key), per summary (interim key)
+ * they come from, so that the object can skip the summaries its ledger has already
+ * applied. Same role as PairDelta for the states.
+ */
+public record RollupDelta(PairKey pair, String key, Map<String, PairRollup> bySummary) {
+
+    /** Summaries of this delta that the ledger does not list yet. No side effect. */
+    public List<String> unapplied(SummaryLedger ledger) {
+        List<String> keys = new ArrayList<>(bySummary.size());
+        for (String summaryKey : bySummary.keySet()) {
+            if (!ledger.contains(summaryKey)) {
+                keys.add(summaryKey);
+            }
+        }
+        return keys;
+    }
+
+    /** Adds the buckets of the given summaries to a rollup. */
+    public PairRollup applyTo(PairRollup rollup, Collection<String> keys) {
+        for (String summaryKey : keys) {
+            PairRollup contribution = bySummary.get(summaryKey);
+            if (contribution != null) {
+                rollup = rollup.merge(contribution);
+            }
+        }
+        return rollup;
+    }
+}
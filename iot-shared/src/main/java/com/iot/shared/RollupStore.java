@@ -0,0 +1,100 @@
+package com.iot.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.function.UnaryOperator;
+
+/**
+ * Time rollups of the pairs, under rollups/ in bucket-state:
+ * - rollups/&lt;src&gt;_&lt;dst&gt;/&lt;yyyy-MM&gt;.json : day and week buckets of one month
+ * - rollups/&lt;src&gt;_&lt;dst&gt;/&lt;yyyy&gt;.json    : month buckets of one year
+ *
+ * A range query reads the year objects for its whole months and at most two month
+ * objects for its partial months at both ends, whatever the length of the history.
+ * The content is JSON or Smile (wire.format), detected when read. Updates are
+ * conditional writes (OptimisticUpdate), safe with several consolidators.
+ */
+public class RollupStore {
+
+    public static final String PREFIX = "rollups/";
+
+    private final ObjectStore objects;
+    private final String bucket;
+    private final OptimisticUpdate updates;
+
+    public RollupStore(ObjectStore objects, String bucket) {
+        this(objects, bucket, OptimisticUpdate.fromConfig(objects));
+    }
+
+    public RollupStore(ObjectStore objects, String bucket, OptimisticUpdate updates) {
+        this.objects = objects;
+        this.bucket = bucket;
+        this.updates = updates;
+    }
+
+    public static RollupStore fromConfig(ObjectStore objects) {
+        return new RollupStore(objects, ConfigLoader.getBucketState());
+    }
+
+    /** Object holding the day and week buckets of a month. */
+    public static String monthKey(PairKey pair, YearMonth month) {
+        return pairPrefix(pair) + month + ".json";
+    }
+
+    /** Object holding the month buckets of a year. */
+    public static String yearKey(PairKey pair, int year) {
+        return pairPrefix(pair) + String.format("%04d", year) + ".json";
+    }
+
+    public static String pairPrefix(PairKey pair) {
+        return PREFIX + pair.srcIp() + "_" + pair.dstIp() + "/";
+    }
+
+    /**
+     * Date of a summary, or null when it is not a yyyy-MM-dd date (such rows still
+     * count in the all-time state, but belong to no period).
+     */
+    public static LocalDate dateOf(IntermediateSummary summary) {
+        try {
+            return LocalDate.parse(summary.date());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Loads a rollup object; a missing object is an empty rollup. */
+    public PairRollup load(PairKey pair, String key) {
+        try (InputStream stream = objects.open(bucket, key)) {
+            if (stream == null) {
+                return PairRollup.empty(pair);
+            }
+            return JsonUtils.fromJson(stream, PairRollup.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + key, e);
+        }
+    }
+
+    /**
+     * Applies a change to a rollup object with a conditional write, re-reading it on
+     * conflict, and returns the written rollup with its ETag.
+     *
+     * @param known last version written by this process, or null to read it first
+     */
+    public Versioned<PairRollup> update(PairKey pair, String key, Versioned<PairRollup> known,
+                                        UnaryOperator<PairRollup> change) {
+        return updates.apply(bucket, key, known, new OptimisticUpdate.Codec<>() {
+            @Override
+            public PairRollup decode(byte[] data) {
+                return data == null ? PairRollup.empty(pair) : JsonUtils.fromBytes(data, PairRollup.class);
+            }
+
+            @Override
+            public byte[] encode(PairRollup rollup) {
+                // Keys stay *.json whatever the wire format: readers detect Smile content
+                return JsonUtils.toBytes(rollup);
+            }
+        }, change);
+    }
+}
@@ -0,0 +1,67 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Mergeable running statistics of a series: count, mean and M2 (sum of squared
+ * deviations from the mean), plus min and max.
+ *
+ * add() uses Welford's update and merge() the parallel formula of Chan et al., so
+ * partial results built on different threads, workers or segments can be combined
+ * in any order without the cancellation of E[X^2] - E[X]^2.
+ * min/max are NaN when unknown (states converted from the sums-of-squares format).
+ */
+public record RunningStats(
+        @JsonProperty("n") long count,
+        @JsonProperty("mean") double mean,
+        @JsonProperty("m2") double m2,
+        @JsonProperty("min") double min,
+        @JsonProperty("max") double max
+) {
+    public static final RunningStats EMPTY = new RunningStats(0, 0.0, 0.0, Double.NaN, Double.NaN);
+
+    public RunningStats add(double x) {
+        if (count == 0) {
+            return new RunningStats(1, x, 0.0, x, x);
+        }
+        long n = count + 1;
+        double delta = x - mean;
+        double newMean = mean + delta / n;
+        return new RunningStats(n, newMean, m2 + delta * (x - newMean), Math.min(min, x), Math.max(max, x));
+    }
+
+    public RunningStats merge(RunningStats other) {
+        if (other.count == 0) return this;
+        if (count == 0) return other;
+
+        long n = count + other.count;
+        double delta = other.mean - mean;
+        double newMean = mean + delta * ((double) other.count / n);
+        double newM2 = m2 + other.m2 + delta * delta * ((double) count * other.count / n);
+        return new RunningStats(n, newMean, newM2, Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    /**
+     * Conversion from the former representation (N, sum, sum of squares).
+     */
+    public static RunningStats fromSums(long count, double sum, double sumSq) {
+        if (count <= 0) return EMPTY;
+        double mean = sum / count;
+        // Clamp: the old representation can yield a slightly negative M2
+        double m2 = Math.max(0.0, sumSq - sum * mean);
+        return new RunningStats(count, mean, m2, Double.NaN, Double.NaN);
+    }
+
+    // Population variance, as reported historically
+    public double variance() {
+        return count > 0 ? m2 / count : 0.0;
+    }
+
+    public double stdDev() {
+        return Math.sqrt(Math.max(0.0, variance()));
+    }
+
+    public double sum() {
+        return mean * count;
+    }
+}
@@ -0,0 +1,154 @@
+package com.iot.shared;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Streams an object of unknown length to S3 as a multipart upload, one part per
+ * filled buffer. Parts are sent on the store's part pool while the next buffer
+ * fills, with at most `maxInFlight` parts (and buffers) per stream. Objects
+ * smaller than one part are sent with a single PutObject.
+ *
+ * close() only stops accepting data: the owner calls complete() once the whole
+ * body has been written, or abort() to discard the uploaded parts.
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final ExecutorService partPool;
+    private final int maxInFlight;
+
+    private final Deque<PendingPart> inFlight = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+    private final List<CompletedPart> parts = new ArrayList<>();
+    private byte[] buffer;
+    private int count;
+    private int nextPartNumber = 1;
+    private String uploadId;
+    private boolean closed;
+
+    private static final class PendingPart {
+        final byte[] buffer;
+        final Future<CompletedPart> result;
+
+        PendingPart(byte[] buffer, Future<CompletedPart> result) {
+            this.buffer = buffer;
+            this.result = result;
+        }
+    }
+
+    S3MultipartOutputStream(S3Client s3, String bucket, String key, int partSize,
+                            ExecutorService partPool, int maxInFlight) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.partPool = partPool;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureOpen();
+        if (count == buffer.length) sendPart();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureOpen();
+        while (len > 0) {
+            if (count == buffer.length) sendPart();
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("Stream closed: " + key);
+    }
+
+    private void sendPart() {
+        if (uploadId == null) {
+            uploadId = s3.createMultipartUpload(b -> b.bucket(bucket).key(key)).uploadId();
+        }
+        // 1. Bound the memory: wait for the oldest part before taking another buffer
+        while (inFlight.size() >= maxInFlight) {
+            awaitOldest();
+        }
+
+        // 2. Hand the filled buffer to the part pool
+        byte[] data = buffer;
+        int length = count;
+        int partNumber = nextPartNumber++;
+        String id = uploadId;
+        Future<CompletedPart> result = partPool.submit(() -> {
+            String eTag = s3.uploadPart(b -> b.bucket(bucket).key(key).uploadId(id).partNumber(partNumber),
+                    RequestBody.fromByteBuffer(ByteBuffer.wrap(data, 0, length))).eTag();
+            return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+        });
+        inFlight.add(new PendingPart(data, result));
+
+        // 3. Keep filling in a recycled buffer
+        buffer = freeBuffers.isEmpty() ? new byte[partSize] : freeBuffers.poll();
+        count = 0;
+    }
+
+    private void awaitOldest() {
+        PendingPart part = inFlight.poll();
+        parts.add(S3ObjectStore.await(part.result));
+        freeBuffers.add(part.buffer);
+    }
+
+    /** Sends the buffered tail and makes the object visible. */
+    void complete() {
+        closed = true;
+        if (uploadId == null) {
+            s3.putObject(b -> b.bucket(bucket).key(key), RequestBody.fromByteBuffer(ByteBuffer.wrap(buffer, 0, count)));
+            return;
+        }
+        if (count > 0) sendPart();
+        while (!inFlight.isEmpty()) {
+            awaitOldest();
+        }
+        s3.completeMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                .multipartUpload(m -> m.parts(parts)));
+    }
+
+    /** Discards the parts already uploaded (they are billed until aborted). */
+    void abort() {
+        closed = true;
+        for (PendingPart part : inFlight) {
+            part.result.cancel(true);
+        }
+        inFlight.clear();
+        if (uploadId == null) return;
+        try {
+            s3.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+        } catch (RuntimeException e) {
+            System.err.println("Failed to abort multipart upload of " + key + ": " + e.getMessage());
+        }
+    }
+}
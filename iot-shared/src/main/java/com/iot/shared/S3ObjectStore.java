@@ -0,0 +1,349 @@
+package com.iot.shared;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ObjectStore on Amazon S3.
+ *
+ * Files from multipartThreshold on are uploaded as multipart uploads whose parts
+ * are sent concurrently on a shared part pool. An interrupted upload is left
+ * pending: uploading the same key again resumes it, sending only the missing parts.
+ * (A lifecycle rule AbortIncompleteMultipartUpload cleans up the abandoned ones.)
+ */
+public class S3ObjectStore implements ObjectStore {
+
+    // S3 limit for DeleteObjects
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    // S3 limit of parts per multipart upload
+    private static final int MAX_PARTS = 10_000;
+
+    // Parts of a streamed write uploading while the next one is buffered
+    private static final int STREAM_PARTS_IN_FLIGHT = 2;
+
+    private final S3Client s3;
+    private final int partSize;
+    private final long multipartThreshold;
+    private final ExecutorService partPool;
+
+    public S3ObjectStore(S3Client s3, int partSize, long multipartThreshold, int partConcurrency) {
+        this.s3 = s3;
+        this.partSize = partSize;
+        this.multipartThreshold = multipartThreshold;
+        this.partPool = Executors.newFixedThreadPool(partConcurrency, task -> {
+            Thread thread = new Thread(task, "s3-part-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public InputStream open(String bucket, String key) {
+        try {
+            return s3.getObject(b -> b.bucket(bucket).key(key));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream open(String bucket, String key, long offset) {
+        try {
+            return new AbortOnClose(s3.getObject(b -> b.bucket(bucket).key(key).range("bytes=" + offset + "-")));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] read(String bucket, String key) {
+        try {
+            return s3.getObjectAsBytes(b -> b.bucket(bucket).key(key)).asByteArrayUnsafe();
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, byte[] data) {
+        s3.putObject(b -> b.bucket(bucket).key(key), RequestBody.fromBytes(data));
+    }
+
+    @Override
+    public boolean exists(String bucket, String key) {
+        try {
+            s3.headObject(b -> b.bucket(bucket).key(key));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Versioned<byte[]> readVersioned(String bucket, String key) {
+        try {
+            ResponseBytes<GetObjectResponse> object = s3.getObjectAsBytes(b -> b.bucket(bucket).key(key));
+            return new Versioned<>(object.asByteArrayUnsafe(), object.response().eTag());
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String writeIfMatch(String bucket, String key, byte[] data, String expectedEtag) {
+        try {
+            return s3.putObject(b -> {
+                b.bucket(bucket).key(key);
+                if (expectedEtag == null) {
+                    b.ifNoneMatch("*");
+                } else {
+                    b.ifMatch(expectedEtag);
+                }
+            }, RequestBody.fromBytes(data)).eTag();
+        } catch (S3Exception e) {
+            // 412: ETag changed (or object created), 409: concurrent conditional write,
+            // 404: object deleted since it was read
+            int status = e.statusCode();
+            if (status == 412 || status == 409 || status == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void upload(String bucket, String key, Path file) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (size < multipartThreshold) {
+            s3.putObject(b -> b.bucket(bucket).key(key), file);
+        } else {
+            uploadMultipart(bucket, key, file, size);
+        }
+    }
+
+    private void uploadMultipart(String bucket, String key, Path file, long size) {
+        // Larger parts for files that would exceed the part count limit
+        long partLength = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) ((size + partLength - 1) / partLength);
+
+        // 1. Resume the pending upload of this key, keeping the parts of the right size
+        Map<Integer, CompletedPart> completed = new TreeMap<>();
+        String pending = pendingUpload(bucket, key);
+        if (pending != null) {
+            for (Part part : s3.listPartsPaginator(b -> b.bucket(bucket).key(key).uploadId(pending)).parts()) {
+                int n = part.partNumber();
+                if (n <= partCount && part.size() == partLength(n, partLength, size)) {
+                    completed.put(n, CompletedPart.builder().partNumber(n).eTag(part.eTag()).build());
+                }
+            }
+            System.out.println("Resuming upload of " + key + ": " + completed.size() + "/" + partCount
+                    + " parts already stored");
+        }
+        String uploadId = pending != null ? pending
+                : s3.createMultipartUpload(b -> b.bucket(bucket).key(key)).uploadId();
+
+        // 2. Missing parts in parallel, each read from its own slice of the file
+        List<Future<CompletedPart>> results = new ArrayList<>();
+        for (int n = 1; n <= partCount; n++) {
+            if (completed.containsKey(n)) continue;
+            int partNumber = n;
+            long offset = (n - 1) * partLength;
+            long length = partLength(n, partLength, size);
+            results.add(partPool.submit(() -> {
+                RequestBody body = RequestBody.fromContentProvider(
+                        () -> openSlice(file, offset, length), length, "application/octet-stream");
+                String eTag = s3.uploadPart(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                        .partNumber(partNumber).contentLength(length), body).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            }));
+        }
+        try {
+            for (Future<CompletedPart> result : results) {
+                CompletedPart part = await(result);
+                completed.put(part.partNumber(), part);
+            }
+        } catch (RuntimeException e) {
+            // Not aborted: the next upload of this key resumes from the stored parts
+            results.forEach(r -> r.cancel(true));
+            throw e;
+        }
+
+        // 3. Assemble the object
+        s3.completeMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                .multipartUpload(m -> m.parts(completed.values())));
+    }
+
+    private static long partLength(int partNumber, long partLength, long size) {
+        return Math.min(partLength, size - (partNumber - 1) * partLength);
+    }
+
+    // Most recent multipart upload started for exactly this key, or null
+    private String pendingUpload(String bucket, String key) {
+        return s3.listMultipartUploadsPaginator(b -> b.bucket(bucket).prefix(key)).uploads().stream()
+                .filter(u -> u.key().equals(key))
+                .max(Comparator.comparing(MultipartUpload::initiated))
+                .map(MultipartUpload::uploadId)
+                .orElse(null);
+    }
+
+    private static InputStream openSlice(Path file, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(offset);
+            return new LimitedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Result of a part upload, with the S3 exception rethrown as is. */
+    static <T> T await(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while uploading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void write(String bucket, String key, BodyWriter body) {
+        S3MultipartOutputStream out = new S3MultipartOutputStream(s3, bucket, key, partSize,
+                partPool, STREAM_PARTS_IN_FLIGHT);
+        try {
+            body.writeTo(out);
+            out.complete();
+        } catch (IOException e) {
+            out.abort();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            out.abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String bucket, Collection<String> keys) {
+        List<String> all = new ArrayList<>(keys);
+        for (int from = 0; from < all.size(); from += DELETE_BATCH_SIZE) {
+            List<ObjectIdentifier> ids = new ArrayList<>();
+            for (String key : all.subList(from, Math.min(all.size(), from + DELETE_BATCH_SIZE))) {
+                ids.add(ObjectIdentifier.builder().key(key).build());
+            }
+            DeleteObjectsResponse response = s3.deleteObjects(b -> b.bucket(bucket)
+                    .delete(d -> d.objects(ids).quiet(true)));
+            for (S3Error error : response.errors()) {
+                System.err.println("Failed to delete " + error.key() + ": " + error.message());
+            }
+        }
+    }
+
+    @Override
+    public Iterable<StoredObject> list(String bucket, String prefix, String startAfter) {
+        // Follows continuation tokens lazily
+        return () -> s3.listObjectsV2Paginator(b -> b.bucket(bucket).prefix(prefix).startAfter(startAfter))
+                .contents().stream()
+                .map(obj -> new StoredObject(obj.key(), obj.size()))
+                .iterator();
+    }
+
+    /**
+     * Aborts the HTTP connection when closed before the end of the body, instead
+     * of draining the rest of a possibly huge object.
+     */
+    private static final class AbortOnClose extends FilterInputStream {
+
+        private final ResponseInputStream<GetObjectResponse> response;
+
+        AbortOnClose(ResponseInputStream<GetObjectResponse> response) {
+            super(response);
+            this.response = response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            response.abort();
+            super.close();
+        }
+    }
+
+    /** Reads at most `remaining` bytes of a file slice. */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.iot.shared;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Packed layout: pairs are sharded by stable hash into a fixed number of binary
+ * segments, segments/seg-NNNNN.bin (see StateSegment for the file format).
+ *
+ * Writes are a read/modify/write of the whole segment, written back with a
+ * conditional PUT on the ETag read (OptimisticUpdate): another consolidator
+ * updating the same segment makes the write fail and the change is re-applied,
+ * so no instance loses the other's pairs. Segments are also locked in-process, so
+ * threads of one consolidator do not conflict with each other.
+ * The segment trailer holds the ledger of the summaries merged into the segment: a
+ * message is merged into all its pairs of a segment in one write, so one ledger
+ * per segment is enough to skip replays.
+ */
+public class SegmentStateStore implements StateStore {
+
+    public static final String PREFIX = "segments/";
+
+    // Contributions of summaries the ledger had already applied (replays)
+    private static final LongAdder REPLAYS_SKIPPED = Metrics.counter("consolidate.replays.skipped");
+
+    /** Decoded content of a segment. */
+    private record Segment(Map<PairKey, TrafficState> states, SummaryLedger ledger) {}
+
+    private static final OptimisticUpdate.Codec<Segment> SEGMENT_CODEC =
+            new OptimisticUpdate.Codec<>() {
+                @Override
+                public Segment decode(byte[] data) {
+                    return data == null ? new Segment(Map.of(), SummaryLedger.EMPTY)
+                            : new Segment(StateSegment.decodeAll(data), StateSegment.ledger(data));
+                }
+
+                @Override
+                public byte[] encode(Segment segment) {
+                    return StateSegment.encode(segment.states().values(), segment.ledger());
+                }
+            };
+
+    private final ObjectStore objects;
+    private final String bucket;
+    private final int segments;
+    private final OptimisticUpdate updates;
+    private final Object[] locks;
+
+    public SegmentStateStore(ObjectStore objects, String bucket, int segments) {
+        this(objects, bucket, segments, OptimisticUpdate.fromConfig(objects));
+    }
+
+    public SegmentStateStore(ObjectStore objects, String bucket, int segments, OptimisticUpdate updates) {
+        this.objects = objects;
+        this.bucket = bucket;
+        this.segments = segments;
+        this.updates = updates;
+        this.locks = new Object[segments];
+        for (int i = 0; i < segments; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private int segmentOf(PairKey pair) {
+        return (int) Long.remainderUnsigned(pair.stableHash(), segments);
+    }
+
+    private static String segmentKey(int segment) {
+        return String.format("%sseg-%05d.bin", PREFIX, segment);
+    }
+
+    @Override
+    public String partitionOf(PairKey pair) {
+        return segmentKey(segmentOf(pair));
+    }
+
+    @Override
+    public Map<PairKey, TrafficState> loadAll(Collection<PairKey> pairs) {
+        // One GET per segment, then indexed lookups
+        Map<Integer, List<PairKey>> bySegment = new LinkedHashMap<>();
+        for (PairKey pair : pairs) {
+            bySegment.computeIfAbsent(segmentOf(pair), k -> new ArrayList<>()).add(pair);
+        }
+
+        Map<PairKey, TrafficState> states = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<PairKey>> group : bySegment.entrySet()) {
+            byte[] data = objects.read(bucket, segmentKey(group.getKey()));
+            for (PairKey pair : group.getValue()) {
+                TrafficState state = data == null ? null : StateSegment.find(data, pair);
+                states.put(pair, state != null ? state : TrafficState.empty(pair.srcIp(), pair.dstIp()));
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public void saveAll(Collection<TrafficState> states) {
+        Map<Integer, List<TrafficState>> bySegment = new LinkedHashMap<>();
+        for (TrafficState state : states) {
+            bySegment.computeIfAbsent(segmentOf(PairKey.of(state)), k -> new ArrayList<>()).add(state);
+        }
+        for (Map.Entry<Integer, List<TrafficState>> group : bySegment.entrySet()) {
+            update(group.getKey(), segment -> {
+                Map<PairKey, TrafficState> content = new LinkedHashMap<>(segment.states());
+                for (TrafficState state : group.getValue()) {
+                    content.put(PairKey.of(state), state);
+                }
+                return new Segment(content, segment.ledger());
+            });
+        }
+    }
+
+    @Override
+    public Map<PairKey, TrafficState> mergeAll(Collection<PairDelta> deltas) {
+        Map<Integer, List<PairDelta>> bySegment = new LinkedHashMap<>();
+        for (PairDelta delta : deltas) {
+            bySegment.computeIfAbsent(segmentOf(delta.pair()), k -> new ArrayList<>()).add(delta);
+        }
+
+        Map<PairKey, TrafficState> merged = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<PairDelta>> group : bySegment.entrySet()) {
+            int[] skipped = new int[1]; // Of the attempt that was written
+            Segment written = update(group.getKey(), segment -> {
+                // Summaries already in the ledger are skipped for every pair of the segment
+                Map<PairKey, TrafficState> content = new LinkedHashMap<>(segment.states());
+                Set<String> fresh = new LinkedHashSet<>();
+                skipped[0] = 0;
+                for (PairDelta delta : group.getValue()) {
+                    List<String> keys = delta.unapplied(segment.ledger());
+                    skipped[0] += delta.bySummary().size() - keys.size();
+                    TrafficState current = content.getOrDefault(delta.pair(),
+                            TrafficState.empty(delta.pair().srcIp(), delta.pair().dstIp()));
+                    content.put(delta.pair(), delta.applyTo(current, keys));
+                    fresh.addAll(keys);
+                }
+                return new Segment(content, segment.ledger().withApplied(fresh));
+            });
+            REPLAYS_SKIPPED.add(skipped[0]);
+            for (PairDelta delta : group.getValue()) {
+                merged.put(delta.pair(), written.states().get(delta.pair()));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Read / modify / conditional write of a whole segment; the change is applied to
+     * the fresh content on every attempt. Returns the content written.
+     */
+    private Segment update(int segment, UnaryOperator<Segment> change) {
+        synchronized (locks[segment]) {
+            return updates.apply(bucket, segmentKey(segment), null, SEGMENT_CODEC, change).value();
+        }
+    }
+
+    @Override
+    public void forEach(int parallelism, Consumer<TrafficState> visitor) {
+        ObjectScanner.scan(objects, bucket, PREFIX, parallelism,
+                in -> StateSegment.decodeAll(in.readAllBytes()).values(), visitor);
+    }
+}
@@ -0,0 +1,123 @@
+package com.iot.shared;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MessageQueue on Amazon SQS. Sends, deletes and visibility changes use the batch APIs.
+ */
+public class SqsMessageQueue implements MessageQueue {
+
+    // SQS limit for SendMessageBatch / DeleteMessageBatch
+    private static final int BATCH_SIZE = 10;
+    private static final int MAX_SEND_ATTEMPTS = 3;
+
+    private final SqsClient sqs;
+
+    public SqsMessageQueue(SqsClient sqs) {
+        this.sqs = sqs;
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue, int maxMessages, int waitSeconds) {
+        List<QueueMessage> received = new ArrayList<>();
+        for (Message msg : sqs.receiveMessage(b -> b.queueUrl(queue)
+                .maxNumberOfMessages(maxMessages)
+                .waitTimeSeconds(waitSeconds)
+                .messageSystemAttributeNames(MessageSystemAttributeName.SENT_TIMESTAMP)).messages()) {
+            String sentAt = msg.attributes().get(MessageSystemAttributeName.SENT_TIMESTAMP);
+            received.add(new QueueMessage(msg.messageId(), msg.body(), msg.receiptHandle(),
+                    sentAt != null ? Long.parseLong(sentAt) : 0));
+        }
+        return received;
+    }
+
+    @Override
+    public void send(String queue, List<OutgoingMessage> messages) {
+        for (int from = 0; from < messages.size(); from += BATCH_SIZE) {
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (OutgoingMessage msg : messages.subList(from, Math.min(messages.size(), from + BATCH_SIZE))) {
+                entries.add(SendMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(entries.size()))
+                        .messageBody(msg.body())
+                        .messageGroupId(msg.groupId())
+                        .messageDeduplicationId(msg.deduplicationId())
+                        .build());
+            }
+            sendBatch(queue, entries);
+        }
+    }
+
+    private void sendBatch(String queue, List<SendMessageBatchRequestEntry> entries) {
+        List<SendMessageBatchRequestEntry> toSend = entries;
+        for (int attempt = 1; ; attempt++) {
+            List<SendMessageBatchRequestEntry> batch = toSend;
+            SendMessageBatchResponse response = sqs.sendMessageBatch(b -> b.queueUrl(queue).entries(batch));
+            if (response.failed().isEmpty()) return;
+
+            if (attempt == MAX_SEND_ATTEMPTS) {
+                throw new IllegalStateException("SendMessageBatch failed for " + response.failed().size()
+                        + " entries: " + response.failed().get(0).message());
+            }
+            // Retry only the failed entries (consolidation is additive, order is not significant)
+            Set<String> failedIds = new HashSet<>();
+            for (BatchResultErrorEntry failed : response.failed()) {
+                failedIds.add(failed.id());
+            }
+            List<SendMessageBatchRequestEntry> retry = new ArrayList<>();
+            for (SendMessageBatchRequestEntry entry : toSend) {
+                if (failedIds.contains(entry.id())) retry.add(entry);
+            }
+            toSend = retry;
+        }
+    }
+
+    @Override
+    public void delete(String queue, List<QueueMessage> messages) {
+        for (int from = 0; from < messages.size(); from += BATCH_SIZE) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (QueueMessage msg : messages.subList(from, Math.min(messages.size(), from + BATCH_SIZE))) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(entries.size()))
+                        .receiptHandle(msg.receiptHandle())
+                        .build());
+            }
+            DeleteMessageBatchResponse response = sqs.deleteMessageBatch(b -> b.queueUrl(queue).entries(entries));
+            for (BatchResultErrorEntry error : response.failed()) {
+                System.err.println("Failed to acknowledge message " + error.id() + ": " + error.message());
+            }
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queue, List<QueueMessage> messages, int timeoutSeconds) {
+        for (int from = 0; from < messages.size(); from += BATCH_SIZE) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (QueueMessage msg : messages.subList(from, Math.min(messages.size(), from + BATCH_SIZE))) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(entries.size()))
+                        .receiptHandle(msg.receiptHandle())
+                        .visibilityTimeout(timeoutSeconds)
+                        .build());
+            }
+            ChangeMessageVisibilityBatchResponse response = sqs.changeMessageVisibilityBatch(
+                    b -> b.queueUrl(queue).entries(entries));
+            for (BatchResultErrorEntry error : response.failed()) {
+                System.err.println("Failed to extend visibility of message " + error.id() + ": " + error.message());
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.iot.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary codec of a state segment, a file packing many TrafficState records.
+ *
+ * Layout (big-endian):
+ *   header  : magic "IOTS" (4) | version (2) | record count (4)
+ *   index   : count x [pair hash (8) | record offset (4)], sorted by hash
+ *   records : src (2 + UTF-8) | dst (2 + UTF-8) | duration stats (40) | packets stats (40)
+ *   stats   : count (8) | mean | m2 | min | max (4 x double)
+ *   trailer : SummaryLedger of the segment (Smile) | its length (4), 0 when empty
+ *
+ * Version 2 segments have no trailer (empty ledger). Version 1 records (count (8) |
+ * sum, sum of squares for duration then packets) are still decoded, through
+ * TrafficState.fromSums.
+ * The index allows a lookup by binary search without decoding the other records.
+ */
+public final class StateSegment {
+
+    static final int MAGIC = 0x494F5453; // "IOTS"
+    static final short VERSION = 3;
+    static final short VERSION_NO_LEDGER = 2;
+    static final short VERSION_SUMS = 1;
+
+    private static final int HEADER_SIZE = 10;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int STATS_SIZE = 8 + 4 * 8;
+
+    private StateSegment() {}
+
+    public static byte[] encode(Collection<TrafficState> states) {
+        return encode(states, SummaryLedger.EMPTY);
+    }
+
+    public static byte[] encode(Collection<TrafficState> states, SummaryLedger ledger) {
+        // 1. Sort by pair hash so the index can be binary searched
+        List<TrafficState> sorted = new ArrayList<>(states);
+        Map<TrafficState, Long> hashOf = new java.util.IdentityHashMap<>();
+        for (TrafficState s : sorted) {
+            hashOf.put(s, PairKey.of(s).stableHash());
+        }
+        sorted.sort((a, b) -> Long.compare(hashOf.get(a), hashOf.get(b)));
+
+        long[] hashes = new long[sorted.size()];
+        List<byte[]> srcs = new ArrayList<>(sorted.size());
+        List<byte[]> dsts = new ArrayList<>(sorted.size());
+        int dataSize = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            TrafficState s = sorted.get(i);
+            hashes[i] = hashOf.get(s);
+            byte[] src = s.srcIp().getBytes(StandardCharsets.UTF_8);
+            byte[] dst = s.dstIp().getBytes(StandardCharsets.UTF_8);
+            srcs.add(src);
+            dsts.add(dst);
+            dataSize += 2 + src.length + 2 + dst.length + 2 * STATS_SIZE;
+        }
+
+        // 2. Header, index, records, then the ledger
+        byte[] ledgerData = ledger.recent().length == 0 && ledger.bloom().isEmpty()
+                ? new byte[0] : JsonUtils.toBytes(ledger, JsonUtils.FORMAT_SMILE);
+        int indexEnd = HEADER_SIZE + sorted.size() * INDEX_ENTRY_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate(indexEnd + dataSize + ledgerData.length + 4);
+        buf.putInt(MAGIC).putShort(VERSION).putInt(sorted.size());
+
+        int offset = indexEnd;
+        for (int i = 0; i < sorted.size(); i++) {
+            buf.putLong(hashes[i]).putInt(offset);
+            offset += 2 + srcs.get(i).length + 2 + dsts.get(i).length + 2 * STATS_SIZE;
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            TrafficState s = sorted.get(i);
+            buf.putShort((short) srcs.get(i).length).put(srcs.get(i));
+            buf.putShort((short) dsts.get(i).length).put(dsts.get(i));
+            putStats(buf, s.duration());
+            putStats(buf, s.packets());
+        }
+        buf.put(ledgerData).putInt(ledgerData.length);
+        return buf.array();
+    }
+
+    private static void putStats(ByteBuffer buf, RunningStats stats) {
+        buf.putLong(stats.count());
+        buf.putDouble(stats.mean()).putDouble(stats.m2());
+        buf.putDouble(stats.min()).putDouble(stats.max());
+    }
+
+    public static Map<PairKey, TrafficState> decodeAll(byte[] data) {
+        ByteBuffer buf = header(data);
+        short version = buf.getShort(4);
+        int count = buf.getInt();
+        Map<PairKey, TrafficState> states = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int offset = buf.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8);
+            TrafficState state = readRecord(buf, offset, version);
+            states.put(PairKey.of(state), state);
+        }
+        return states;
+    }
+
+    /** Ledger of the summaries applied to the segment (empty before version 3). */
+    public static SummaryLedger ledger(byte[] data) {
+        ByteBuffer buf = header(data);
+        if (buf.getShort(4) != VERSION) {
+            return SummaryLedger.EMPTY;
+        }
+        int length = buf.getInt(data.length - 4);
+        if (length == 0) {
+            return SummaryLedger.EMPTY;
+        }
+        return JsonUtils.fromBytes(Arrays.copyOfRange(data, data.length - 4 - length, data.length - 4),
+                SummaryLedger.class);
+    }
+
+    /** Finds one pair through the index, or returns null. */
+    public static TrafficState find(byte[] data, PairKey pair) {
+        ByteBuffer buf = header(data);
+        short version = buf.getShort(4);
+        int count = buf.getInt();
+        long hash = pair.stableHash();
+
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midHash = buf.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midHash < hash) {
+                lo = mid + 1;
+            } else if (midHash > hash) {
+                hi = mid - 1;
+            } else {
+                // Walk back to the first entry with this hash, then check each collision
+                while (mid > 0 && buf.getLong(HEADER_SIZE + (mid - 1) * INDEX_ENTRY_SIZE) == hash) mid--;
+                for (int i = mid; i < count && buf.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE) == hash; i++) {
+                    TrafficState state = readRecord(buf, buf.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8), version);
+                    if (state.srcIp().equals(pair.srcIp()) && state.dstIp().equals(pair.dstIp())) {
+                        return state;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer header(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a state segment");
+        }
+        short version = buf.getShort();
+        if (version != VERSION && version != VERSION_NO_LEDGER && version != VERSION_SUMS) {
+            throw new IllegalArgumentException("Unsupported state segment version: " + version);
+        }
+        return buf;
+    }
+
+    private static TrafficState readRecord(ByteBuffer buf, int offset, short version) {
+        ByteBuffer r = buf.duplicate();
+        r.position(offset);
+        String src = readString(r);
+        String dst = readString(r);
+        if (version == VERSION_SUMS) {
+            return TrafficState.fromSums(src, dst, r.getLong(),
+                    r.getDouble(), r.getDouble(), r.getDouble(), r.getDouble());
+        }
+        return new TrafficState(src, dst, readStats(r), readStats(r));
+    }
+
+    private static RunningStats readStats(ByteBuffer r) {
+        return new RunningStats(r.getLong(), r.getDouble(), r.getDouble(), r.getDouble(), r.getDouble());
+    }
+
+    private static String readString(ByteBuffer r) {
+        int len = Short.toUnsignedInt(r.getShort());
+        String value = new String(r.array(), r.position(), len, StandardCharsets.UTF_8);
+        r.position(r.position() + len);
+        return value;
+    }
+}
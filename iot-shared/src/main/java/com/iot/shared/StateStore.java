@@ -0,0 +1,78 @@
+package com.iot.shared;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the TrafficState records in bucket-state.
+ *
+ * Two layouts are available (config state.layout):
+ * - "pair": one JSON object per Src-Dst pair under state/ (historical layout)
+ * - "segment": pairs sharded by hash into binary segment files under segments/
+ */
+public interface StateStore {
+
+    String LAYOUT_PAIR = "pair";
+    String LAYOUT_SEGMENT = "segment";
+
+    /**
+     * Name of the object holding this pair. Pairs of the same partition are read and
+     * written together, so callers group by partition to isolate failures.
+     */
+    String partitionOf(PairKey pair);
+
+    /**
+     * Loads the given pairs. Pairs never saved come back as TrafficState.empty.
+     */
+    Map<PairKey, TrafficState> loadAll(Collection<PairKey> pairs);
+
+    /**
+     * Writes the given states, replacing the stored ones. The segment layout does a
+     * read/modify/write of each touched segment: one GET and one PUT, whatever the
+     * number of pairs in it.
+     */
+    void saveAll(Collection<TrafficState> states);
+
+    /**
+     * Adds the given deltas to the stored states (TrafficState.merge) and returns
+     * the resulting states. Every object is written with a conditional PUT on the
+     * ETag it was computed from and re-merged on conflict (OptimisticUpdate), so any
+     * number of consolidators can update the same bucket without losing updates.
+     *
+     * Each object keeps a SummaryLedger of the summaries it includes (per pair
+     * object, or per segment); contributions of a summary already listed are
+     * skipped, so a replayed message is applied exactly once.
+     */
+    Map<PairKey, TrafficState> mergeAll(Collection<PairDelta> deltas);
+
+    /**
+     * Visits every stored state.
+     */
+    default void forEach(Consumer<TrafficState> visitor) {
+        forEach(1, visitor);
+    }
+
+    /**
+     * Visits every stored state, downloading up to `parallelism` objects concurrently.
+     * With parallelism > 1 the visitor must be thread-safe.
+     */
+    void forEach(int parallelism, Consumer<TrafficState> visitor);
+
+    static StateStore create(String layout, ObjectStore objects, String bucket) {
+        switch (layout) {
+            case LAYOUT_PAIR:
+                return new PairStateStore(objects, bucket, OptimisticUpdate.fromConfig(objects),
+                        ConfigLoader.getConsolidateCacheMaxEntries());
+            case LAYOUT_SEGMENT:
+                return new SegmentStateStore(objects, bucket, ConfigLoader.getStateSegments(),
+                        OptimisticUpdate.fromConfig(objects));
+            default:
+                throw new IllegalArgumentException("Unknown state layout: " + layout);
+        }
+    }
+
+    static StateStore fromConfig(ObjectStore objects) {
+        return create(ConfigLoader.getStateLayout(), objects, ConfigLoader.getBucketState());
+    }
+}
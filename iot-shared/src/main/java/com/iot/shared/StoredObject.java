@@ -0,0 +1,7 @@
+package com.iot.shared;
+
+/**
+ * Listing entry of an ObjectStore.
+ */
+public record StoredObject(String key, long size) {
+}
@@ -0,0 +1,18 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * A batch of daily summaries sharing the same source IP, extracted from one raw file.
+ * Written once to bucket-interim by SummarizeWorker instead of one object per summary.
+ */
+public record SummaryBatch(
+        @JsonProperty("src_ip") String srcIp,
+        @JsonProperty("summaries") List<IntermediateSummary> summaries
+) {
+    // Interim key prefixes: batched files vs. legacy single-summary files
+    public static final String KEY_PREFIX = "batch-";
+    public static final String LEGACY_KEY_PREFIX = "summary-";
+}
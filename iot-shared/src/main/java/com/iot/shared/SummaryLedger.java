@@ -0,0 +1,151 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ledger of the summaries (interim keys) already applied to a stored object, kept
+ * inside that object so a replayed message is recognized without any extra request.
+ * Keys are kept as their 64-bit hashes only (a collision between two interim keys
+ * is about 2^-64 likely), 8 bytes each instead of the ~45 of a key.
+ *
+ * - recent : hashes of the last applied keys, exact, packed 8 bytes each (base64 in
+ *            JSON, raw in Smile), oldest first
+ * - bloom  : hashes pushed out of recent, in Bloom filter generations (newest first).
+ *            A generation holding `capacity` keys is sealed and a new one started,
+ *            so the false positive rate stays at its design value (about
+ *            0.6185^bitsPerKey). A generation is dropped once its newest key is
+ *            older than the window, never sooner.
+ *
+ * The window is a time, not a number of keys: a replay is recognized as long as it
+ * arrives within the window of the application, however many other summaries went
+ * to the object meanwhile. It must exceed the longest time a message can come back
+ * (visibility timeout times receives, queue retention, redrive from the DLQ); the
+ * size of the ledger then follows the throughput of the object over the window.
+ * A false positive skips a summary that was never applied, so the filter is only
+ * consulted for keys older than the recent window, and sized for a rate far below
+ * any other source of error.
+ * Immutable: withApplied() returns an updated copy.
+ */
+public record SummaryLedger(
+        @JsonProperty("recent") byte[] recent,
+        @JsonProperty("bloom") List<Generation> bloom
+) {
+    /** One Bloom filter generation: keys added, hash functions, time of the last key (ms), bit array. */
+    public record Generation(
+            @JsonProperty("n") int count,
+            @JsonProperty("k") int hashes,
+            @JsonProperty("t") long lastAppliedAt,
+            @JsonProperty("bits") byte[] bits
+    ) {
+        boolean mightContain(long hash) {
+            long m = bits.length * 8L;
+            for (int i = 0; i < hashes; i++) {
+                long bit = probe(hash, i, m);
+                if ((bits[(int) (bit >>> 3)] & (1 << (bit & 7))) == 0) return false;
+            }
+            return true;
+        }
+
+        void set(long hash) {
+            long m = bits.length * 8L;
+            for (int i = 0; i < hashes; i++) {
+                long bit = probe(hash, i, m);
+                bits[(int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+            }
+        }
+
+        // Each probe is remixed: plain double hashing (h1 + i * h2) over a power-of-two
+        // array repeats whole probe sequences and floors the false positive rate near 1e-5
+        private static long probe(long hash, int i, long m) {
+            return Math.floorMod(mix(hash + i * 0x9E3779B97F4A7C15L), m);
+        }
+    }
+
+    private static final int RECENT_SIZE = ConfigLoader.getLedgerRecentSize();
+    private static final int BLOOM_CAPACITY = ConfigLoader.getLedgerBloomCapacity();
+    private static final int BITS_PER_KEY = ConfigLoader.getLedgerBloomBitsPerKey();
+    private static final long WINDOW_MS = ConfigLoader.getLedgerWindowMillis();
+
+    public static final SummaryLedger EMPTY = new SummaryLedger(new byte[0], List.of());
+
+    /** Ledger read from an object written before ledgers existed (null). */
+    public static SummaryLedger orEmpty(SummaryLedger ledger) {
+        return ledger != null ? ledger : EMPTY;
+    }
+
+    public boolean contains(String key) {
+        long hash = HyperLogLog.hash(key);
+        ByteBuffer hashes = ByteBuffer.wrap(recent);
+        for (int i = 0; i + 8 <= recent.length; i += 8) {
+            if (hashes.getLong(i) == hash) return true;
+        }
+        for (Generation generation : bloom) {
+            if (generation.mightContain(hash)) return true;
+        }
+        return false;
+    }
+
+    public SummaryLedger withApplied(Collection<String> keys) {
+        return withApplied(keys, System.currentTimeMillis(), RECENT_SIZE, BLOOM_CAPACITY, BITS_PER_KEY, WINDOW_MS);
+    }
+
+    public SummaryLedger withApplied(Collection<String> keys, long now, int recentSize, int capacity,
+                                     int bitsPerKey, long windowMs) {
+        // 1. Generations whose newest key left the window are dropped
+        List<Generation> nextBloom = new ArrayList<>(bloom.size() + 1);
+        for (Generation generation : bloom) {
+            if (now - generation.lastAppliedAt() <= windowMs) nextBloom.add(generation);
+        }
+        if (keys.isEmpty() && nextBloom.size() == bloom.size()) return this;
+
+        // 2. New hashes after the recent ones
+        ByteBuffer all = ByteBuffer.allocate(recent.length + 8 * keys.size());
+        all.put(recent);
+        for (String key : keys) {
+            all.putLong(HyperLogLog.hash(key));
+        }
+        int total = all.capacity() / 8;
+        int overflow = Math.max(0, total - recentSize);
+
+        // 3. Hashes pushed out of recent go to the newest generation (copied, never shared)
+        Generation current = null;
+        for (int i = 0; i < overflow; i++) {
+            if (current == null && !nextBloom.isEmpty() && nextBloom.get(0).count() < capacity) {
+                current = copy(nextBloom.get(0));
+                nextBloom.set(0, current);
+            } else if (current == null || current.count() >= capacity) {
+                current = newGeneration(capacity, bitsPerKey, now);
+                nextBloom.add(0, current);
+            }
+            current.set(all.getLong(8 * i));
+            current = new Generation(current.count() + 1, current.hashes(), now, current.bits());
+            nextBloom.set(0, current);
+        }
+        return new SummaryLedger(Arrays.copyOfRange(all.array(), 8 * overflow, 8 * total), nextBloom);
+    }
+
+    private static Generation newGeneration(int capacity, int bitsPerKey, long now) {
+        int bytes = (int) Math.max(8, ((long) capacity * bitsPerKey + 7) / 8);
+        // Optimal number of hash functions: bits per key * ln 2
+        int hashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+        return new Generation(0, hashes, now, new byte[bytes]);
+    }
+
+    private static Generation copy(Generation generation) {
+        return new Generation(generation.count(), generation.hashes(), generation.lastAppliedAt(),
+                generation.bits().clone());
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
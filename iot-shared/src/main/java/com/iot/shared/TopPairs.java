@@ -0,0 +1,90 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heaviest Src-Dst pairs by forward packets: a mergeable Space-Saving summary
+ * holding at most `capacity` pairs.
+ *
+ * - packets   : packets counted for the pair, a lower bound of its true total
+ * - error     : packets the pair may have in sketches where it was not kept
+ * - threshold : upper bound of the total of any pair that is not listed
+ *
+ * A sketch built from one file is exact (error 0): the SummarizeWorker already has
+ * the totals of every pair. Merging adds the counts and charges the threshold of a
+ * sketch to the pairs it does not list, so every bound stays guaranteed.
+ */
+public record TopPairs(
+        @JsonProperty("capacity") int capacity,
+        @JsonProperty("threshold") long threshold,
+        @JsonProperty("entries") List<Entry> entries
+) {
+    public record Entry(
+            @JsonProperty("src_ip") String srcIp,
+            @JsonProperty("dst_ip") String dstIp,
+            @JsonProperty("packets") long packets,
+            @JsonProperty("error") long error
+    ) {
+        public long upperBound() {
+            return packets + error;
+        }
+    }
+
+    private static final Comparator<Entry> HEAVIEST_FIRST =
+            Comparator.comparingLong(Entry::packets).thenComparingLong(Entry::error).reversed();
+
+    public static TopPairs empty(int capacity) {
+        return new TopPairs(capacity, 0, List.of());
+    }
+
+    /** Exact sketch of the given totals, keeping the `capacity` heaviest pairs. */
+    public static TopPairs of(Map<PairKey, Long> packets, int capacity) {
+        List<Entry> entries = new ArrayList<>(packets.size());
+        for (Map.Entry<PairKey, Long> pair : packets.entrySet()) {
+            entries.add(new Entry(pair.getKey().srcIp(), pair.getKey().dstIp(), pair.getValue(), 0));
+        }
+        return truncate(entries, capacity, 0);
+    }
+
+    public TopPairs merge(TopPairs other) {
+        Map<PairKey, long[]> merged = new HashMap<>();
+        for (Entry entry : entries) {
+            merged.put(new PairKey(entry.srcIp(), entry.dstIp()), new long[]{entry.packets(), entry.error(), 1});
+        }
+        for (Entry entry : other.entries) {
+            long[] sum = merged.computeIfAbsent(new PairKey(entry.srcIp(), entry.dstIp()), k -> new long[3]);
+            sum[0] += entry.packets();
+            sum[1] += entry.error();
+            sum[2] |= 2;
+        }
+        // A pair missing from one side may hold up to that side's threshold there
+        List<Entry> entries = new ArrayList<>(merged.size());
+        for (Map.Entry<PairKey, long[]> pair : merged.entrySet()) {
+            long[] sum = pair.getValue();
+            long error = sum[1] + ((sum[2] & 1) == 0 ? threshold : 0) + ((sum[2] & 2) == 0 ? other.threshold : 0);
+            entries.add(new Entry(pair.getKey().srcIp(), pair.getKey().dstIp(), sum[0], error));
+        }
+        return truncate(entries, Math.max(capacity, other.capacity), threshold + other.threshold);
+    }
+
+    /** The k heaviest pairs, heaviest first. */
+    public List<Entry> top(int k) {
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    private static TopPairs truncate(List<Entry> entries, int capacity, long threshold) {
+        entries.sort(HEAVIEST_FIRST);
+        // Dropped pairs raise the bound of the unlisted ones
+        for (int i = capacity; i < entries.size(); i++) {
+            threshold = Math.max(threshold, entries.get(i).upperBound());
+        }
+        List<Entry> kept = new ArrayList<>(entries.subList(0, Math.min(capacity, entries.size())));
+        return new TopPairs(capacity, threshold, kept);
+    }
+}
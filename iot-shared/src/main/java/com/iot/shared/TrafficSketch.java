@@ -0,0 +1,89 @@
+package com.iot.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Kilobyte-sized sketches of the traffic, published by the SummarizeWorker next to
+ * its interim summaries (one per raw file) and merged by the SketchReport:
+ * - top             : heaviest pairs by forward packets (Space-Saving)
+ * - destinations    : distinct destinations of each source IP (HyperLogLog), for
+ *                     scanning / fan-out detection, for at most `maxSources` sources
+ * - fanoutThreshold : largest estimate of a source dropped from `destinations`
+ *
+ * A HyperLogLog takes 2^p bytes whatever its count, so only the `maxSources`
+ * sources with the most destinations are kept (the ones a fan-out report lists):
+ * building and merging never hold more than twice that many. A source dropped by
+ * one sketch and kept by another is only counted where it was kept.
+ *
+ * Pending sketches are stored under sketches/ in bucket-interim, keyed by their raw
+ * file, so that a retried file overwrites its sketch instead of adding a second one.
+ */
+public record TrafficSketch(
+        @JsonProperty("top") TopPairs top,
+        @JsonProperty("destinations") Map<String, HyperLogLog> destinations,
+        @JsonProperty("max_sources") int maxSources,
+        @JsonProperty("fanout_threshold") long fanoutThreshold
+) {
+    public static final String PREFIX = "sketches/";
+
+    public static TrafficSketch empty(int capacity, int maxSources) {
+        return new TrafficSketch(TopPairs.empty(capacity), Map.of(), maxSources, 0);
+    }
+
+    /** Key of the pending sketch of a raw file. */
+    public static String pendingKey(String rawKey) {
+        return PREFIX + rawKey + ".json";
+    }
+
+    /** Sketch of the summaries of one file, in a single pass over them. */
+    public static TrafficSketch of(Collection<IntermediateSummary> summaries, int capacity, int precision, int maxSources) {
+        Map<PairKey, Long> packets = new HashMap<>();
+        Map<String, HyperLogLog> destinations = new HashMap<>();
+        long threshold = 0;
+        for (IntermediateSummary summary : summaries) {
+            packets.merge(PairKey.of(summary), Math.max(0, summary.totalFwdPackets()), Long::sum);
+            HyperLogLog hll = destinations.get(summary.srcIp());
+            if (hll == null) {
+                if (destinations.size() >= 2 * maxSources) {
+                    threshold = Math.max(threshold, truncate(destinations, maxSources));
+                }
+                hll = new HyperLogLog(precision);
+                destinations.put(summary.srcIp(), hll);
+            }
+            hll.add(summary.dstIp());
+        }
+        threshold = Math.max(threshold, truncate(destinations, maxSources));
+        return new TrafficSketch(TopPairs.of(packets, capacity), new TreeMap<>(destinations), maxSources, threshold);
+    }
+
+    public TrafficSketch merge(TrafficSketch other) {
+        int max = Math.max(maxSources, other.maxSources);
+        Map<String, HyperLogLog> merged = new HashMap<>(destinations);
+        other.destinations.forEach((src, hll) -> merged.merge(src, hll, HyperLogLog::merge));
+        long threshold = Math.max(truncate(merged, max), Math.max(fanoutThreshold, other.fanoutThreshold));
+        return new TrafficSketch(top.merge(other.top), new TreeMap<>(merged), max, threshold);
+    }
+
+    // Keeps the `max` sources with the largest estimates, returns the largest dropped one
+    private static long truncate(Map<String, HyperLogLog> destinations, int max) {
+        if (max <= 0 || destinations.size() <= max) return 0;
+        List<Map.Entry<String, Long>> estimates = new ArrayList<>(destinations.size());
+        for (Map.Entry<String, HyperLogLog> source : destinations.entrySet()) {
+            estimates.add(Map.entry(source.getKey(), source.getValue().estimate()));
+        }
+        estimates.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        long threshold = 0;
+        for (Map.Entry<String, Long> dropped : estimates.subList(max, estimates.size())) {
+            destinations.remove(dropped.getKey());
+            threshold = Math.max(threshold, dropped.getValue());
+        }
+        return threshold;
+    }
+}
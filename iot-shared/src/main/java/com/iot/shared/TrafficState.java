@@ -1,28 +1,72 @@
 package com.iot.shared;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * Represents the historical statistics for a Src-Dst pair.
- * Stored in S3 bucket-state.
+ * Stored in S3 bucket-state (the pair objects also hold a SummaryLedger, read
+ * by PairStateStore only).
  */
+@JsonIgnoreProperties({"ledger"})
 public record TrafficState(
         @JsonProperty("src_ip") String srcIp,
         @JsonProperty("dst_ip") String dstIp,
 
-        // N: How many days/updates have we seen?
-        @JsonProperty("count") long count,
-
-        // Statistics for Flow Duration
-        @JsonProperty("sum_duration") double sumDuration,
-        @JsonProperty("sum_sq_duration") double sumSqDuration,
+        // Statistics for Flow Duration (one sample per daily summary)
+        @JsonProperty("duration") RunningStats duration,
 
         // Statistics for Forward Packets
-        @JsonProperty("sum_packets") double sumPackets,
-        @JsonProperty("sum_sq_packets") double sumSqPackets
+        @JsonProperty("packets") RunningStats packets
 ) {
     // Helper to create an empty state for a new IP pair
     public static TrafficState empty(String src, String dst) {
-        return new TrafficState(src, dst, 0, 0.0, 0.0, 0.0, 0.0);
+        return new TrafficState(src, dst, RunningStats.EMPTY, RunningStats.EMPTY);
+    }
+
+    /**
+     * Reads both the current JSON and the former one, which stored
+     * count / sum_duration / sum_sq_duration / sum_packets / sum_sq_packets.
+     */
+    @JsonCreator
+    public static TrafficState fromJson(
+            @JsonProperty("src_ip") String srcIp,
+            @JsonProperty("dst_ip") String dstIp,
+            @JsonProperty("duration") RunningStats duration,
+            @JsonProperty("packets") RunningStats packets,
+            @JsonProperty("count") long count,
+            @JsonProperty("sum_duration") double sumDuration,
+            @JsonProperty("sum_sq_duration") double sumSqDuration,
+            @JsonProperty("sum_packets") double sumPackets,
+            @JsonProperty("sum_sq_packets") double sumSqPackets) {
+        if (duration != null && packets != null) {
+            return new TrafficState(srcIp, dstIp, duration, packets);
+        }
+        return fromSums(srcIp, dstIp, count, sumDuration, sumSqDuration, sumPackets, sumSqPackets);
+    }
+
+    // Conversion path for states written with sums and sums of squares
+    public static TrafficState fromSums(String src, String dst, long count,
+                                        double sumDuration, double sumSqDuration,
+                                        double sumPackets, double sumSqPackets) {
+        return new TrafficState(src, dst,
+                RunningStats.fromSums(count, sumDuration, sumSqDuration),
+                RunningStats.fromSums(count, sumPackets, sumSqPackets));
+    }
+
+    // N: How many days/updates have we seen?
+    public long count() {
+        return duration.count();
+    }
+
+    // Adds one daily summary
+    public TrafficState add(long flowDuration, long fwdPackets) {
+        return new TrafficState(srcIp, dstIp, duration.add(flowDuration), packets.add(fwdPackets));
+    }
+
+    // Combines two partial states of the same pair, in any order
+    public TrafficState merge(TrafficState other) {
+        return new TrafficState(srcIp, dstIp, duration.merge(other.duration), packets.merge(other.packets));
     }
-}
\ No newline at end of file
+}
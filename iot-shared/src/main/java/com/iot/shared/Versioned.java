@@ -0,0 +1,8 @@
+package com.iot.shared;
+
+/**
+ * A value read from an ObjectStore with the version (ETag) of the object it came
+ * from, to be passed back to a conditional write.
+ */
+public record Versioned<T>(T value, String etag) {
+}
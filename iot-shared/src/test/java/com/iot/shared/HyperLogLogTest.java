@@ -0,0 +1,80 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    private static HyperLogLog of(int precision, int from, int to) {
+        HyperLogLog hll = new HyperLogLog(precision);
+        for (int i = from; i < to; i++) {
+            hll.add("192.168." + (i >>> 8 & 0xFF) + "." + (i & 0xFF) + "#" + i);
+        }
+        return hll;
+    }
+
+    @Test
+    void estimatesWithinItsStandardError() {
+        // p = 11: standard error about 2.3%, checked at 4 sigma
+        for (int distinct : new int[]{1_000, 10_000, 100_000}) {
+            long estimate = of(11, 0, distinct).estimate();
+            assertEquals(distinct, estimate, distinct * 0.092, "distinct " + distinct);
+        }
+    }
+
+    @Test
+    void smallCardinalitiesAreNearlyExact() {
+        assertEquals(0, new HyperLogLog(11).estimate());
+        assertEquals(50, of(11, 0, 50).estimate(), 2);
+    }
+
+    @Test
+    void duplicatesDoNotCount() {
+        HyperLogLog once = of(11, 0, 5_000);
+        HyperLogLog twice = of(11, 0, 5_000);
+        for (int i = 0; i < 5_000; i++) {
+            twice.add("192.168." + (i >>> 8 & 0xFF) + "." + (i & 0xFF) + "#" + i);
+        }
+        assertEquals(once, twice);
+    }
+
+    @Test
+    void mergeEqualsTheSketchOfTheUnion() {
+        HyperLogLog a = of(12, 0, 30_000);
+        HyperLogLog b = of(12, 20_000, 50_000);
+
+        assertEquals(of(12, 0, 50_000), a.merge(b));
+        assertEquals(a.merge(b), b.merge(a));
+        assertEquals(a, a.merge(a));
+        assertEquals(a, a.merge(new HyperLogLog(12)));
+        // Sketches are left unchanged
+        assertEquals(of(12, 0, 30_000), a);
+    }
+
+    @Test
+    void refusesMismatchedPrecisions() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(10).merge(new HyperLogLog(11)));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MIN_PRECISION - 1));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    @Test
+    void survivesJsonAndSmileRoundTripsSparseAndDense() {
+        HyperLogLog sparse = of(11, 0, 100);
+        HyperLogLog dense = of(11, 0, 100_000);
+        assertTrue(sparse.sparse());
+        assertFalse(dense.sparse());
+
+        for (String format : List.of(JsonUtils.FORMAT_JSON, JsonUtils.FORMAT_SMILE)) {
+            for (HyperLogLog hll : List.of(sparse, dense)) {
+                assertEquals(hll, JsonUtils.fromBytes(JsonUtils.toBytes(hll, format), HyperLogLog.class), format);
+            }
+        }
+    }
+}
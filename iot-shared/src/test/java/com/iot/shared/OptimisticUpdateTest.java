@@ -0,0 +1,127 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OptimisticUpdateTest {
+
+    private static final String BUCKET = "state";
+    private static final String KEY = "counter";
+
+    // A counter stored as decimal text; a missing object counts as 0
+    private static final OptimisticUpdate.Codec<Long> COUNTER = new OptimisticUpdate.Codec<>() {
+        @Override
+        public Long decode(byte[] data) {
+            return data == null ? 0L : Long.parseLong(new String(data, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public byte[] encode(Long value) {
+            return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    private final MemoryObjectStore objects = new MemoryObjectStore();
+
+    private long stored() {
+        return COUNTER.decode(objects.read(BUCKET, KEY));
+    }
+
+    @Test
+    void createsMissingObject() {
+        OptimisticUpdate updates = new OptimisticUpdate(objects, 3, 0, 0);
+
+        Versioned<Long> written = updates.apply(BUCKET, KEY, null, COUNTER, v -> v + 1);
+
+        assertEquals(1L, written.value());
+        assertNotNull(written.etag());
+        assertEquals(1L, stored());
+    }
+
+    @Test
+    void writesWithoutReadingWhileKnownValueIsCurrent() {
+        OptimisticUpdate updates = new OptimisticUpdate(objects, 3, 0, 0);
+        Versioned<Long> known = updates.apply(BUCKET, KEY, null, COUNTER, v -> v + 1);
+
+        AtomicInteger calls = new AtomicInteger();
+        Versioned<Long> written = updates.apply(BUCKET, KEY, known, COUNTER, v -> {
+            calls.incrementAndGet();
+            return v + 1;
+        });
+
+        assertEquals(2L, written.value());
+        assertEquals(1, calls.get());
+        assertEquals(2L, stored());
+    }
+
+    @Test
+    void reappliesChangeToFreshValueOnConflict() {
+        OptimisticUpdate updates = new OptimisticUpdate(objects, 3, 0, 0);
+        Versioned<Long> known = updates.apply(BUCKET, KEY, null, COUNTER, v -> v + 1);
+        // Another writer moves the object on: the known ETag is stale
+        objects.write(BUCKET, KEY, COUNTER.encode(10L));
+
+        List<Long> seen = new ArrayList<>();
+        Versioned<Long> written = updates.apply(BUCKET, KEY, known, COUNTER, v -> {
+            seen.add(v);
+            return v + 1;
+        });
+
+        assertEquals(List.of(1L, 10L), seen);
+        assertEquals(11L, written.value());
+        assertEquals(11L, stored());
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        OptimisticUpdate updates = new OptimisticUpdate(objects, 4, 0, 0);
+        AtomicInteger calls = new AtomicInteger();
+
+        // Every attempt is overtaken by a write made in between
+        assertThrows(IllegalStateException.class, () -> updates.apply(BUCKET, KEY, null, COUNTER, v -> {
+            calls.incrementAndGet();
+            objects.write(BUCKET, KEY, COUNTER.encode(100L));
+            return v + 1;
+        }));
+        assertEquals(4, calls.get());
+        assertEquals(100L, stored());
+    }
+
+    @Test
+    void concurrentWritersLoseNoUpdate() throws Exception {
+        OptimisticUpdate updates = new OptimisticUpdate(objects, 1000, 1, 5);
+        int threads = 8;
+        int increments = 200;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    Versioned<Long> known = null;
+                    for (int i = 0; i < increments; i++) {
+                        known = updates.apply(BUCKET, KEY, known, COUNTER, v -> v + 1);
+                    }
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals((long) threads * increments, stored());
+    }
+}
@@ -0,0 +1,100 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateSegmentTest {
+
+    private static List<TrafficState> states(int pairs) {
+        SplittableRandom random = new SplittableRandom(7);
+        List<TrafficState> states = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            String src = i % 5 == 0 ? "2001:db8::" + Integer.toHexString(i) : "10.0." + (i / 256) + "." + (i % 256);
+            TrafficState state = TrafficState.empty(src, "192.168.1." + (1 + i % 8));
+            for (int n = 0; n <= i % 4; n++) {
+                state = state.add(random.nextLong(1_000_000), random.nextLong(500));
+            }
+            states.add(state);
+        }
+        return states;
+    }
+
+    @Test
+    void decodesEveryStateItEncoded() {
+        List<TrafficState> states = states(500);
+
+        Map<PairKey, TrafficState> decoded = StateSegment.decodeAll(StateSegment.encode(states));
+
+        assertEquals(states.size(), decoded.size());
+        for (TrafficState state : states) {
+            assertEquals(state, decoded.get(PairKey.of(state)));
+        }
+    }
+
+    @Test
+    void findsPairsThroughTheIndex() {
+        List<TrafficState> states = states(500);
+        byte[] segment = StateSegment.encode(states);
+
+        for (TrafficState state : states) {
+            assertEquals(state, StateSegment.find(segment, PairKey.of(state)));
+        }
+        assertNull(StateSegment.find(segment, new PairKey("10.9.9.9", "192.168.1.1")));
+        assertNull(StateSegment.find(StateSegment.encode(List.of()), new PairKey("10.0.0.1", "192.168.1.1")));
+    }
+
+    @Test
+    void keepsTheLedgerInTheTrailer() {
+        List<String> applied = List.of("batch-1.json", "batch-2.smile", "batch-3.json");
+        SummaryLedger ledger = SummaryLedger.EMPTY.withApplied(applied);
+
+        byte[] segment = StateSegment.encode(states(20), ledger);
+
+        SummaryLedger read = StateSegment.ledger(segment);
+        for (String key : applied) {
+            assertTrue(read.contains(key));
+        }
+        assertFalse(read.contains("batch-4.json"));
+        assertEquals(20, StateSegment.decodeAll(segment).size());
+        assertSame(SummaryLedger.EMPTY, StateSegment.ledger(StateSegment.encode(states(20))));
+    }
+
+    @Test
+    void readsVersion2SegmentsWithoutLedger() {
+        List<TrafficState> states = states(50);
+        // Version 2 is version 3 without the trailer
+        byte[] v3 = StateSegment.encode(states);
+        byte[] v2 = Arrays.copyOf(v3, v3.length - 4);
+        ByteBuffer.wrap(v2).putShort(4, StateSegment.VERSION_NO_LEDGER);
+
+        Map<PairKey, TrafficState> decoded = StateSegment.decodeAll(v2);
+
+        for (TrafficState state : states) {
+            assertEquals(state, decoded.get(PairKey.of(state)));
+            assertEquals(state, StateSegment.find(v2, PairKey.of(state)));
+        }
+        assertSame(SummaryLedger.EMPTY, StateSegment.ledger(v2));
+    }
+
+    @Test
+    void rejectsOtherData() {
+        assertThrows(IllegalArgumentException.class, () -> StateSegment.decodeAll(new byte[16]));
+
+        byte[] segment = StateSegment.encode(states(3));
+        ByteBuffer.wrap(segment).putShort(4, (short) 9);
+        assertThrows(IllegalArgumentException.class, () -> StateSegment.decodeAll(segment));
+    }
+}
@@ -0,0 +1,129 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SummaryLedgerTest {
+
+    private static final long HOUR = 3_600_000L;
+    private static final long T0 = 1_700_000_000_000L;
+
+    private static List<String> keys(String prefix, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(SummaryBatch.KEY_PREFIX + prefix + "-" + i + ".json");
+        }
+        return keys;
+    }
+
+    private static SummaryLedger apply(SummaryLedger ledger, List<String> keys, long now) {
+        return ledger.withApplied(keys, now, 8, 16, 32, HOUR);
+    }
+
+    @Test
+    void recentKeysAreExactHashes() {
+        SummaryLedger ledger = apply(SummaryLedger.EMPTY, keys("a", 5), T0);
+
+        assertEquals(5 * 8, ledger.recent().length);
+        assertTrue(ledger.bloom().isEmpty());
+        for (String key : keys("a", 5)) {
+            assertTrue(ledger.contains(key));
+        }
+        assertFalse(ledger.contains(keys("b", 1).get(0)));
+    }
+
+    @Test
+    void overflowGoesToBloomGenerationsOfBoundedCapacity() {
+        SummaryLedger ledger = apply(SummaryLedger.EMPTY, keys("a", 100), T0);
+
+        // 8 recent, 92 in generations of 16 keys, newest first
+        assertEquals(8 * 8, ledger.recent().length);
+        assertEquals(6, ledger.bloom().size());
+        assertEquals(12, ledger.bloom().get(0).count());
+        for (int i = 1; i < 6; i++) {
+            assertEquals(16, ledger.bloom().get(i).count());
+        }
+        for (String key : keys("a", 100)) {
+            assertTrue(ledger.contains(key));
+        }
+    }
+
+    @Test
+    void keysAreKeptForTheWholeWindowWhateverTheirNumber() {
+        SummaryLedger ledger = SummaryLedger.EMPTY;
+        // 50 batches of 40 keys within the window: far more than recent + one generation
+        for (int batch = 0; batch < 50; batch++) {
+            ledger = apply(ledger, keys("b" + batch, 40), T0 + batch * 60_000L);
+        }
+        for (int batch = 0; batch < 50; batch++) {
+            for (String key : keys("b" + batch, 40)) {
+                assertTrue(ledger.contains(key), key);
+            }
+        }
+    }
+
+    @Test
+    void generationsLeaveOnlyOnceTheirNewestKeyIsOutOfTheWindow() {
+        SummaryLedger ledger = apply(SummaryLedger.EMPTY, keys("old", 40), T0);
+        ledger = apply(ledger, keys("mid", 8), T0 + HOUR / 2);
+        int generations = ledger.bloom().size();
+
+        // Still within the window of the last generation written
+        SummaryLedger inWindow = apply(ledger, List.of(), T0 + HOUR);
+        assertSame(ledger, inWindow);
+
+        // An hour after the last key: every generation is dropped, the recent hashes stay
+        SummaryLedger expired = apply(ledger, List.of(), T0 + HOUR / 2 + HOUR + 1);
+        assertTrue(generations > 0);
+        assertTrue(expired.bloom().isEmpty());
+        for (String key : keys("mid", 8)) {
+            assertTrue(expired.contains(key));
+        }
+        assertFalse(expired.contains(keys("old", 40).get(0)));
+    }
+
+    @Test
+    void updatesNeverChangeAnEarlierLedger() {
+        SummaryLedger first = apply(SummaryLedger.EMPTY, keys("a", 20), T0);
+        SummaryLedger second = apply(first, keys("b", 20), T0 + 1);
+
+        for (String key : keys("b", 20)) {
+            assertFalse(first.contains(key), key);
+            assertTrue(second.contains(key), key);
+        }
+        assertEquals(12, first.bloom().get(0).count());
+    }
+
+    @Test
+    void falsePositivesStayRare() {
+        SummaryLedger ledger = apply(SummaryLedger.EMPTY, keys("applied", 2000), T0);
+
+        int falsePositives = 0;
+        for (String key : keys("never", 100_000)) {
+            if (ledger.contains(key)) falsePositives++;
+        }
+        // About 125 generations at 0.6185^32 each: ~3e-5 expected per lookup
+        assertTrue(falsePositives <= 10, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void survivesJsonAndSmileRoundTrips() {
+        SummaryLedger ledger = apply(SummaryLedger.EMPTY, keys("a", 300), T0);
+
+        for (String format : List.of(JsonUtils.FORMAT_JSON, JsonUtils.FORMAT_SMILE)) {
+            SummaryLedger read = JsonUtils.fromBytes(JsonUtils.toBytes(ledger, format), SummaryLedger.class);
+            assertEquals(ledger.bloom().size(), read.bloom().size(), format);
+            for (String key : keys("a", 300)) {
+                assertTrue(read.contains(key), format + " " + key);
+            }
+            assertFalse(read.contains(keys("b", 1).get(0)), format);
+        }
+    }
+}
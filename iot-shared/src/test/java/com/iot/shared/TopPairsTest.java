@@ -0,0 +1,90 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopPairsTest {
+
+    private static PairKey pair(int i) {
+        return new PairKey("10.0." + (i / 256) + "." + (i % 256), "192.168.1." + (1 + i % 8));
+    }
+
+    @Test
+    void sketchOfOneFileIsExact() {
+        Map<PairKey, Long> packets = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            packets.put(pair(i), (long) (i + 1) * 100);
+        }
+
+        TopPairs top = TopPairs.of(packets, 3);
+
+        assertEquals(List.of(1000L, 900L, 800L), top.top(5).stream().map(TopPairs.Entry::packets).toList());
+        assertEquals(pair(9), new PairKey(top.top(1).get(0).srcIp(), top.top(1).get(0).dstIp()));
+        assertTrue(top.entries().stream().allMatch(e -> e.error() == 0));
+        // Heaviest pair left out
+        assertEquals(700, top.threshold());
+    }
+
+    @Test
+    void mergeKeepsEveryBound() {
+        // 40 files over 2000 pairs, a few of them heavy, each file keeping 50 pairs
+        SplittableRandom random = new SplittableRandom(3);
+        Map<PairKey, Long> totals = new HashMap<>();
+        List<TopPairs> sketches = new ArrayList<>();
+        for (int file = 0; file < 40; file++) {
+            Map<PairKey, Long> packets = new HashMap<>();
+            for (int row = 0; row < 500; row++) {
+                int i = random.nextInt(10) == 0 ? random.nextInt(20) : random.nextInt(2000);
+                packets.merge(pair(i), 1L + random.nextInt(100), Long::sum);
+            }
+            packets.forEach((pair, n) -> totals.merge(pair, n, Long::sum));
+            sketches.add(TopPairs.of(packets, 50));
+        }
+
+        TopPairs merged = TopPairs.empty(50);
+        for (TopPairs sketch : sketches) {
+            merged = merged.merge(sketch);
+        }
+
+        assertTrue(merged.entries().size() <= 50);
+        Map<PairKey, TopPairs.Entry> listed = new HashMap<>();
+        for (TopPairs.Entry entry : merged.entries()) {
+            PairKey pair = new PairKey(entry.srcIp(), entry.dstIp());
+            listed.put(pair, entry);
+            long total = totals.get(pair);
+            assertTrue(entry.packets() <= total, "lower bound of " + pair);
+            assertTrue(total <= entry.upperBound(), "upper bound of " + pair);
+        }
+        for (Map.Entry<PairKey, Long> total : totals.entrySet()) {
+            if (!listed.containsKey(total.getKey())) {
+                assertTrue(total.getValue() <= merged.threshold(), "threshold for " + total.getKey());
+            }
+        }
+        // The heavy pairs clear the threshold and are all listed
+        for (int i = 0; i < 20; i++) {
+            assertTrue(listed.containsKey(pair(i)), "heavy pair " + i);
+        }
+    }
+
+    @Test
+    void mergeOrderDoesNotChangeTheTotals() {
+        Map<PairKey, Long> a = Map.of(pair(1), 10L, pair(2), 20L);
+        Map<PairKey, Long> b = Map.of(pair(2), 5L, pair(3), 7L);
+
+        TopPairs ab = TopPairs.of(a, 10).merge(TopPairs.of(b, 10));
+        TopPairs ba = TopPairs.of(b, 10).merge(TopPairs.of(a, 10));
+
+        assertEquals(ab.entries(), ba.entries());
+        assertEquals(25L, ab.top(1).get(0).packets());
+        assertEquals(0, ab.threshold());
+    }
+}
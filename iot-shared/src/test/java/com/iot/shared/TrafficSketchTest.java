@@ -0,0 +1,45 @@
+package com.iot.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficSketchTest {
+
+    // Source i talks to i + 1 destinations
+    private static List<IntermediateSummary> fanout(int first, int sources) {
+        List<IntermediateSummary> summaries = new ArrayList<>();
+        for (int i = first; i < first + sources; i++) {
+            for (int d = 0; d <= i; d++) {
+                summaries.add(new IntermediateSummary("10.0.0." + i, "192.168." + (d / 256) + "." + (d % 256), "2024-02-28", 1, 1));
+            }
+        }
+        return summaries;
+    }
+
+    @Test
+    void keepsTheSourcesWithTheMostDestinations() {
+        TrafficSketch sketch = TrafficSketch.of(fanout(0, 100), 10, 11, 5);
+
+        assertEquals(Set.of("10.0.0.95", "10.0.0.96", "10.0.0.97", "10.0.0.98", "10.0.0.99"), sketch.destinations().keySet());
+        // About 95 distinct destinations for the heaviest source dropped
+        assertTrue(Math.abs(sketch.fanoutThreshold() - 95) <= 5, "threshold " + sketch.fanoutThreshold());
+    }
+
+    @Test
+    void mergeStaysWithinMaxSources() {
+        TrafficSketch merged = TrafficSketch.empty(10, 5);
+        for (int file = 0; file < 10; file++) {
+            merged = merged.merge(TrafficSketch.of(fanout(file * 20, 20), 10, 11, 5));
+            assertTrue(merged.destinations().size() <= 5);
+        }
+
+        assertEquals(Set.of("10.0.0.195", "10.0.0.196", "10.0.0.197", "10.0.0.198", "10.0.0.199"), merged.destinations().keySet());
+        assertTrue(Math.abs(merged.fanoutThreshold() - 195) <= 10, "threshold " + merged.fanoutThreshold());
+    }
+}